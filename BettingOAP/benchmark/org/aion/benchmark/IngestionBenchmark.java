@@ -0,0 +1,71 @@
+package org.aion.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import state.ProjectedState;
+import state.StatePopulator;
+import util.Log;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of applying the logs of a synthetic game to the projected state, and of reverting its last blocks.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class IngestionBenchmark {
+
+    @Param({"1000", "10000"})
+    public int playerCount;
+
+    @Param({"100"})
+    public int statementCount;
+
+    @Param({"10000", "100000"})
+    public int voteCount;
+
+    @Param({"1000"})
+    public int logsPerBlock;
+
+    @Param({"10"})
+    public int revertedBlockCount;
+
+    private List<Log> logs;
+
+    @Setup(Level.Trial)
+    public void generateGame() {
+        logs = SyntheticGame.generate(playerCount, statementCount, voteCount, logsPerBlock);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public ProjectedState populate() {
+        ProjectedState projectedState = new ProjectedState();
+        new StatePopulator(projectedState).populate(logs);
+        return projectedState;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 30)
+    public ProjectedState revertBlocks(PopulatedState state) {
+        state.projectedState.revertBlocks(revertedBlockCount);
+        return state.projectedState;
+    }
+
+    // reverting modifies the state, so every measured call gets a freshly populated one
+    @State(Scope.Thread)
+    public static class PopulatedState {
+        private ProjectedState projectedState;
+
+        @Setup(Level.Iteration)
+        public void populate(IngestionBenchmark benchmark) {
+            projectedState = benchmark.populate();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.aion.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import util.Helper;
+import util.Log;
+import util.LogBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding the logs returned by the node, and of the hex conversions used for every hash and address.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParsingBenchmark {
+
+    // number of logs in the eth_getLogs response
+    @Param({"1000"})
+    public int logCount;
+
+    private String logJson;
+    private String logsResponse;
+    private byte[] hash;
+    private String hashString;
+
+    @Setup(Level.Trial)
+    public void generateJson() {
+        List<Log> logs = SyntheticGame.generate(logCount / 2, 10, logCount / 2, 100);
+        StringBuilder response = new StringBuilder("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":[");
+        for (int i = 0; i < logCount; i++) {
+            if (i > 0) {
+                response.append(',');
+            }
+            response.append(toJson(logs.get(i)));
+        }
+        logsResponse = response.append("]}").toString();
+        // a vote, which has the most topics
+        logJson = toJson(logs.get(logs.size() - 20));
+
+        hash = new byte[32];
+        new Random(42).nextBytes(hash);
+        hashString = Helper.bytesToHexStringWith0x(hash);
+    }
+
+    @Benchmark
+    public Log buildFromJsonString() {
+        return new LogBuilder().buildFromJsonString(logJson);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Log> readLogsResponse() throws IOException {
+        return LogBuilder.readLogsResponse(new StringReader(logsResponse), SyntheticGame.contractAddress);
+    }
+
+    @Benchmark
+    public String bytesToHexString() {
+        return Helper.bytesToHexStringWith0x(hash);
+    }
+
+    @Benchmark
+    public byte[] hexStringToBytes() {
+        return Helper.hexStringToBytes(hashString);
+    }
+
+    private static String toJson(Log log) {
+        StringBuilder topics = new StringBuilder();
+        for (byte[] topic : log.copyOfTopics()) {
+            topics.append(topics.length() == 0 ? "" : ",").append('"').append(Helper.bytesToHexStringWith0x(topic)).append('"');
+        }
+        return "{\"address\":\"" + Helper.bytesToHexStringWith0x(log.address.getAddressBytes()) + "\"," +
+                "\"data\":\"" + Helper.bytesToHexStringWith0x(log.copyOfData()) + "\"," +
+                "\"topics\":[" + topics + "]," +
+                "\"blockNumber\":\"0x" + Long.toHexString(log.blockNumber) + "\"," +
+                "\"blockHash\":\"" + Helper.bytesToHexStringWith0x(log.blockHash) + "\"," +
+                "\"transactionIndex\":\"0x" + Integer.toHexString(log.transactionIndex) + "\"," +
+                "\"logIndex\":\"0x" + Integer.toHexString(log.logIndex) + "\"," +
+                "\"transactionHash\":\"" + Helper.bytesToHexStringWith0x(log.copyOfTransactionHash()) + "\"," +
+                "\"removed\":false}";
+    }
+}
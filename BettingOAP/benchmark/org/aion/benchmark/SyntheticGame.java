@@ -0,0 +1,81 @@
+package org.aion.benchmark;
+
+import org.aion.harness.kernel.Address;
+import util.Log;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the logs of a complete game: deployment, registrations, statements, votes, revealed answers and the prize
+ * distribution. Every statement is answered with "A", and votes alternate between "A" and "B" so half of them score.
+ * The logs are generated from a fixed seed, so all the runs of a benchmark replay the same game.
+ */
+class SyntheticGame {
+    static final Address contractAddress = new Address(new byte[32]);
+
+    private final Random random = new Random(42);
+    private final List<Log> logs = new ArrayList<>();
+    private final int logsPerBlock;
+    private long blockNumber = 10;
+    private byte[] blockHash;
+    private int logsInBlock;
+
+    private SyntheticGame(int logsPerBlock) {
+        this.logsPerBlock = logsPerBlock;
+        this.blockHash = randomBytes();
+    }
+
+    static List<Log> generate(int playerCount, int statementCount, int voteCount, int logsPerBlock) {
+        if ((long) playerCount * statementCount < voteCount) {
+            throw new IllegalArgumentException("Not enough players and statements for " + voteCount + " votes");
+        }
+        SyntheticGame game = new SyntheticGame(logsPerBlock);
+        game.add(new byte[0], "BettingContractDeployed");
+
+        byte[][] players = new byte[playerCount][];
+        for (int i = 0; i < playerCount; i++) {
+            players[i] = game.randomBytes();
+            game.add(players[i], "Registered");
+        }
+        for (int i = 0; i < statementCount; i++) {
+            game.add(("Statement " + i).getBytes(), "SubmittedStatement", players[i % playerCount], statementId(i), game.randomBytes());
+        }
+        // each player votes at most once per statement, same as the contract
+        for (int i = 0; i < voteCount; i++) {
+            game.add(i % 2 == 0 ? "A".getBytes() : "B".getBytes(), "Voted", players[i % playerCount], statementId((i / playerCount) % statementCount));
+        }
+        for (int i = 0; i < statementCount; i++) {
+            game.add("A".getBytes(), "RevealedAnswer", statementId(i));
+        }
+        game.add(new byte[0], "GameStopped");
+        game.add(BigInteger.ONE.toByteArray(), "DistributedPrize");
+        return game.logs;
+    }
+
+    private static byte[] statementId(int i) {
+        return BigInteger.valueOf(i + 1).toByteArray();
+    }
+
+    private void add(byte[] data, String event, byte[]... otherTopics) {
+        if (logsInBlock == logsPerBlock) {
+            blockNumber++;
+            blockHash = randomBytes();
+            logsInBlock = 0;
+        }
+        List<byte[]> topics = new ArrayList<>();
+        topics.add(event.getBytes());
+        topics.addAll(Arrays.asList(otherTopics));
+        logs.add(new Log(contractAddress, data, topics, blockNumber, logsInBlock, 0, blockHash, randomBytes()));
+        logsInBlock++;
+    }
+
+    private byte[] randomBytes() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
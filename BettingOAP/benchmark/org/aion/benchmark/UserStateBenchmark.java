@@ -0,0 +1,90 @@
+package org.aion.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import state.ProjectedState;
+import state.StateDelta;
+import state.StatePopulator;
+import state.UserState;
+import types.Json.*;
+import util.Log;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the UserState queries served by the REST API, against the published snapshot of a finished synthetic game.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserStateBenchmark {
+
+    @Param({"1000", "10000"})
+    public int playerCount;
+
+    @Param({"100"})
+    public int statementCount;
+
+    @Param({"10000", "100000"})
+    public int voteCount;
+
+    @Param({"1000"})
+    public int logsPerBlock;
+
+    private UserState userState;
+    private long blockNumber;
+    // delta of the last block, which reveals the answers and distributes the prize
+    private StateDelta lastDelta;
+
+    @Setup(Level.Trial)
+    public void populateGame() {
+        List<Log> logs = SyntheticGame.generate(playerCount, statementCount, voteCount, logsPerBlock);
+        ProjectedState projectedState = new ProjectedState();
+        StatePopulator statePopulator = new StatePopulator(projectedState);
+        statePopulator.addListener(delta -> lastDelta = delta);
+        statePopulator.populate(logs);
+
+        // the node connection and the block number collector are not used by the aggregation methods
+        userState = new UserState(projectedState, null, null);
+        blockNumber = logs.get(logs.size() - 1).blockNumber;
+    }
+
+    @Benchmark
+    public List<AggregatedStatement> getStatements() {
+        return userState.getStatements(blockNumber);
+    }
+
+    @Benchmark
+    public Collection<AggregatedPlayer> getPlayers() {
+        return userState.getPlayers(blockNumber);
+    }
+
+    @Benchmark
+    public List<AggregatedAnswer> getAnswers() {
+        return userState.getAnswers(blockNumber);
+    }
+
+    @Benchmark
+    public List<AggregatedVote> getVotes() {
+        return userState.getVotes(blockNumber);
+    }
+
+    @Benchmark
+    public AggregatedGame getGameStatus() {
+        return userState.getGameStatus(blockNumber);
+    }
+
+    @Benchmark
+    public List<AggregatedLeaderboardEntry> getLeaderboard() {
+        return userState.getLeaderboard(0, 100);
+    }
+
+    @Benchmark
+    public AggregatedStateDelta getDelta() {
+        return userState.getDelta(lastDelta, blockNumber);
+    }
+}
@@ -1,12 +1,16 @@
 import org.aion.harness.kernel.Address;
-import org.aion.harness.main.types.ReceiptHash;
 import org.glassfish.grizzly.http.server.HttpServer;
+import server.AddressSubscriptionApplication;
 import server.SimpleHttpServer;
+import server.StateEventBroadcaster;
+import state.CheckpointStore;
+import state.LogStore;
 import state.ProjectedState;
 import state.StatePopulator;
 import state.UserState;
+import types.SentTransaction;
+import util.AsyncNodeConnection;
 import util.NodeConnection;
-import util.Pair;
 import util.QueuePopulator;
 import worker.BlockNumberCollector;
 import worker.EventListener;
@@ -14,6 +18,8 @@ import worker.ReceiptCollector;
 import worker.TransactionSender;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -37,6 +43,9 @@ public class BettingGame {
     private ReceiptCollector receiptCollector;
     private UserState userState;
     private QueuePopulator queuePopulator;
+    private StateEventBroadcaster stateEventBroadcaster;
+    private AddressSubscriptionApplication addressSubscriptionApplication;
+    private LogStore logStore;
 
     public BettingGame(String ip,
                        String port,
@@ -45,49 +54,82 @@ public class BettingGame {
                        long startingBlockNumber,
                        long pollingIntervalMillis,
                        String serverHostName,
-                       String serverPort) {
+                       String serverPort,
+                       String checkpointFile,
+                       String logStoreDirectory,
+                       int maxSendBatchesInFlight) {
 
         NodeConnection nodeConnection = new NodeConnection(ip, port);
+        int maxInFlightRequests = 16;
+        AsyncNodeConnection asyncNodeConnection = new AsyncNodeConnection(ip, port, maxInFlightRequests);
 
         ProjectedState projectedState = new ProjectedState();
-        StatePopulator statePopulator = new StatePopulator(projectedState);
+        // applied logs are only stored if a directory is configured
+        long logStoreSegmentSize = 64 * 1024 * 1024;
+        if (logStoreDirectory != null) {
+            try {
+                logStore = new LogStore(Paths.get(logStoreDirectory), logStoreSegmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        StatePopulator statePopulator = new StatePopulator(projectedState, logStore);
 
         LinkedBlockingDeque<byte[]> rawTransactions = new LinkedBlockingDeque<>(capacity);
-        LinkedBlockingDeque<Pair<ReceiptHash, Long>> transactionHashes = new LinkedBlockingDeque<>(capacity);
+        LinkedBlockingDeque<SentTransaction> transactionHashes = new LinkedBlockingDeque<>(capacity);
 
-        queuePopulator = new QueuePopulator(rawTransactions);
+        // long enough to cover the time transactions spend queued and waiting for their receipt
+        int maxRecentTransactions = 10_000;
+        long recentTransactionTtlMillis = 10 * 60 * 1000;
+        queuePopulator = new QueuePopulator(rawTransactions, maxRecentTransactions, recentTransactionTtlMillis);
+
+        blockNumberCollector = new BlockNumberCollector(
+                nodeConnection,
+                pollingIntervalMillis,
+                3);
 
         long range = 10;
+        long catchUpWindowSize = 10_000;
+        int catchUpWindowsAhead = 8;
+        // checkpoints are disabled if no file is configured
+        long checkpointIntervalBlocks = 500;
+        CheckpointStore checkpointStore = checkpointFile == null
+                ? null
+                : new CheckpointStore(Paths.get(checkpointFile), contractAddress, checkpointIntervalBlocks);
         eventListener = new EventListener(
                 nodeConnection,
+                asyncNodeConnection,
+                blockNumberCollector,
                 statePopulator,
                 startingBlockNumber,
                 pollingIntervalMillis,
                 range,
                 getContractTopics(),
-                contractAddress);
+                contractAddress,
+                catchUpWindowSize,
+                catchUpWindowsAhead,
+                checkpointStore);
 
-        blockNumberCollector = new BlockNumberCollector(
-                nodeConnection,
-                pollingIntervalMillis,
-                3);
-
-        userState = new UserState(projectedState, nodeConnection, blockNumberCollector);
+        userState = new UserState(projectedState, asyncNodeConnection, blockNumberCollector);
 
+        // transactions sent after a missing nonce are held for a few blocks, in case it is still on its way
+        long maxNonceGapWaitMillis = 30_000;
         transactionSender = new TransactionSender(
                 blockNumberCollector,
                 rawTransactions,
                 transactionHashes,
-                nodeConnection,
+                asyncNodeConnection,
                 userState,
                 pollingIntervalMillis,
-                pollingIntervalMillis);
+                pollingIntervalMillis,
+                maxSendBatchesInFlight,
+                maxNonceGapWaitMillis);
 
         int minDepth = 6;
         receiptCollector = new ReceiptCollector(
                 blockNumberCollector,
                 transactionHashes,
-                nodeConnection,
+                asyncNodeConnection,
                 userState,
                 minDepth,
                 pollingIntervalMillis,
@@ -109,7 +151,20 @@ public class BettingGame {
         blockNumberCollectorThread.setUncaughtExceptionHandler(new CriticalExceptionHandler());
         blockNumberCollectorThread.setName("blockNumberCollector");
 
-        server = SimpleHttpServer.startServer(userState, queuePopulator, serverHostName, serverPort);
+        stateEventBroadcaster = new StateEventBroadcaster(userState);
+        statePopulator.addListener(stateEventBroadcaster);
+
+        addressSubscriptionApplication = new AddressSubscriptionApplication(blockNumberCollector, capacity);
+        statePopulator.addListener(addressSubscriptionApplication);
+        userState.addTransactionListener(addressSubscriptionApplication);
+        userState.addTransactionListener(queuePopulator);
+
+        server = SimpleHttpServer.startServer(userState,
+                queuePopulator,
+                stateEventBroadcaster,
+                addressSubscriptionApplication,
+                serverHostName,
+                serverPort);
 
         Runtime.getRuntime().addShutdownHook(
                 new Thread(this::shutdown)
@@ -139,6 +194,8 @@ public class BettingGame {
             shutdownLock.unlock();
         }
 
+        stateEventBroadcaster.close();
+        addressSubscriptionApplication.close();
         server.shutdown();
         eventListener.shutdown();
         blockNumberCollector.shutdown();
@@ -150,7 +207,10 @@ public class BettingGame {
             transactionSenderThread.join();
             receiptCollectorThread.join();
             blockNumberCollectorThread.join();
-        } catch (InterruptedException e) {
+            if (logStore != null) {
+                logStore.close();
+            }
+        } catch (InterruptedException | IOException e) {
             e.printStackTrace();
         }
     }
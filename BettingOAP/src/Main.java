@@ -19,6 +19,11 @@ public class Main {
         long pollingIntervalMillis = Long.parseLong(config.getConfigValue("pollingIntervalMillis"));
         String serverHostName = config.getConfigValue("serverHostName");
         String serverPort = config.getConfigValue("serverPort");
+        // optional
+        String checkpointFile = config.getConfigValue("checkpointFile");
+        String logStoreDirectory = config.getConfigValue("logStoreDirectory");
+        String maxSendBatchesInFlightValue = config.getConfigValue("maxSendBatchesInFlight");
+        int maxSendBatchesInFlight = maxSendBatchesInFlightValue == null ? 4 : Integer.parseInt(maxSendBatchesInFlightValue);
 
         BettingGame bettingGame = new BettingGame(ip,
                 port,
@@ -27,7 +32,10 @@ public class Main {
                 startingBlockNumber,
                 pollingIntervalMillis,
                 serverHostName,
-                serverPort);
+                serverPort,
+                checkpointFile,
+                logStoreDirectory,
+                maxSendBatchesInFlight);
         bettingGame.start();
 
     }
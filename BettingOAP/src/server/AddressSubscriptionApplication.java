@@ -0,0 +1,153 @@
+package server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.aion.harness.kernel.Address;
+import org.glassfish.grizzly.websockets.DataFrame;
+import org.glassfish.grizzly.websockets.WebSocket;
+import org.glassfish.grizzly.websockets.WebSocketApplication;
+import org.glassfish.grizzly.websockets.WebSocketEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import state.StateDelta;
+import state.StateListener;
+import state.TransactionListener;
+import types.Player;
+import types.TransactionDetails;
+import types.Json.AddressNotification;
+import types.Json.AggregatedPlayer;
+import util.Helper;
+import worker.BlockNumberCollector;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * WebSocket application which pushes the transaction details and the player entry of an address to the clients
+ * subscribed to it. A client subscribes by sending the address as a hex string, and can subscribe to multiple addresses.
+ * Messages are serialized and sent by a single notifier thread with a bounded queue, so a slow client can not block the
+ * worker threads producing the updates. Notifications are dropped when the queue is full.
+ */
+public class AddressSubscriptionApplication extends WebSocketApplication implements StateListener, TransactionListener {
+
+    private static final String urlPattern = "/ws";
+
+    private final BlockNumberCollector blockNumberCollector;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService notifier;
+    private final Logger logger = LoggerFactory.getLogger("AddressSubscriptionApplication");
+
+    // address without the 0x prefix -> subscribed sockets
+    private final Map<String, Set<WebSocket>> subscribers;
+    // socket -> subscribed addresses, used to remove the subscriptions of a closed socket
+    private final Map<WebSocket, Set<String>> subscriptions;
+
+    public AddressSubscriptionApplication(BlockNumberCollector blockNumberCollector, int capacity) {
+        this.blockNumberCollector = blockNumberCollector;
+        this.objectMapper = new ObjectMapper();
+        this.subscribers = new ConcurrentHashMap<>();
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.notifier = new ThreadPoolExecutor(1, 1,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                r -> {
+                    Thread t = new Thread(r, "addressNotifier");
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, executor) -> logger.warn("Notification queue is full, dropping notification."));
+    }
+
+    public void register(String contextPath) {
+        WebSocketEngine.getEngine().register(contextPath, urlPattern, this);
+    }
+
+    @Override
+    public void onMessage(WebSocket socket, String text) {
+        String address = normalize(text);
+        if (address.isEmpty()) {
+            return;
+        }
+        subscriptions.computeIfAbsent(socket, k -> ConcurrentHashMap.newKeySet()).add(address);
+        subscribers.computeIfAbsent(address, k -> ConcurrentHashMap.newKeySet()).add(socket);
+    }
+
+    @Override
+    public void onClose(WebSocket socket, DataFrame frame) {
+        Set<String> addresses = subscriptions.remove(socket);
+        if (addresses != null) {
+            for (String address : addresses) {
+                subscribers.computeIfPresent(address, (k, sockets) -> {
+                    sockets.remove(socket);
+                    return sockets.isEmpty() ? null : sockets;
+                });
+            }
+        }
+        super.onClose(socket, frame);
+    }
+
+    @Override
+    public void onTransactionUpdated(Address sender, TransactionDetails transactionDetails) {
+        String address = Helper.bytesToHexString(sender.getAddressBytes());
+        if (subscribers.containsKey(address)) {
+            notify(address, new AddressNotification("transaction", transactionDetails));
+        }
+    }
+
+    @Override
+    public void onStateChanged(StateDelta delta) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        boolean prizeDistributed = delta.getSnapshot().getGame().getPrizeDistributed().key > 0;
+        // scores of all the players are revealed once the prize is distributed
+        Collection<Player> players = delta.isGameChanged() && prizeDistributed
+                ? delta.getSnapshot().getPlayers().values()
+                : delta.getPlayers().values();
+        long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+        for (Player p : players) {
+            // removed players are null
+            if (p != null) {
+                String address = normalize(p.getPlayerAddress().getAddressString());
+                if (subscribers.containsKey(address)) {
+                    notify(address, new AddressNotification("player", new AggregatedPlayer(p, blockNumber, prizeDistributed)));
+                }
+            }
+        }
+    }
+
+    public void close() {
+        WebSocketEngine.getEngine().unregister(this);
+        notifier.shutdownNow();
+        for (WebSocket socket : subscriptions.keySet()) {
+            socket.close();
+        }
+    }
+
+    private void notify(String address, AddressNotification notification) {
+        notifier.execute(() -> {
+            Set<WebSocket> sockets = subscribers.get(address);
+            if (sockets == null) {
+                return;
+            }
+            String message;
+            try {
+                message = objectMapper.writeValueAsString(notification);
+            } catch (JsonProcessingException e) {
+                logger.error("Could not serialize notification for " + address, e);
+                return;
+            }
+            for (WebSocket socket : sockets) {
+                if (socket.isConnected()) {
+                    // sending only queues the message on the connection
+                    socket.send(message);
+                }
+            }
+        });
+    }
+
+    private static String normalize(String address) {
+        String a = address.trim().toLowerCase();
+        return a.startsWith("0x") ? a.substring(2) : a;
+    }
+}
@@ -7,121 +7,190 @@ import util.QueuePopulator;
 
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.function.LongFunction;
 
 @Path("/state")
 public class BettingService {
 
+    private static final int maxLeaderboardPageSize = 100;
+
     @Inject
     UserState userState;
 
     @Inject
     QueuePopulator queuePopulator;
 
+    @Inject
+    ResponseCache responseCache;
+
+    @Inject
+    StateEventBroadcaster stateEventBroadcaster;
+
     @GET
     @Path("/allStatements")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAllStatements() {
-        return Response.ok()
-                .entity(userState.getStatements())
-                .header("Access-Control-Allow-Origin","*")
-                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
-                .allow("OPTIONS")
-                .build();
+    public Response getAllStatements(@Context Request request) {
+        return cachedResponse(request, "allStatements", userState::getStatements);
     }
 
     @GET
     @Path("/allPlayers")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAllPlayers() {
-        return Response.ok()
-                .entity(userState.getPlayers())
-                .header("Access-Control-Allow-Origin","*")
-                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
-                .allow("OPTIONS")
-                .build();
+    public Response getAllPlayers(@Context Request request) {
+        return cachedResponse(request, "allPlayers", userState::getPlayers);
     }
 
     @GET
     @Path("/allAnswers")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAllAnswers() {
-        return Response.ok()
-                .entity(userState.getAnswers())
-                .header("Access-Control-Allow-Origin","*")
-                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
-                .allow("OPTIONS")
-                .build();
+    public Response getAllAnswers(@Context Request request) {
+        return cachedResponse(request, "allAnswers", userState::getAnswers);
     }
 
     @GET
     @Path("/allVotes")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getVotes() {
-        return Response.ok()
-                .entity(userState.getVotes())
-                .header("Access-Control-Allow-Origin","*")
-                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
-                .allow("OPTIONS")
-                .build();
+    public Response getVotes(@Context Request request) {
+        return cachedResponse(request, "allVotes", userState::getVotes);
     }
 
     @GET
     @Path("/answer")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAnswerId(@QueryParam("eventId") final Integer eventId) {
-        return Response.ok()
-                .entity(userState.getAnswers().get(eventId))
-                .header("Access-Control-Allow-Origin","*")
-                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
-                .allow("OPTIONS")
-                .build();
+    public Response getAnswerId(@Context Request request, @QueryParam("eventId") final Integer eventId) {
+        long stateVersion = userState.getStateVersion();
+        long blockNumber = userState.getCurrentBlockNumber();
+        EntityTag tag = stateTag(stateVersion, blockNumber);
+        Response notModified = notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
+        return withCors(Response.ok()
+                .entity(userState.getAnswers(blockNumber).get(eventId))
+                .tag(tag));
     }
 
     @GET
     @Path("/gameStatus")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getGameStatus() {
-        return Response.ok()
-                .entity(userState.getGameStatus())
-                .header("Access-Control-Allow-Origin","*")
-                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
-                .allow("OPTIONS")
-                .build();
+    public Response getGameStatus(@Context Request request) {
+        return cachedResponse(request, "gameStatus", userState::getGameStatus);
+    }
+
+    @GET
+    @Path("/leaderboard")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLeaderboard(@Context Request request,
+                                   @DefaultValue("0") @QueryParam("offset") final int offset,
+                                   @DefaultValue("10") @QueryParam("limit") final int limit) {
+        if (offset < 0 || limit < 0) {
+            return withCors(Response.status(Response.Status.BAD_REQUEST));
+        }
+        EntityTag tag = stateTag(userState.getStateVersion(), userState.getCurrentBlockNumber());
+        Response notModified = notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
+        return withCors(Response.ok()
+                .entity(userState.getLeaderboard(offset, Math.min(limit, maxLeaderboardPageSize)))
+                .tag(tag));
+    }
+
+    // pushes the changes of each published snapshot, see AggregatedStateDelta
+    @GET
+    @Path("/events")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void subscribe(@Context SseEventSink eventSink, @Context Sse sse) {
+        stateEventBroadcaster.register(eventSink, sse);
     }
 
     @GET
     @Path("/getNonce")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getNonce(@QueryParam("address") final String address) {
-        return Response.ok()
-                .entity(userState.getNonce(new org.aion.harness.kernel.Address(Helper.hexStringToBytes(address))))
-                .header("Access-Control-Allow-Origin","*")
-                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
-                .allow("OPTIONS")
-                .build();
+    public void getNonce(@QueryParam("address") final String address, @Suspended final AsyncResponse asyncResponse) {
+        // the request thread is released while waiting for the node
+        userState.getNonce(new org.aion.harness.kernel.Address(Helper.hexStringToBytes(address)))
+                .thenAccept(nonce -> asyncResponse.resume(withCors(Response.ok()
+                        .entity(nonce))));
     }
 
     @GET
     @Path("/getTransactions")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getTransactions(@QueryParam("address") final String address) {
-        return Response.ok()
-                .entity(userState.getTransactions(address))
-                .header("Access-Control-Allow-Origin","*")
-                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
-                .allow("OPTIONS")
-                .build();
+        return withCors(Response.ok()
+                .entity(userState.getTransactions(address)));
+    }
+
+    // admission counters of the transaction queue, for monitoring
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMetrics() {
+        return withCors(Response.ok()
+                .entity(queuePopulator.getMetrics()));
     }
 
     @POST
     @Path("/sendTransaction")
-    public String send(String signedTransaction) {
+    public Response send(String signedTransaction) {
         byte[] txBytes = Helper.hexStringToBytes(signedTransaction);
         byte[] transactionHash = SignedTransactionBuilder.getTransactionHashOfSignedTransaction(txBytes);
-        queuePopulator.putRawTransaction(txBytes);
-        return Helper.bytesToHexString(transactionHash);
+        // the request thread is not blocked while the queue is full, the client is asked to retry later instead.
+        // A duplicate is already on its way, so the client gets the same answer as for the first request
+        if (queuePopulator.offerRawTransaction(transactionHash, txBytes) == QueuePopulator.Admission.REJECTED) {
+            return withCors(Response.status(Response.Status.TOO_MANY_REQUESTS)
+                    .entity("Too many pending transactions, retry later.")
+                    .header("Retry-After", queuePopulator.getRetryAfterSeconds())
+                    .header("Access-Control-Expose-Headers", "Retry-After"));
+        }
+        return Response.ok()
+                .entity(Helper.bytesToHexString(transactionHash))
+                .build();
+    }
+
+    private Response cachedResponse(Request request, String key, LongFunction<Object> aggregator) {
+        // the state version is read before the aggregation, so a concurrent update can only make the cached body newer
+        long stateVersion = userState.getStateVersion();
+        long blockNumber = userState.getCurrentBlockNumber();
+        EntityTag tag = stateTag(stateVersion, blockNumber);
+        Response notModified = notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
+        byte[] body = responseCache.get(key, stateVersion, blockNumber, () -> aggregator.apply(blockNumber));
+        return withCors(Response.ok(body, MediaType.APPLICATION_JSON_TYPE)
+                .tag(tag));
     }
 
+    /**
+     * @return the 304 response if the client already has the version identified by the tag, or null otherwise.
+     */
+    private static Response notModified(Request request, EntityTag tag) {
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        return notModified == null ? null : withCors(notModified);
+    }
+
+    private static Response withCors(Response.ResponseBuilder response) {
+        return response
+                .header("Access-Control-Allow-Origin","*")
+                .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT")
+                .allow("OPTIONS")
+                .build();
+    }
+
+    // responses of the state endpoints only change when a new snapshot is published or when the block number used for
+    // the age fields changes, so the pair is used as a strong validator
+    private static EntityTag stateTag(long stateVersion, long blockNumber) {
+        return new EntityTag(stateVersion + "-" + blockNumber);
+    }
 }
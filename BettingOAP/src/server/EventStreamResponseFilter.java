@@ -0,0 +1,20 @@
+package server;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.Provider;
+
+// event stream responses are not built through Response, so the CORS headers of the other endpoints are added here
+@Provider
+public class EventStreamResponseFilter implements ContainerResponseFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if (MediaType.SERVER_SENT_EVENTS_TYPE.isCompatible(responseContext.getMediaType())) {
+            responseContext.getHeaders().putSingle("Access-Control-Allow-Origin", "*");
+            responseContext.getHeaders().putSingle("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT");
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import internal.CriticalException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Holds the serialized json response of each endpoint.
+ * A cached response is reused as long as the projected state version and the block number used to calculate the age
+ * fields have not changed, so polling clients do not trigger a new aggregation and serialization between blocks.
+ */
+public class ResponseCache {
+
+    private final ObjectMapper objectMapper;
+    private final Map<String, CachedResponse> responses;
+
+    public ResponseCache() {
+        this.objectMapper = new ObjectMapper();
+        this.responses = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param key            name of the endpoint
+     * @param stateVersion   version of the projected state snapshot
+     * @param blockNumber    block number used to calculate the age fields of the response
+     * @param entitySupplier builds the response entity if there is no valid cached response
+     * @return serialized json response
+     */
+    public byte[] get(String key, long stateVersion, long blockNumber, Supplier<Object> entitySupplier) {
+        CachedResponse cached = responses.get(key);
+        if (cached != null && cached.stateVersion == stateVersion && cached.blockNumber == blockNumber) {
+            return cached.body;
+        }
+        // serialized outside of the map, so other endpoints are not blocked. Concurrent requests may serialize the same
+        // response, in which case the first one is kept. An older response never replaces a newer one
+        CachedResponse fresh = new CachedResponse(stateVersion, blockNumber, serialize(entitySupplier.get()));
+        CachedResponse current = responses.merge(key, fresh, (previous, next) -> previous.isOlderThan(next) ? next : previous);
+        return current.stateVersion == stateVersion && current.blockNumber == blockNumber ? current.body : fresh.body;
+    }
+
+    private byte[] serialize(Object entity) {
+        try {
+            return objectMapper.writeValueAsBytes(entity);
+        } catch (JsonProcessingException e) {
+            throw new CriticalException(e);
+        }
+    }
+
+    private static class CachedResponse {
+        private final long stateVersion;
+        private final long blockNumber;
+        private final byte[] body;
+
+        private CachedResponse(long stateVersion, long blockNumber, byte[] body) {
+            this.stateVersion = stateVersion;
+            this.blockNumber = blockNumber;
+            this.body = body;
+        }
+
+        private boolean isOlderThan(CachedResponse other) {
+            return stateVersion < other.stateVersion || (stateVersion == other.stateVersion && blockNumber < other.blockNumber);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package server;
 
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.websockets.WebSocketAddOn;
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -16,17 +18,31 @@ public class SimpleHttpServer {
     private static final String protocol = "http://";
     private static final String path = "bettingOAP";
 
-    public static HttpServer startServer(UserState userState, QueuePopulator queuePopulator, String host, String port) {
+    public static HttpServer startServer(UserState userState,
+                                         QueuePopulator queuePopulator,
+                                         StateEventBroadcaster stateEventBroadcaster,
+                                         AddressSubscriptionApplication addressSubscriptionApplication,
+                                         String host,
+                                         String port) {
         String BASE_URI = getBaseUri(host, port);
         // create a resource config that scans for JAX-RS resources and providers
-        final ResourceConfig rc = createResourceConfig(userState, queuePopulator);
+        final ResourceConfig rc = createResourceConfig(userState, queuePopulator, stateEventBroadcaster);
 
         // create a new instance of grizzly http server
         // exposing the Jersey application at BASE_URI
-        return GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc, false);
+        HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc, false);
+
+        // websocket connections are upgraded by the listener before reaching the Jersey application
+        for (NetworkListener listener : server.getListeners()) {
+            listener.registerAddOn(new WebSocketAddOn());
+        }
+        addressSubscriptionApplication.register("/" + path);
+        return server;
     }
 
-    private static ResourceConfig createResourceConfig(UserState userState, QueuePopulator queuePopulator) {
+    private static ResourceConfig createResourceConfig(UserState userState,
+                                                       QueuePopulator queuePopulator,
+                                                       StateEventBroadcaster stateEventBroadcaster) {
         ResourceConfig resourceConfig = new ResourceConfig();
         resourceConfig.packages("server");
         resourceConfig.register(new AbstractBinder() {
@@ -34,6 +50,8 @@ public class SimpleHttpServer {
             public void configure() {
                 bind(userState).to(UserState.class);
                 bind(queuePopulator).to(QueuePopulator.class);
+                bind(new ResponseCache()).to(ResponseCache.class);
+                bind(stateEventBroadcaster).to(StateEventBroadcaster.class);
             }
         });
         return resourceConfig;
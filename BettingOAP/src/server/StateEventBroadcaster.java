@@ -0,0 +1,104 @@
+package server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import state.StateDelta;
+import state.StateListener;
+import state.UserState;
+
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseBroadcaster;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pushes the changes of every published snapshot to the clients subscribed to the event stream.
+ * Each delta is aggregated and serialized once, and the same event is sent to all the subscribers.
+ * Deltas are aggregated and sent by a separate thread, so the populating thread is not slowed down by the
+ * subscribers. Deltas published while the previous event is still being prepared, for example during catch-up, are
+ * merged into a single event.
+ */
+public class StateEventBroadcaster implements StateListener {
+
+    private final UserState userState;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService sender;
+    private final Logger logger = LoggerFactory.getLogger("StateEventBroadcaster");
+
+    // created from the Sse context of the first subscription
+    private Sse sse;
+    private SseBroadcaster broadcaster;
+    // deltas waiting for the sender thread, guarded by this
+    private List<StateDelta> pendingDeltas = new ArrayList<>();
+
+    public StateEventBroadcaster(UserState userState) {
+        this.userState = userState;
+        this.objectMapper = new ObjectMapper();
+        this.sender = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "stateEventBroadcaster");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public synchronized void register(SseEventSink eventSink, Sse sse) {
+        if (broadcaster == null) {
+            this.sse = sse;
+            this.broadcaster = sse.newBroadcaster();
+            broadcaster.onError((sink, throwable) -> logger.debug("Could not send event to subscriber: " + throwable.getMessage()));
+        }
+        broadcaster.register(eventSink);
+    }
+
+    @Override
+    public synchronized void onStateChanged(StateDelta delta) {
+        if (broadcaster == null) {
+            return;
+        }
+        pendingDeltas.add(delta);
+        // a single task is scheduled for all the pending deltas
+        if (pendingDeltas.size() == 1) {
+            sender.execute(this::broadcastPendingDeltas);
+        }
+    }
+
+    private void broadcastPendingDeltas() {
+        Sse sse;
+        SseBroadcaster broadcaster;
+        List<StateDelta> deltas;
+        synchronized (this) {
+            sse = this.sse;
+            broadcaster = this.broadcaster;
+            deltas = pendingDeltas;
+            pendingDeltas = new ArrayList<>();
+        }
+
+        StateDelta delta = StateDelta.merge(deltas);
+        String data;
+        try {
+            data = objectMapper.writeValueAsString(userState.getDelta(delta, userState.getCurrentBlockNumber()));
+        } catch (JsonProcessingException e) {
+            logger.error("Could not serialize state delta " + delta.getSnapshot().getVersion(), e);
+            return;
+        }
+        OutboundSseEvent event = sse.newEventBuilder()
+                .name("delta")
+                .id(String.valueOf(delta.getSnapshot().getVersion()))
+                .data(String.class, data)
+                .build();
+        broadcaster.broadcast(event);
+    }
+
+    public synchronized void close() {
+        sender.shutdownNow();
+        if (broadcaster != null) {
+            broadcaster.close();
+        }
+    }
+}
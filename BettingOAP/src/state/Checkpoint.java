@@ -0,0 +1,78 @@
+package state;
+
+import types.Answer;
+import types.BlockHeader;
+import types.BlockTuple;
+import types.Game;
+import types.Player;
+import types.Statement;
+import types.Vote;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Projected state up to a polled block, which is saved to disk so the state does not have to be rebuilt from the
+ * deployment block after a restart. Only the events are stored, the indexes and scores are rebuilt when it is restored.
+ */
+public class Checkpoint {
+    // last polled block, the logs after it are retrieved when the checkpoint is restored
+    private final BlockHeader polledBlock;
+    private final int currentEventId;
+    private final List<BlockTuple> blocks;
+    private final Map<Integer, Player> players;
+    private final Map<Integer, Statement> statements;
+    private final Map<Integer, Vote> votes;
+    private final Map<Integer, Answer> answers;
+    private final Game game;
+
+    Checkpoint(BlockHeader polledBlock,
+               int currentEventId,
+               List<BlockTuple> blocks,
+               Map<Integer, Player> players,
+               Map<Integer, Statement> statements,
+               Map<Integer, Vote> votes,
+               Map<Integer, Answer> answers,
+               Game game) {
+        this.polledBlock = polledBlock;
+        this.currentEventId = currentEventId;
+        this.blocks = blocks;
+        this.players = players;
+        this.statements = statements;
+        this.votes = votes;
+        this.answers = answers;
+        this.game = game;
+    }
+
+    public BlockHeader getPolledBlock() {
+        return polledBlock;
+    }
+
+    public int getCurrentEventId() {
+        return currentEventId;
+    }
+
+    public List<BlockTuple> getBlocks() {
+        return blocks;
+    }
+
+    public Map<Integer, Player> getPlayers() {
+        return players;
+    }
+
+    public Map<Integer, Statement> getStatements() {
+        return statements;
+    }
+
+    public Map<Integer, Vote> getVotes() {
+        return votes;
+    }
+
+    public Map<Integer, Answer> getAnswers() {
+        return answers;
+    }
+
+    public Game getGame() {
+        return game;
+    }
+}
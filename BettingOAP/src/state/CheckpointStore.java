@@ -0,0 +1,264 @@
+package state;
+
+import org.aion.harness.kernel.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import types.Answer;
+import types.BlockHeader;
+import types.BlockTuple;
+import types.Game;
+import types.Player;
+import types.Statement;
+import types.Vote;
+import util.Helper;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Saves checkpoints of the projected state to a single file, which is replaced atomically by each new checkpoint.
+ * A checkpoint of the current state is taken every intervalBlocks polled blocks. Its blocks may not be final yet, if they
+ * are reorganized while the application is stopped, the blocks after the fork point are reverted once it is restored.
+ */
+public class CheckpointStore {
+    private static final int magic = 0x42474350;
+    private static final int formatVersion = 1;
+
+    private final Path path;
+    private final byte[] contractAddress;
+    private final long intervalBlocks;
+    private final Logger logger = LoggerFactory.getLogger("CheckpointStore");
+    private long lastCheckpointBlockNumber;
+
+    public CheckpointStore(Path path, Address contractAddress, long intervalBlocks) {
+        this.path = path;
+        this.contractAddress = contractAddress.getAddressBytes();
+        this.intervalBlocks = intervalBlocks;
+        this.lastCheckpointBlockNumber = 0;
+    }
+
+    /**
+     * @param polledBlockNumber the last block the state was polled up to
+     */
+    public boolean shouldCheckpoint(long polledBlockNumber) {
+        return polledBlockNumber - lastCheckpointBlockNumber >= intervalBlocks;
+    }
+
+    public void save(Checkpoint checkpoint) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(magic);
+            out.writeInt(formatVersion);
+            writeBytes(out, contractAddress);
+            write(out, checkpoint);
+            out.flush();
+            // the file is on disk before it replaces the previous checkpoint, so a crash cannot leave a partial checkpoint
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpointBlockNumber = checkpoint.getPolledBlock().getBlockNumber();
+        logger.info("Saved checkpoint at block " + lastCheckpointBlockNumber);
+    }
+
+    /**
+     * @return the saved checkpoint, or null if there is none or it could not be read.
+     */
+    public Checkpoint load() {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != magic || in.readInt() != formatVersion) {
+                logger.warn("Ignoring checkpoint " + path + " with an unknown format.");
+                return null;
+            }
+            if (!Arrays.equals(readBytes(in), contractAddress)) {
+                logger.warn("Ignoring checkpoint " + path + " of a different contract.");
+                return null;
+            }
+            Checkpoint checkpoint = read(in);
+            lastCheckpointBlockNumber = checkpoint.getPolledBlock().getBlockNumber();
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read checkpoint " + path + ": " + e);
+            return null;
+        }
+    }
+
+    private static void write(DataOutputStream out, Checkpoint checkpoint) throws IOException {
+        BlockHeader polledBlock = checkpoint.getPolledBlock();
+        out.writeLong(polledBlock.getBlockNumber());
+        writeBytes(out, polledBlock.getBlockHash());
+        writeBytes(out, polledBlock.getParentHash());
+        out.writeInt(checkpoint.getCurrentEventId());
+
+        out.writeInt(checkpoint.getBlocks().size());
+        for (BlockTuple block : checkpoint.getBlocks()) {
+            out.writeLong(block.getBlockNumber());
+            writeBytes(out, block.getBlockHash());
+            out.writeInt(block.getIncluededLogIds().length);
+            for (int id : block.getIncluededLogIds()) {
+                out.writeInt(id);
+            }
+        }
+
+        out.writeInt(checkpoint.getPlayers().size());
+        for (Map.Entry<Integer, Player> e : checkpoint.getPlayers().entrySet()) {
+            Player p = e.getValue();
+            out.writeInt(e.getKey());
+            writeBytes(out, p.getPlayerAddress().toBytes());
+            writeString(out, p.getTransactionHash());
+            out.writeLong(p.getBlockNumber());
+        }
+
+        out.writeInt(checkpoint.getStatements().size());
+        for (Map.Entry<Integer, Statement> e : checkpoint.getStatements().entrySet()) {
+            Statement s = e.getValue();
+            out.writeInt(e.getKey());
+            writeBytes(out, s.getPlayerAddress().toBytes());
+            out.writeInt(s.getStatementId());
+            writeString(out, s.getAnswerHash());
+            writeString(out, s.getStatementString());
+            writeString(out, s.getTransactionHash());
+            out.writeLong(s.getBlockNumber());
+        }
+
+        out.writeInt(checkpoint.getVotes().size());
+        for (Map.Entry<Integer, Vote> e : checkpoint.getVotes().entrySet()) {
+            Vote v = e.getValue();
+            out.writeInt(e.getKey());
+            writeBytes(out, v.getPlayerAddress().toBytes());
+            out.writeInt(v.getStatementId());
+            writeString(out, v.getGuessedAnswer());
+            writeString(out, v.getTransactionHash());
+            out.writeLong(v.getBlockNumber());
+        }
+
+        out.writeInt(checkpoint.getAnswers().size());
+        for (Map.Entry<Integer, Answer> e : checkpoint.getAnswers().entrySet()) {
+            Answer a = e.getValue();
+            out.writeInt(e.getKey());
+            out.writeInt(a.getStatementId());
+            writeString(out, a.getAnswer());
+            writeString(out, a.getTransactionHash());
+            out.writeLong(a.getBlockNumber());
+        }
+
+        // game events, each one with its transaction hash and block number
+        Game game = checkpoint.getGame();
+        List<Integer> gameEventIds = new ArrayList<>(game.getTransactionHashes().keySet());
+        out.writeInt(gameEventIds.size());
+        for (int id : gameEventIds) {
+            out.writeInt(id);
+            writeString(out, game.getTransactionHashes().get(id));
+            out.writeLong(game.getBlockNumbers().get(id));
+            if (id == game.getStopped().key) {
+                out.writeByte(GameEvent.STOPPED.ordinal());
+            } else if (id == game.getPrizeDistributed().key) {
+                out.writeByte(GameEvent.DISTRIBUTED_PRIZE.ordinal());
+                out.writeInt(game.getPrizeDistributed().value);
+            } else {
+                out.writeByte(GameEvent.TRANSFERRED_VALUE.ordinal());
+                writeBytes(out, game.getTransferredValues().get(id).toByteArray());
+            }
+        }
+    }
+
+    private static Checkpoint read(DataInputStream in) throws IOException {
+        BlockHeader polledBlock = BlockHeader.of(in.readLong(), readBytes(in), readBytes(in));
+        int currentEventId = in.readInt();
+
+        int blockCount = in.readInt();
+        List<BlockTuple> blocks = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            long blockNumber = in.readLong();
+            byte[] blockHash = readBytes(in);
+            int idCount = in.readInt();
+            int[] ids = new int[idCount];
+            for (int j = 0; j < idCount; j++) {
+                ids[j] = in.readInt();
+            }
+            blocks.add(BlockTuple.of(blockNumber, blockHash, ids));
+        }
+
+        int playerCount = in.readInt();
+        Map<Integer, Player> players = new HashMap<>();
+        for (int i = 0; i < playerCount; i++) {
+            players.put(in.readInt(), Player.of(new types.Address(readBytes(in)), readString(in), in.readLong()));
+        }
+
+        int statementCount = in.readInt();
+        Map<Integer, Statement> statements = new HashMap<>();
+        for (int i = 0; i < statementCount; i++) {
+            statements.put(in.readInt(), Statement.of(new types.Address(readBytes(in)), in.readInt(), readString(in), readString(in), readString(in), in.readLong()));
+        }
+
+        int voteCount = in.readInt();
+        Map<Integer, Vote> votes = new HashMap<>();
+        for (int i = 0; i < voteCount; i++) {
+            votes.put(in.readInt(), Vote.of(new types.Address(readBytes(in)), in.readInt(), readString(in), readString(in), in.readLong()));
+        }
+
+        int answerCount = in.readInt();
+        Map<Integer, Answer> answers = new HashMap<>();
+        for (int i = 0; i < answerCount; i++) {
+            answers.put(in.readInt(), Answer.of(in.readInt(), readString(in), readString(in), in.readLong()));
+        }
+
+        Game game = new Game();
+        int gameEventCount = in.readInt();
+        for (int i = 0; i < gameEventCount; i++) {
+            int id = in.readInt();
+            byte[] transactionHash = Helper.hexStringToBytes(readString(in));
+            long blockNumber = in.readLong();
+            switch (GameEvent.values()[in.readByte()]) {
+                case STOPPED:
+                    game.setAsStopped(id, transactionHash, blockNumber);
+                    break;
+                case DISTRIBUTED_PRIZE:
+                    game.setPrizeDistributed(id, BigInteger.valueOf(in.readInt()).toByteArray(), transactionHash, blockNumber);
+                    break;
+                case TRANSFERRED_VALUE:
+                    game.addValueTransfer(id, new BigInteger(readBytes(in)), transactionHash, blockNumber);
+                    break;
+            }
+        }
+
+        return new Checkpoint(polledBlock, currentEventId, blocks, players, statements, votes, answers, game);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // unlike writeUTF, strings are not limited to 64KB
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private enum GameEvent {
+        STOPPED,
+        DISTRIBUTED_PRIZE,
+        TRANSFERRED_VALUE
+    }
+}
@@ -0,0 +1,150 @@
+package state;
+
+import internal.Assertion;
+
+import java.util.*;
+
+/**
+ * Incrementally maintained score index of the registered players.
+ * Players are grouped by score, so the top score and the winners can be read without going through all the players.
+ * Within the same score, players are ordered by their registration logId.
+ * The index is only used by the populating thread. Readers use the immutable {@link Ranking} published with each
+ * snapshot, which is rebuilt only if a score has changed since the previous one.
+ */
+public class Leaderboard {
+
+    // score -> player logIds, highest score first
+    private final TreeMap<Integer, TreeSet<Integer>> playersByScore;
+    // player logId -> score
+    private final Map<Integer, Integer> scores;
+    private Ranking ranking = Ranking.empty();
+    private boolean changed;
+
+    public Leaderboard() {
+        playersByScore = new TreeMap<>(Comparator.reverseOrder());
+        scores = new HashMap<>();
+    }
+
+    public void addPlayer(int playerId) {
+        Assertion.assertTrue(!scores.containsKey(playerId));
+        scores.put(playerId, 0);
+        playersByScore.computeIfAbsent(0, k -> new TreeSet<>()).add(playerId);
+        changed = true;
+    }
+
+    public void removePlayer(int playerId) {
+        Integer score = scores.remove(playerId);
+        if (score != null) {
+            removeFromBucket(playerId, score);
+            changed = true;
+        }
+    }
+
+    public void updateScore(int playerId, int score) {
+        Integer previousScore = scores.put(playerId, score);
+        Assertion.assertTrue(previousScore != null);
+        removeFromBucket(playerId, previousScore);
+        playersByScore.computeIfAbsent(score, k -> new TreeSet<>()).add(playerId);
+        changed = true;
+    }
+
+    /**
+     * @return an immutable copy of the current ranking.
+     */
+    public Ranking getRanking() {
+        if (changed) {
+            int[] playerIds = new int[scores.size()];
+            int[] playerScores = new int[scores.size()];
+            int[] ranks = new int[scores.size()];
+            int position = 0;
+            for (Map.Entry<Integer, TreeSet<Integer>> bucket : playersByScore.entrySet()) {
+                int rank = position + 1;
+                for (int playerId : bucket.getValue()) {
+                    playerIds[position] = playerId;
+                    playerScores[position] = bucket.getKey();
+                    ranks[position] = rank;
+                    position++;
+                }
+            }
+            ranking = new Ranking(playerIds, playerScores, ranks);
+            changed = false;
+        }
+        return ranking;
+    }
+
+    public void clear() {
+        playersByScore.clear();
+        scores.clear();
+        changed = true;
+    }
+
+    private void removeFromBucket(int playerId, int score) {
+        TreeSet<Integer> bucket = playersByScore.get(score);
+        bucket.remove(playerId);
+        if (bucket.isEmpty()) {
+            playersByScore.remove(score);
+        }
+    }
+
+    /**
+     * Players ordered by score, highest first. Players with the same score share the same rank, starting from 1.
+     */
+    public static class Ranking {
+        private static final Ranking EMPTY = new Ranking(new int[0], new int[0], new int[0]);
+
+        private final int[] playerIds;
+        private final int[] scores;
+        private final int[] ranks;
+
+        private Ranking(int[] playerIds, int[] scores, int[] ranks) {
+            this.playerIds = playerIds;
+            this.scores = scores;
+            this.ranks = ranks;
+        }
+
+        public static Ranking empty() {
+            return EMPTY;
+        }
+
+        /**
+         * @return the highest score, or -1 if there are no players.
+         */
+        public int getTopScore() {
+            return playerIds.length == 0 ? -1 : scores[0];
+        }
+
+        /**
+         * @return logIds of the players with the highest score.
+         */
+        public List<Integer> getWinners() {
+            List<Integer> winners = new ArrayList<>();
+            for (int i = 0; i < playerIds.length && scores[i] == scores[0]; i++) {
+                winners.add(playerIds[i]);
+            }
+            return winners;
+        }
+
+        /**
+         * Returns a page of the ranked players.
+         */
+        public List<Entry> getEntries(int offset, int limit) {
+            List<Entry> entries = new ArrayList<>();
+            for (int i = offset; i < playerIds.length && entries.size() < limit; i++) {
+                entries.add(new Entry(playerIds[i], scores[i], ranks[i]));
+            }
+            return entries;
+        }
+    }
+
+    public static class Entry {
+        public final int playerId;
+        public final int score;
+        public final int rank;
+
+        private Entry(int playerId, int score, int rank) {
+            this.playerId = playerId;
+            this.score = score;
+            this.rank = rank;
+        }
+    }
+}
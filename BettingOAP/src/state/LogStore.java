@@ -0,0 +1,390 @@
+package state;
+
+import org.aion.harness.kernel.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of the contract logs applied to the projected state, kept in segment files of at most segmentSize
+ * bytes. Logs are appended one block at a time in increasing block order, and the blocks after a given block can be
+ * truncated when they are reverted. Segments are read through memory mapped buffers, so a replay is a sequential read
+ * of the files. Appended blocks are only forced to disk by sync, so several blocks can share a single fsync.
+ *
+ * Each record is stored as [int length][int crc32][payload]. A record which was not completely written is dropped, along
+ * with anything after it, when the store is opened.
+ */
+public class LogStore implements Closeable {
+    private static final String segmentPrefix = "segment-";
+    private static final String segmentSuffix = ".log";
+    private static final int recordHeaderSize = 8;
+    private static final int addressSize = 32;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final Logger logger = LoggerFactory.getLogger("LogStore");
+
+    // segment ids in increasing order, and the number of valid bytes of each segment
+    private final List<Integer> segmentIds;
+    private final List<Long> segmentSizes;
+    private FileChannel writeChannel;
+
+    // block index: number of each stored block and the position of its first record
+    private long[] blockNumbers;
+    private int[] blockSegments;
+    private long[] blockOffsets;
+    private int blockCount;
+
+    public LogStore(Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segmentIds = new ArrayList<>();
+        this.segmentSizes = new ArrayList<>();
+        this.blockNumbers = new long[1024];
+        this.blockSegments = new int[1024];
+        this.blockOffsets = new long[1024];
+        this.blockCount = 0;
+
+        Files.createDirectories(directory);
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, segmentPrefix + "*" + segmentSuffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                ids.add(Integer.parseInt(name.substring(segmentPrefix.length(), name.length() - segmentSuffix.length())));
+            }
+        }
+        ids.sort(Integer::compare);
+        for (int i = 0; i < ids.size(); i++) {
+            if (!loadSegment(ids.get(i))) {
+                // the rest of the store was written after the damaged record
+                for (int j = i + 1; j < ids.size(); j++) {
+                    Files.delete(segmentPath(ids.get(j)));
+                }
+                break;
+            }
+        }
+        if (segmentIds.isEmpty()) {
+            segmentIds.add(0);
+            segmentSizes.add(0L);
+        }
+        openWriteChannel();
+        logger.info("Opened log store with " + blockCount + " blocks in " + segmentIds.size() + " segments.");
+    }
+
+    /**
+     * Appends the logs of a block. If the store already contains this block or later ones, they are replaced.
+     * The block may be lost on a crash until sync is called.
+     */
+    public synchronized void appendBlock(long blockNumber, List<Log> logs) {
+        try {
+            if (blockCount > 0 && blockNumbers[blockCount - 1] >= blockNumber) {
+                truncateAfter(blockNumber - 1);
+            }
+
+            List<ByteBuffer> records = new ArrayList<>(logs.size());
+            long length = 0;
+            for (Log log : logs) {
+                ByteBuffer record = encode(log);
+                records.add(record);
+                length += record.remaining();
+            }
+
+            int last = segmentIds.size() - 1;
+            if (segmentSizes.get(last) > 0 && segmentSizes.get(last) + length > segmentSize) {
+                rollSegment();
+                last++;
+            }
+
+            long offset = segmentSizes.get(last);
+            writeChannel.position(offset);
+            for (ByteBuffer record : records) {
+                while (record.hasRemaining()) {
+                    writeChannel.write(record);
+                }
+            }
+            segmentSizes.set(last, offset + length);
+            addBlock(blockNumber, segmentIds.get(last), offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Removes the logs of the blocks after blockNumber.
+     */
+    public synchronized void truncateAfter(long blockNumber) {
+        int first = firstBlockIndexAfter(blockNumber);
+        if (first == blockCount) {
+            return;
+        }
+        try {
+            int segmentId = blockSegments[first];
+            long offset = blockOffsets[first];
+            while (segmentIds.get(segmentIds.size() - 1) != segmentId) {
+                int removed = segmentIds.remove(segmentIds.size() - 1);
+                segmentSizes.remove(segmentSizes.size() - 1);
+                Files.delete(segmentPath(removed));
+            }
+            writeChannel.close();
+            openWriteChannel();
+            writeChannel.truncate(offset);
+            writeChannel.force(true);
+            segmentSizes.set(segmentSizes.size() - 1, offset);
+            blockCount = first;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Forces the appended blocks to disk.
+     */
+    public synchronized void sync() {
+        try {
+            writeChannel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void clear() {
+        try {
+            writeChannel.close();
+            for (int id : segmentIds) {
+                Files.delete(segmentPath(id));
+            }
+            segmentIds.clear();
+            segmentSizes.clear();
+            segmentIds.add(0);
+            segmentSizes.add(0L);
+            openWriteChannel();
+            blockCount = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Passes the stored logs of fromBlock and the following blocks to the consumer, in the order they were appended.
+     */
+    public synchronized void replay(long fromBlock, Consumer<Log> consumer) {
+        int first = firstBlockIndexAfter(fromBlock - 1);
+        if (first == blockCount) {
+            return;
+        }
+        try {
+            long offset = blockOffsets[first];
+            for (int i = segmentIds.indexOf(blockSegments[first]); i < segmentIds.size(); i++) {
+                long size = segmentSizes.get(i);
+                if (size > offset) {
+                    try (FileChannel channel = FileChannel.open(segmentPath(segmentIds.get(i)), StandardOpenOption.READ)) {
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset);
+                        while (buffer.hasRemaining()) {
+                            int length = buffer.getInt();
+                            // the checksum was verified when the store was opened
+                            buffer.getInt();
+                            int end = buffer.position() + length;
+                            consumer.accept(decode(buffer));
+                            buffer.position(end);
+                        }
+                    }
+                }
+                offset = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of the last stored block, or -1 if the store is empty.
+     */
+    public synchronized long getLastBlockNumber() {
+        return blockCount == 0 ? -1 : blockNumbers[blockCount - 1];
+    }
+
+    public synchronized int getBlockCount() {
+        return blockCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writeChannel.force(false);
+        writeChannel.close();
+    }
+
+    // scans the records of a segment to build the block index. Returns false if a damaged record was found, in which case
+    // the segment is truncated before it
+    private boolean loadSegment(int id) throws IOException {
+        Path path = segmentPath(id);
+        long validSize = 0;
+        boolean intact = true;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            if (fileSize > 0) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+                CRC32 crc = new CRC32();
+                while (buffer.remaining() >= recordHeaderSize) {
+                    int start = buffer.position();
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    ByteBuffer payload = buffer.slice();
+                    payload.limit(length);
+                    crc.reset();
+                    crc.update(payload.duplicate());
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    long blockNumber = payload.getLong();
+                    if (blockCount == 0 || blockNumbers[blockCount - 1] < blockNumber) {
+                        addBlock(blockNumber, id, start);
+                    }
+                    buffer.position(start + recordHeaderSize + length);
+                    validSize = buffer.position();
+                }
+            }
+            if (validSize < fileSize) {
+                logger.warn("Dropping " + (fileSize - validSize) + " bytes of incomplete records from " + path);
+                channel.truncate(validSize);
+                intact = false;
+            }
+        }
+        segmentIds.add(id);
+        segmentSizes.add(validSize);
+        return intact;
+    }
+
+    private void rollSegment() throws IOException {
+        // only the last segment is forced by sync
+        writeChannel.force(false);
+        writeChannel.close();
+        segmentIds.add(segmentIds.get(segmentIds.size() - 1) + 1);
+        segmentSizes.add(0L);
+        openWriteChannel();
+    }
+
+    private void openWriteChannel() throws IOException {
+        writeChannel = FileChannel.open(segmentPath(segmentIds.get(segmentIds.size() - 1)),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("%s%010d%s", segmentPrefix, id, segmentSuffix));
+    }
+
+    private void addBlock(long blockNumber, int segmentId, long offset) {
+        if (blockCount == blockNumbers.length) {
+            blockNumbers = Arrays.copyOf(blockNumbers, blockCount * 2);
+            blockSegments = Arrays.copyOf(blockSegments, blockCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        }
+        blockNumbers[blockCount] = blockNumber;
+        blockSegments[blockCount] = segmentId;
+        blockOffsets[blockCount] = offset;
+        blockCount++;
+    }
+
+    // index of the first stored block with a number greater than blockNumber, or blockCount if there is none
+    private int firstBlockIndexAfter(long blockNumber) {
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blockNumbers[mid] <= blockNumber) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static ByteBuffer encode(Log log) {
+        byte[] data = log.copyOfData();
+        List<byte[]> topics = log.copyOfTopics();
+        byte[] transactionHash = log.copyOfTransactionHash();
+
+        int length = 8 + 4 + 4 + addressSize + 4 + log.blockHash.length + 4 + (transactionHash == null ? 0 : transactionHash.length) + 4 + 4 + data.length;
+        for (byte[] topic : topics) {
+            length += 4 + topic.length;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(recordHeaderSize + length);
+        record.putInt(length);
+        record.putInt(0);
+        record.putLong(log.blockNumber);
+        record.putInt(log.transactionIndex);
+        record.putInt(log.logIndex);
+        record.put(log.address.getAddressBytes());
+        putBytes(record, log.blockHash);
+        putBytes(record, transactionHash);
+        record.putInt(topics.size());
+        for (byte[] topic : topics) {
+            putBytes(record, topic);
+        }
+        putBytes(record, data);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), recordHeaderSize, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static Log decode(ByteBuffer buffer) {
+        long blockNumber = buffer.getLong();
+        int transactionIndex = buffer.getInt();
+        int logIndex = buffer.getInt();
+        byte[] address = new byte[addressSize];
+        buffer.get(address);
+        byte[] blockHash = getBytes(buffer);
+        byte[] transactionHash = getBytes(buffer);
+        int topicCount = buffer.getInt();
+        List<byte[]> topics = new ArrayList<>(topicCount);
+        for (int i = 0; i < topicCount; i++) {
+            topics.add(getBytes(buffer));
+        }
+        byte[] data = getBytes(buffer);
+        return new Log(new Address(address), data, topics, blockNumber, transactionIndex, logIndex, blockHash, transactionHash);
+    }
+
+    // null is stored with a length of -1
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,151 @@
+package state;
+
+import internal.Assertion;
+
+import java.util.*;
+
+/**
+ * Immutable map from logId to a value, stored in fixed size chunks.
+ * Applying changes creates a new map which shares every chunk that was not modified with the previous one,
+ * so publishing a new version only costs the number of changed entries plus one copy of the chunk index.
+ */
+final class PersistentIdMap<V> extends AbstractMap<Integer, V> {
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final PersistentIdMap<?> EMPTY = new PersistentIdMap<>(new Object[0][], 0);
+
+    private final Object[][] chunks;
+    private final int size;
+    private Set<Entry<Integer, V>> entrySet;
+
+    private PersistentIdMap(Object[][] chunks, int size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentIdMap<V> empty() {
+        return (PersistentIdMap<V>) EMPTY;
+    }
+
+    /**
+     * @param changes new values for the given ids. A null value removes the id from the map.
+     * @return a new map with the changes applied. This map is not modified.
+     */
+    PersistentIdMap<V> with(Map<Integer, V> changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+        int maxChunk = chunks.length - 1;
+        for (int id : changes.keySet()) {
+            Assertion.assertTrue(id >= 0);
+            maxChunk = Math.max(maxChunk, id >>> CHUNK_BITS);
+        }
+
+        Object[][] newChunks = Arrays.copyOf(chunks, maxChunk + 1);
+        // chunks are copied at most once per call
+        boolean[] copied = new boolean[newChunks.length];
+        int newSize = size;
+        for (Map.Entry<Integer, V> change : changes.entrySet()) {
+            int chunkIndex = change.getKey() >>> CHUNK_BITS;
+            if (!copied[chunkIndex]) {
+                Object[] chunk = newChunks[chunkIndex];
+                newChunks[chunkIndex] = chunk == null ? new Object[CHUNK_SIZE] : Arrays.copyOf(chunk, CHUNK_SIZE);
+                copied[chunkIndex] = true;
+            }
+            Object[] chunk = newChunks[chunkIndex];
+            int slot = change.getKey() & CHUNK_MASK;
+            if (chunk[slot] != null) {
+                newSize--;
+            }
+            chunk[slot] = change.getValue();
+            if (change.getValue() != null) {
+                newSize++;
+            }
+        }
+        return new PersistentIdMap<>(newChunks, newSize);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        int id = (Integer) key;
+        if (id < 0 || (id >>> CHUNK_BITS) >= chunks.length) {
+            return null;
+        }
+        Object[] chunk = chunks[id >>> CHUNK_BITS];
+        return chunk == null ? null : (V) chunk[id & CHUNK_MASK];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Integer, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private class EntryIterator implements Iterator<Entry<Integer, V>> {
+        private int nextId = -1;
+
+        EntryIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextId >= 0;
+        }
+
+        @Override
+        public Entry<Integer, V> next() {
+            if (nextId < 0) {
+                throw new NoSuchElementException();
+            }
+            Entry<Integer, V> entry = new SimpleImmutableEntry<>(nextId, get(nextId));
+            advance();
+            return entry;
+        }
+
+        private void advance() {
+            int id = nextId + 1;
+            while ((id >>> CHUNK_BITS) < chunks.length) {
+                Object[] chunk = chunks[id >>> CHUNK_BITS];
+                if (chunk == null) {
+                    id = ((id >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+                } else if (chunk[id & CHUNK_MASK] == null) {
+                    id++;
+                } else {
+                    nextId = id;
+                    return;
+                }
+            }
+            nextId = -1;
+        }
+    }
+}
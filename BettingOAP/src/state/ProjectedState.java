@@ -3,39 +3,65 @@ package state;
 import types.*;
 import internal.Assertion;
 import types.BlockTuple;
+import util.Helper;
+import util.IntMap;
+import util.IntSet;
 
 import java.math.BigInteger;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
 
 /**
- * Class to hold all the data related to application state
+ * Class to hold all the data related to application state.
+ * The state is only modified by the thread populating it. Readers should use the latest published snapshot.
  */
 public class ProjectedState {
 
     private LinkedList<BlockTuple> blocks;
 
     // mappings of logId to the actual log
-    private Map<Integer, Player> players;
-    private Map<Integer, Statement> statements;
-    private Map<Integer, Vote> votes;
-    private Map<Integer, Answer> answers;
+    private IntMap<Player> players;
+    private IntMap<Statement> statements;
+    private IntMap<Vote> votes;
+    private IntMap<Answer> answers;
+    // mapping of player address to the logId of its registration
+    private Map<Address, Integer> playerIds;
+    // mapping of contract statementId to the logId of its submission
+    private IntMap<Integer> statementIds;
+    // vote logIds grouped by statementId and guessed answer, used to score a revealed answer
+    private IntMap<Map<String, IntSet>> voteIdsByAnswer;
+    private Leaderboard leaderboard;
     private Game currentGame;
     // id to associate with new logs, starting from zero
     // Note that if the log is removed, the associated id is not reused
     private int currentEventId;
 
-    private ReadWriteLock gameLock = new ReentrantReadWriteLock();
+    // logIds that have been added, modified or removed since the last published snapshot
+    private IntSet changedPlayers;
+    private IntSet changedStatements;
+    private IntSet changedVotes;
+    private IntSet changedAnswers;
+    private boolean gameChanged;
+    private boolean cleared;
+    private int revertedBlocks;
+    private volatile StateSnapshot snapshot;
 
     public ProjectedState() {
         blocks = new LinkedList<>();
-        players = new ConcurrentHashMap<>();
-        statements = new ConcurrentHashMap<>();
-        votes = new ConcurrentHashMap<>();
-        answers = new ConcurrentHashMap<>();
+        players = new IntMap<>();
+        statements = new IntMap<>();
+        votes = new IntMap<>();
+        answers = new IntMap<>();
+        playerIds = new HashMap<>();
+        statementIds = new IntMap<>();
+        voteIdsByAnswer = new IntMap<>();
+        leaderboard = new Leaderboard();
         currentGame = new Game();
+        changedPlayers = new IntSet();
+        changedStatements = new IntSet();
+        changedVotes = new IntSet();
+        changedAnswers = new IntSet();
+        snapshot = StateSnapshot.empty();
     }
 
     public void addBlockTuple(BlockTuple blockTuple) {
@@ -47,28 +73,42 @@ public class ProjectedState {
 
     public int addPlayer(Player player) {
         currentEventId++;
-        Assertion.assertTrue(!findPlayer(player.getPlayerAddress()).isPresent());
+        Assertion.assertTrue(!playerIds.containsKey(player.getPlayerAddress()));
         players.put(currentEventId, player);
+        playerIds.put(player.getPlayerAddress(), currentEventId);
+        leaderboard.addPlayer(currentEventId);
+        changedPlayers.add(currentEventId);
         return currentEventId;
     }
 
     public int addStatement(Statement statement) {
         currentEventId++;
         // imposing contract restrictions again as a sanity check for the projected state
-        Assertion.assertTrue(findPlayer(statement.getPlayerAddress()).isPresent());
-        Assertion.assertTrue(!findStatementId(statement.getStatementId()).isPresent());
+        Integer playerId = playerIds.get(statement.getPlayerAddress());
+        Assertion.assertTrue(playerId != null);
+        Assertion.assertTrue(!statementIds.containsKey(statement.getStatementId()));
+        statement.setPlayerId(playerId);
         statements.put(currentEventId, statement);
+        statementIds.put(statement.getStatementId(), currentEventId);
+        changedStatements.add(currentEventId);
         return currentEventId;
     }
 
     public int addVote(Vote vote) {
         currentEventId++;
         // imposing contract restrictions again as a sanity check for the projected state
-        Assertion.assertTrue(findPlayer(vote.getPlayerAddress()).isPresent());
+        Integer playerId = playerIds.get(vote.getPlayerAddress());
+        Assertion.assertTrue(playerId != null);
         Optional<Statement> s = findStatementId(vote.getStatementId());
         Assertion.assertTrue(s.isPresent());
+        vote.setPlayerId(playerId);
         s.get().addVoteId(currentEventId);
         votes.put(currentEventId, vote);
+        voteIdsByAnswer.computeIfAbsent(vote.getStatementId(), k -> new HashMap<>())
+                .computeIfAbsent(vote.getGuessedAnswer(), k -> new IntSet())
+                .add(currentEventId);
+        changedVotes.add(currentEventId);
+        changedStatements.add(statementIds.get(vote.getStatementId()));
         return currentEventId;
     }
 
@@ -79,14 +119,16 @@ public class ProjectedState {
         Assertion.assertTrue(s.isPresent());
         s.get().setAnswerEventId(currentEventId);
         answers.put(currentEventId, answer);
-        Collection<Vote> values = votes.values();
-        for (Vote vote : values) {
-            if (vote.getStatementId() == answer.getStatementId() && vote.getGuessedAnswer().equals(answer.getAnswer())) {
-                Player p = findPlayer(vote.getPlayerAddress()).orElseThrow();
-                p.addAnswerEventId(currentEventId);
-            }
-        }
-
+        findVoteIds(answer.getStatementId(), answer.getAnswer()).forEach(voteId -> {
+            int playerId = votes.get(voteId).getPlayerId();
+            Player p = players.get(playerId);
+            Assertion.assertTrue(p != null);
+            p.addAnswerEventId(currentEventId);
+            leaderboard.updateScore(playerId, p.getScore());
+            changedPlayers.add(playerId);
+        });
+        changedAnswers.add(currentEventId);
+        changedStatements.add(statementIds.get(answer.getStatementId()));
         return currentEventId;
     }
 
@@ -95,36 +137,24 @@ public class ProjectedState {
      */
 
     public int stopGame(byte[] transactionHash, long blockNumber) {
-        gameLock.writeLock().lock();
-        try {
-            currentEventId++;
-            currentGame.setAsStopped(currentEventId, transactionHash, blockNumber);
-            return currentEventId;
-        } finally {
-            gameLock.writeLock().unlock();
-        }
+        currentEventId++;
+        currentGame.setAsStopped(currentEventId, transactionHash, blockNumber);
+        gameChanged = true;
+        return currentEventId;
     }
 
     public int distributedPrize(byte[] data, byte[] transactionHash, long blockNumber) {
-        gameLock.writeLock().lock();
-        try {
-            currentEventId++;
-            currentGame.setPrizeDistributed(currentEventId, data, transactionHash, blockNumber);
-            return currentEventId;
-        } finally {
-            gameLock.writeLock().unlock();
-        }
+        currentEventId++;
+        currentGame.setPrizeDistributed(currentEventId, data, transactionHash, blockNumber);
+        gameChanged = true;
+        return currentEventId;
     }
 
     public int addTransferValue(BigInteger value, byte[] transactionHash, long blockNumber) {
-        gameLock.writeLock().lock();
-        try {
-            currentEventId++;
-            currentGame.addValueTransfer(currentEventId, value, transactionHash, blockNumber);
-            return currentEventId;
-        } finally {
-            gameLock.writeLock().unlock();
-        }
+        currentEventId++;
+        currentGame.addValueTransfer(currentEventId, value, transactionHash, blockNumber);
+        gameChanged = true;
+        return currentEventId;
     }
 
     public int deployedContract() {
@@ -132,124 +162,258 @@ public class ProjectedState {
         return currentEventId;
     }
 
+    /**
+     * Publishes the changes made since the last call as a new immutable snapshot.
+     * Entries that have not changed are shared with the previous snapshot.
+     *
+     * @return the changes included in the new snapshot.
+     */
+    public StateDelta publishSnapshot() {
+        StateSnapshot previous = cleared ? StateSnapshot.empty() : snapshot;
+        Map<Integer, Player> playerChanges = collectChanges(changedPlayers, players, Player::new);
+        Map<Integer, Statement> statementChanges = collectChanges(changedStatements, statements, Statement::new);
+        // votes and answers are immutable and can be shared with the snapshot
+        Map<Integer, Vote> voteChanges = collectChanges(changedVotes, votes, UnaryOperator.identity());
+        Map<Integer, Answer> answerChanges = collectChanges(changedAnswers, answers, UnaryOperator.identity());
+
+        snapshot = new StateSnapshot(snapshot.getVersion() + 1,
+                previous.playerMap().with(playerChanges),
+                previous.statementMap().with(statementChanges),
+                previous.voteMap().with(voteChanges),
+                previous.answerMap().with(answerChanges),
+                gameChanged || cleared ? currentGame.getCopy() : previous.getGame(),
+                leaderboard.getRanking());
+
+        StateDelta delta = new StateDelta(snapshot,
+                blocks.isEmpty() ? 0 : blocks.getLast().getBlockNumber(),
+                revertedBlocks,
+                cleared,
+                gameChanged || cleared,
+                playerChanges,
+                statementChanges,
+                voteChanges,
+                answerChanges);
+        gameChanged = false;
+        cleared = false;
+        revertedBlocks = 0;
+        return delta;
+    }
+
+    /**
+     * Must be called after the changes were published, since the events are taken from the current snapshot.
+     */
+    public Checkpoint createCheckpoint(BlockHeader polledBlock) {
+        return new Checkpoint(polledBlock,
+                currentEventId,
+                new ArrayList<>(blocks),
+                snapshot.getPlayers(),
+                snapshot.getStatements(),
+                snapshot.getVotes(),
+                snapshot.getAnswers(),
+                snapshot.getGame());
+    }
+
+    /**
+     * Replaces the state with the checkpoint. The events are added again in the order of their ids, which rebuilds
+     * the indexes, the scores of the players and the leaderboard.
+     */
+    public void restore(Checkpoint checkpoint) {
+        clear();
+        Game game = checkpoint.getGame();
+        SortedSet<Integer> ids = new TreeSet<>();
+        ids.addAll(checkpoint.getPlayers().keySet());
+        ids.addAll(checkpoint.getStatements().keySet());
+        ids.addAll(checkpoint.getVotes().keySet());
+        ids.addAll(checkpoint.getAnswers().keySet());
+        ids.addAll(game.getTransactionHashes().keySet());
+
+        for (int id : ids) {
+            // each add method assigns the next id
+            currentEventId = id - 1;
+            // players and statements are created again, since their vote and answer ids are added back by the replay
+            if (checkpoint.getPlayers().containsKey(id)) {
+                Player p = checkpoint.getPlayers().get(id);
+                addPlayer(Player.of(p.getPlayerAddress(), p.getTransactionHash(), p.getBlockNumber()));
+            } else if (checkpoint.getStatements().containsKey(id)) {
+                Statement s = checkpoint.getStatements().get(id);
+                addStatement(Statement.of(s.getPlayerAddress(), s.getStatementId(), s.getAnswerHash(), s.getStatementString(), s.getTransactionHash(), s.getBlockNumber()));
+            } else if (checkpoint.getVotes().containsKey(id)) {
+                addVote(checkpoint.getVotes().get(id));
+            } else if (checkpoint.getAnswers().containsKey(id)) {
+                addAnswer(checkpoint.getAnswers().get(id));
+            } else {
+                byte[] transactionHash = Helper.hexStringToBytes(game.getTransactionHashes().get(id));
+                long blockNumber = game.getBlockNumbers().get(id);
+                if (id == game.getStopped().key) {
+                    stopGame(transactionHash, blockNumber);
+                } else if (id == game.getPrizeDistributed().key) {
+                    distributedPrize(BigInteger.valueOf(game.getPrizeDistributed().value).toByteArray(), transactionHash, blockNumber);
+                } else {
+                    addTransferValue(game.getTransferredValues().get(id), transactionHash, blockNumber);
+                }
+            }
+        }
+        currentEventId = checkpoint.getCurrentEventId();
+        blocks.addAll(checkpoint.getBlocks());
+    }
+
+    public long getLastBlockNumber() {
+        return blocks.isEmpty() ? 0 : blocks.getLast().getBlockNumber();
+    }
+
+    public StateSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     // This method is mainly used for testing
     public LinkedList<BlockTuple> getBlocks() {
         return new LinkedList<>(blocks);
     }
 
     public Map<Integer, Player> getPlayers() {
-        Map<Integer, Player> playersCopy = new HashMap<>();
-        for(int i: players.keySet()){
-            playersCopy.put(i, new Player(players.get(i)));
-        }
-        return Collections.unmodifiableMap(playersCopy);
+        return snapshot.getPlayers();
     }
 
     public Map<Integer, Statement> getStatements() {
-        Map<Integer, Statement> statementsCopy = new HashMap<>();
-        for(int i: statements.keySet()){
-            statementsCopy.put(i, new Statement(statements.get(i)));
-        }
-        return Collections.unmodifiableMap(statementsCopy);
+        return snapshot.getStatements();
     }
 
     public Map<Integer, Vote> getVotes() {
-        Map<Integer, Vote> votesCopy = new HashMap<>();
-        for(int i: votes.keySet()){
-            votesCopy.put(i, new Vote(votes.get(i)));
-        }
-        return Collections.unmodifiableMap(votesCopy);
+        return snapshot.getVotes();
     }
 
     public Map<Integer, Answer> getAnswers() {
-        Map<Integer, Answer> answersCopy = new HashMap<>();
-        for(int i: answers.keySet()){
-            answersCopy.put(i, new Answer(answers.get(i)));
-        }
-        return Collections.unmodifiableMap(answersCopy);
+        return snapshot.getAnswers();
+    }
+
+    public Player getPlayer(int id) {
+        return snapshot.getPlayers().get(id);
     }
 
     public List<String> getWinners() {
-        final List<String> winnerList = new ArrayList<>();
-        int currentMaxScore = 0;
-        for (Player p : players.values()) {
-            int score = p.getScore();
-            if (score > currentMaxScore) {
-                winnerList.clear();
-                winnerList.add(p.getPlayerAddress().getAddressString());
-                currentMaxScore = score;
-            } else if (score == currentMaxScore) {
-                winnerList.add(p.getPlayerAddress().getAddressString());
-            }
-        }
-        return winnerList;
+        return snapshot.getWinners();
+    }
+
+    public int getTopScore() {
+        return snapshot.getRanking().getTopScore();
+    }
+
+    public List<Leaderboard.Entry> getLeaderboard(int offset, int limit) {
+        return snapshot.getRanking().getEntries(offset, limit);
     }
 
     public Game getGameStatus() {
-        gameLock.readLock().lock();
-        try {
-            return currentGame.getCopy();
-        } finally {
-            gameLock.readLock().unlock();
+        return snapshot.getGame();
+    }
+
+    private Optional<Statement> findStatementId(int statementId) {
+        Integer id = statementIds.get(statementId);
+        return id == null ? Optional.empty() : Optional.ofNullable(statements.get(id));
+    }
+
+    private IntSet findVoteIds(int statementId, String guessedAnswer) {
+        return voteIdsByAnswer.getOrDefault(statementId, Collections.emptyMap()).getOrDefault(guessedAnswer, IntSet.empty());
+    }
+
+    private void removeVoteId(Vote vote, int id) {
+        Map<String, IntSet> votesPerAnswer = voteIdsByAnswer.get(vote.getStatementId());
+        if (votesPerAnswer != null) {
+            IntSet ids = votesPerAnswer.get(vote.getGuessedAnswer());
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    votesPerAnswer.remove(vote.getGuessedAnswer());
+                }
+            }
+            if (votesPerAnswer.isEmpty()) {
+                voteIdsByAnswer.remove(vote.getStatementId());
+            }
         }
     }
 
-    private Optional<Statement> findStatementId(Integer id) {
-        return statements.values().stream().filter(s -> s.getStatementId() == id).findAny();
+    private static <V> Map<Integer, V> collectChanges(IntSet changedIds, IntMap<V> current, UnaryOperator<V> copy) {
+        Map<Integer, V> changes = new HashMap<>();
+        changedIds.forEach(id -> {
+            V value = current.get(id);
+            // null values remove the id from the snapshot
+            changes.put(id, value == null ? null : copy.apply(value));
+        });
+        changedIds.clear();
+        return changes;
     }
 
     public void clear() {
         blocks.clear();
         players.clear();
+        playerIds.clear();
         statements.clear();
+        statementIds.clear();
         votes.clear();
+        voteIdsByAnswer.clear();
+        leaderboard.clear();
         answers.clear();
-        gameLock.writeLock().lock();
-        try {
-            currentGame.clear();
-        } finally {
-            gameLock.writeLock().unlock();
-        }
+        currentGame.clear();
+        changedPlayers.clear();
+        changedStatements.clear();
+        changedVotes.clear();
+        changedAnswers.clear();
+        revertedBlocks = 0;
+        cleared = true;
     }
 
     public void revertBlocks(int count) {
-        Set<Integer> logIds = new HashSet<>();
+        IntSet logIds = new IntSet();
         for (int i = 0; i < count; i++) {
             BlockTuple block = blocks.removeLast();
             logIds.addAll(block.getIncluededLogIds());
         }
+        revertedBlocks += count;
         revertLogs(logIds);
     }
 
-    private void revertLogs(Set<Integer> logIds) {
-        players.keySet().removeAll(logIds);
-        players.values().forEach(p -> p.removeAnswerEventIds(logIds));
-        statements.keySet().removeAll(logIds);
-        for (int id : logIds) {
-            Vote v = votes.remove(id);
+    private void revertLogs(IntSet logIds) {
+        int[] ids = logIds.toArray();
+        // answers are reverted first, so the votes they have scored can still be found
+        for (int id : ids) {
             Answer a = answers.remove(id);
-            Optional<Statement> s = Optional.empty();
-            if (v != null) {
-                s = findStatementId(v.getStatementId());
-                s.ifPresent(statement -> statement.removeVoteId(id));
-            }
-
             if (a != null) {
-                if (!s.isPresent()) {
-                    s = findStatementId(a.getStatementId());
-                }
-                s.ifPresent(Statement::resetAnswerId);
+                changedAnswers.add(id);
+                findStatementId(a.getStatementId()).ifPresent(Statement::resetAnswerId);
+                changedStatements.add(statementIds.get(a.getStatementId()));
+                findVoteIds(a.getStatementId(), a.getAnswer()).forEach(voteId -> {
+                    int playerId = votes.get(voteId).getPlayerId();
+                    Player p = players.get(playerId);
+                    if (p.removeAnswerEventId(id)) {
+                        leaderboard.updateScore(playerId, p.getScore());
+                        changedPlayers.add(playerId);
+                    }
+                });
             }
-            gameLock.writeLock().lock();
-            try {
-                currentGame.revert(logIds);
-            } finally {
-                gameLock.writeLock().unlock();
+        }
+        for (int id : ids) {
+            Player p = players.remove(id);
+            if (p != null) {
+                playerIds.remove(p.getPlayerAddress());
+                leaderboard.removePlayer(id);
+                changedPlayers.add(id);
+            }
+            Statement removedStatement = statements.remove(id);
+            if (removedStatement != null) {
+                statementIds.remove(removedStatement.getStatementId());
+                changedStatements.add(id);
+            }
+            Vote v = votes.remove(id);
+            if (v != null) {
+                removeVoteId(v, id);
+                changedVotes.add(id);
+                Integer statementLogId = statementIds.get(v.getStatementId());
+                if (statementLogId != null) {
+                    statements.get(statementLogId).removeVoteId(id);
+                    changedStatements.add(statementLogId);
+                }
             }
         }
-    }
-
-    private Optional<Player> findPlayer(Address player) {
-        return players.values().stream().filter(p -> p.getPlayerAddress().equals(player)).findAny();
+        currentGame.revert(logIds);
+        gameChanged = true;
     }
 }
@@ -0,0 +1,131 @@
+package state;
+
+import types.Answer;
+import types.Player;
+import types.Statement;
+import types.Vote;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes between two consecutive snapshots of the projected state.
+ * Each map holds the new value of every logId that was added or modified. A null value means the log was removed.
+ */
+public class StateDelta {
+    private final StateSnapshot snapshot;
+    private final long blockNumber;
+    private final int revertedBlocks;
+    private final boolean cleared;
+    private final boolean gameChanged;
+    private final Map<Integer, Player> players;
+    private final Map<Integer, Statement> statements;
+    private final Map<Integer, Vote> votes;
+    private final Map<Integer, Answer> answers;
+
+    StateDelta(StateSnapshot snapshot,
+               long blockNumber,
+               int revertedBlocks,
+               boolean cleared,
+               boolean gameChanged,
+               Map<Integer, Player> players,
+               Map<Integer, Statement> statements,
+               Map<Integer, Vote> votes,
+               Map<Integer, Answer> answers) {
+        this.snapshot = snapshot;
+        this.blockNumber = blockNumber;
+        this.revertedBlocks = revertedBlocks;
+        this.cleared = cleared;
+        this.gameChanged = gameChanged;
+        this.players = Collections.unmodifiableMap(players);
+        this.statements = Collections.unmodifiableMap(statements);
+        this.votes = Collections.unmodifiableMap(votes);
+        this.answers = Collections.unmodifiableMap(answers);
+    }
+
+    /**
+     * Combines consecutive deltas into a single one, holding the latest value of every changed logId.
+     * The combined delta is published with the snapshot of the last delta. If the state was cleared, only the changes
+     * made after the last clear are kept.
+     */
+    public static StateDelta merge(List<StateDelta> deltas) {
+        if (deltas.size() == 1) {
+            return deltas.get(0);
+        }
+        int revertedBlocks = 0;
+        boolean cleared = false;
+        boolean gameChanged = false;
+        Map<Integer, Player> players = new HashMap<>();
+        Map<Integer, Statement> statements = new HashMap<>();
+        Map<Integer, Vote> votes = new HashMap<>();
+        Map<Integer, Answer> answers = new HashMap<>();
+        for (StateDelta delta : deltas) {
+            if (delta.cleared) {
+                revertedBlocks = 0;
+                cleared = true;
+                players.clear();
+                statements.clear();
+                votes.clear();
+                answers.clear();
+            }
+            revertedBlocks += delta.revertedBlocks;
+            gameChanged |= delta.gameChanged;
+            players.putAll(delta.players);
+            statements.putAll(delta.statements);
+            votes.putAll(delta.votes);
+            answers.putAll(delta.answers);
+        }
+        StateDelta last = deltas.get(deltas.size() - 1);
+        return new StateDelta(last.snapshot, last.blockNumber, revertedBlocks, cleared, gameChanged, players, statements, votes, answers);
+    }
+
+    /**
+     * @return the snapshot published with this delta.
+     */
+    public StateSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return number of the latest block in the projected state, or 0 if there are no blocks.
+     */
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    /**
+     * @return number of blocks that were reverted before the changes were applied.
+     */
+    public int getRevertedBlocks() {
+        return revertedBlocks;
+    }
+
+    /**
+     * @return true if the state was cleared, in which case the maps only hold entries added after clearing it.
+     */
+    public boolean isCleared() {
+        return cleared;
+    }
+
+    public boolean isGameChanged() {
+        return gameChanged;
+    }
+
+    public Map<Integer, Player> getPlayers() {
+        return players;
+    }
+
+    public Map<Integer, Statement> getStatements() {
+        return statements;
+    }
+
+    public Map<Integer, Vote> getVotes() {
+        return votes;
+    }
+
+    public Map<Integer, Answer> getAnswers() {
+        return answers;
+    }
+}
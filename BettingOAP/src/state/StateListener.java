@@ -0,0 +1,9 @@
+package state;
+
+/**
+ * Notified by StatePopulator every time a new snapshot of the projected state is published.
+ * Listeners are called on the populating thread, so they should hand off any blocking work.
+ */
+public interface StateListener {
+    void onStateChanged(StateDelta delta);
+}
@@ -2,81 +2,178 @@ package state;
 
 import internal.Assertion;
 import types.Answer;
+import types.BlockHeader;
 import types.BlockTuple;
 import types.Statement;
 import types.Vote;
 import types.Player;
 import internal.CriticalException;
+import util.IntList;
 import util.Log;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static java.util.stream.Collectors.groupingBy;
 
 public class StatePopulator {
     private final ProjectedState projectedState;
+    private final List<StateListener> listeners;
+    // applied logs are not stored if null
+    private final LogStore logStore;
 
     public StatePopulator(ProjectedState projectedState) {
+        this(projectedState, null);
+    }
+
+    public StatePopulator(ProjectedState projectedState, LogStore logStore) {
         this.projectedState = projectedState;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.logStore = logStore;
+    }
+
+    public void addListener(StateListener listener) {
+        listeners.add(listener);
     }
 
     public void populate(List<Log> logs) {
         Map<Long, List<Log>> logsPerBlock = new TreeMap<>(logs.stream().collect(groupingBy(l -> l.blockNumber)));
         for (Map.Entry<Long, List<Log>> e : logsPerBlock.entrySet()) {
-            List<Integer> ids = new ArrayList<>();
-            byte[] blockHash = e.getValue().get(0).blockHash;
-            for (Log log : e.getValue()) {
-                int addedLogId;
-                byte[] data = log.copyOfData();
-                List<byte[]> topics = log.copyOfTopics();
-                Assertion.assertTrue(topics.size() > 0);
-                String eventTopic = new String(topics.get(0)).trim();
-                switch (eventTopic) {
-                    case "Registered":
-                        addedLogId = projectedState.addPlayer(Player.from(data, log.copyOfTransactionHash(), log.blockNumber));
-                        break;
-                    case "Voted":
-                        addedLogId = projectedState.addVote(Vote.from(topics, data, log.copyOfTransactionHash(), log.blockNumber));
-                        break;
-                    case "SubmittedStatement":
-                        addedLogId = projectedState.addStatement(Statement.from(topics, data, log.copyOfTransactionHash(), log.blockNumber));
-                        break;
-                    case "RevealedAnswer":
-                        addedLogId = projectedState.addAnswer(Answer.from(topics, data, log.copyOfTransactionHash(), log.blockNumber));
-                        break;
-                    case "DistributedPrize":
-                        addedLogId = projectedState.distributedPrize(data, log.copyOfTransactionHash(), log.blockNumber);
-                        break;
-                    case "UpdatedBalance":
-                        addedLogId = projectedState.addTransferValue(new BigInteger(data), log.copyOfTransactionHash(), log.blockNumber);
-                        break;
-                    case "GameStopped":
-                        addedLogId = projectedState.stopGame(log.copyOfTransactionHash(), log.blockNumber);
-                        break;
-                    case "BettingContractDeployed":
-                        addedLogId = projectedState.deployedContract();
-                        break;
-                    default:
-                        throw new CriticalException("First event topic not recognized. " + eventTopic);
-                }
-                ids.add(addedLogId);
+            applyBlock(e.getKey(), e.getValue());
+            if (logStore != null) {
+                logStore.appendBlock(e.getKey(), e.getValue());
             }
-            projectedState.addBlockTuple(BlockTuple.of(e.getKey(), blockHash, ids));
+            publish();
+        }
+        // a single fsync for all the blocks of the call
+        if (logStore != null && !logsPerBlock.isEmpty()) {
+            logStore.sync();
+        }
+    }
+
+    /**
+     * Rebuilds the state from the logs kept in the log store, which are not stored again.
+     * The state should be empty.
+     *
+     * @return the last replayed block, or null if there is no log store or it is empty.
+     */
+    public BlockTuple replayLogStore() {
+        if (logStore == null || logStore.getBlockCount() == 0) {
+            return null;
         }
+        List<Log> blockLogs = new ArrayList<>();
+        logStore.replay(0, log -> {
+            if (!blockLogs.isEmpty() && blockLogs.get(0).blockNumber != log.blockNumber) {
+                applyBlock(blockLogs.get(0).blockNumber, blockLogs);
+                blockLogs.clear();
+            }
+            blockLogs.add(log);
+        });
+        applyBlock(blockLogs.get(0).blockNumber, blockLogs);
+        publish();
+        return projectedState.getBlocks().getLast();
+    }
 
+    private void applyBlock(long blockNumber, List<Log> logs) {
+        IntList ids = new IntList(logs.size());
+        byte[] blockHash = logs.get(0).blockHash;
+        for (Log log : logs) {
+            int addedLogId;
+            byte[] data = log.copyOfData();
+            List<byte[]> topics = log.copyOfTopics();
+            Assertion.assertTrue(topics.size() > 0);
+            String eventTopic = new String(topics.get(0)).trim();
+            switch (eventTopic) {
+                case "Registered":
+                    addedLogId = projectedState.addPlayer(Player.from(data, log.copyOfTransactionHash(), log.blockNumber));
+                    break;
+                case "Voted":
+                    addedLogId = projectedState.addVote(Vote.from(topics, data, log.copyOfTransactionHash(), log.blockNumber));
+                    break;
+                case "SubmittedStatement":
+                    addedLogId = projectedState.addStatement(Statement.from(topics, data, log.copyOfTransactionHash(), log.blockNumber));
+                    break;
+                case "RevealedAnswer":
+                    addedLogId = projectedState.addAnswer(Answer.from(topics, data, log.copyOfTransactionHash(), log.blockNumber));
+                    break;
+                case "DistributedPrize":
+                    addedLogId = projectedState.distributedPrize(data, log.copyOfTransactionHash(), log.blockNumber);
+                    break;
+                case "UpdatedBalance":
+                    addedLogId = projectedState.addTransferValue(new BigInteger(data), log.copyOfTransactionHash(), log.blockNumber);
+                    break;
+                case "GameStopped":
+                    addedLogId = projectedState.stopGame(log.copyOfTransactionHash(), log.blockNumber);
+                    break;
+                case "BettingContractDeployed":
+                    addedLogId = projectedState.deployedContract();
+                    break;
+                default:
+                    throw new CriticalException("First event topic not recognized. " + eventTopic);
+            }
+            ids.add(addedLogId);
+        }
+        projectedState.addBlockTuple(BlockTuple.of(blockNumber, blockHash, ids.toArray()));
     }
 
     public void revertBlocks(int count) {
+        if (logStore != null) {
+            LinkedList<BlockTuple> blocks = projectedState.getBlocks();
+            logStore.truncateAfter(count < blocks.size() ? blocks.get(blocks.size() - count - 1).getBlockNumber() : -1);
+        }
         projectedState.revertBlocks(count);
+        publish();
+    }
+
+    /**
+     * Reverts the blocks after blockNumber.
+     */
+    public void revertBlocksAfter(long blockNumber) {
+        int count = 0;
+        Iterator<BlockTuple> blocks = projectedState.getBlocks().descendingIterator();
+        while (blocks.hasNext() && blocks.next().getBlockNumber() > blockNumber) {
+            count++;
+        }
+        if (count > 0) {
+            revertBlocks(count);
+        }
+    }
+
+    public Checkpoint createCheckpoint(BlockHeader polledBlock) {
+        return projectedState.createCheckpoint(polledBlock);
+    }
+
+    public void restore(Checkpoint checkpoint) {
+        // the stored blocks after the checkpoint are retrieved again
+        if (logStore != null) {
+            logStore.truncateAfter(checkpoint.getPolledBlock().getBlockNumber());
+        }
+        projectedState.restore(checkpoint);
+        publish();
+    }
+
+    public long getLastBlockNumber() {
+        return projectedState.getLastBlockNumber();
     }
 
     public void clear() {
+        if (logStore != null) {
+            logStore.clear();
+        }
         projectedState.clear();
+        publish();
+    }
+
+    private void publish() {
+        StateDelta delta = projectedState.publishSnapshot();
+        for (StateListener listener : listeners) {
+            listener.onStateChanged(delta);
+        }
     }
 
     public ListIterator<BlockTuple> getBlocksIterator() {
         List<BlockTuple> blocks = projectedState.getBlocks();
-        return blocks.listIterator(blocks.size() - 1);
+        return blocks.listIterator(Math.max(blocks.size() - 1, 0));
     }
 }
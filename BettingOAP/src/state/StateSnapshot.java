@@ -0,0 +1,109 @@
+package state;
+
+import types.Answer;
+import types.Game;
+import types.Player;
+import types.Statement;
+import types.Vote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the projected state, published by ProjectedState after each populated block.
+ * All maps are read-only and consistent with each other, so readers can hold on to a snapshot without copying it.
+ */
+public class StateSnapshot {
+    private final long version;
+    private final PersistentIdMap<Player> players;
+    private final PersistentIdMap<Statement> statements;
+    private final PersistentIdMap<Vote> votes;
+    private final PersistentIdMap<Answer> answers;
+    private final Game game;
+    private final Leaderboard.Ranking ranking;
+
+    StateSnapshot(long version,
+                  PersistentIdMap<Player> players,
+                  PersistentIdMap<Statement> statements,
+                  PersistentIdMap<Vote> votes,
+                  PersistentIdMap<Answer> answers,
+                  Game game,
+                  Leaderboard.Ranking ranking) {
+        this.version = version;
+        this.players = players;
+        this.statements = statements;
+        this.votes = votes;
+        this.answers = answers;
+        this.game = game;
+        this.ranking = ranking;
+    }
+
+    static StateSnapshot empty() {
+        return new StateSnapshot(0,
+                PersistentIdMap.empty(),
+                PersistentIdMap.empty(),
+                PersistentIdMap.empty(),
+                PersistentIdMap.empty(),
+                new Game().getCopy(),
+                Leaderboard.Ranking.empty());
+    }
+
+    /**
+     * @return a counter that is incremented every time a new snapshot is published.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<Integer, Player> getPlayers() {
+        return players;
+    }
+
+    public Map<Integer, Statement> getStatements() {
+        return statements;
+    }
+
+    public Map<Integer, Vote> getVotes() {
+        return votes;
+    }
+
+    public Map<Integer, Answer> getAnswers() {
+        return answers;
+    }
+
+    public Game getGame() {
+        return game;
+    }
+
+    public Leaderboard.Ranking getRanking() {
+        return ranking;
+    }
+
+    /**
+     * @return addresses of the players with the highest score.
+     */
+    public List<String> getWinners() {
+        List<String> winners = new ArrayList<>();
+        for (int id : ranking.getWinners()) {
+            winners.add(players.get(id).getPlayerAddress().getAddressString());
+        }
+        return winners;
+    }
+
+    PersistentIdMap<Player> playerMap() {
+        return players;
+    }
+
+    PersistentIdMap<Statement> statementMap() {
+        return statements;
+    }
+
+    PersistentIdMap<Vote> voteMap() {
+        return votes;
+    }
+
+    PersistentIdMap<Answer> answerMap() {
+        return answers;
+    }
+}
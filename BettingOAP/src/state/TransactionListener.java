@@ -0,0 +1,12 @@
+package state;
+
+import org.aion.harness.kernel.Address;
+import types.TransactionDetails;
+
+/**
+ * Notified by UserState every time the details of a transaction sent through the app are added.
+ * Listeners are called on the worker threads sending transactions and collecting receipts, so they should not block.
+ */
+public interface TransactionListener {
+    void onTransactionUpdated(Address sender, TransactionDetails transactionDetails);
+}
@@ -1,17 +1,18 @@
 package state;
 
-import org.aion.harness.result.RpcResult;
 import types.*;
 import types.Json.*;
 import types.TransactionDetails;
 import org.aion.harness.kernel.Address;
 import util.Helper;
-import util.NodeConnection;
+import util.AsyncNodeConnection;
 import worker.BlockNumberCollector;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Holds the current user transaction info
@@ -23,16 +24,22 @@ public class UserState {
     private Map<String, List<TransactionDetails>> userTransactions;
 
     private ProjectedState projectedState;
-    private NodeConnection nodeConnection;
+    private AsyncNodeConnection nodeConnection;
     private BlockNumberCollector blockNumberCollector;
+    private List<TransactionListener> transactionListeners;
 
     public UserState(ProjectedState projectedState,
-                     NodeConnection nodeConnection,
+                     AsyncNodeConnection nodeConnection,
                      BlockNumberCollector blockNumberCollector) {
         this.userTransactions = new ConcurrentHashMap<>();
         this.projectedState = projectedState;
         this.nodeConnection = nodeConnection;
         this.blockNumberCollector = blockNumberCollector;
+        this.transactionListeners = new CopyOnWriteArrayList<>();
+    }
+
+    public void addTransactionListener(TransactionListener listener) {
+        transactionListeners.add(listener);
     }
 
     public void putTransaction(Address sender, TransactionDetails transactionDetails) {
@@ -42,6 +49,9 @@ public class UserState {
         } else {
             userTransactions.put(addressString, new ArrayList<>(Arrays.asList(transactionDetails)));
         }
+        for (TransactionListener listener : transactionListeners) {
+            listener.onTransactionUpdated(sender, transactionDetails);
+        }
     }
 
     // queried from front end
@@ -60,26 +70,26 @@ public class UserState {
         return null;
     }
 
-    public BigInteger getNonce(Address address) {
-        try {
-            RpcResult<BigInteger> nonceResult = nodeConnection.getNonce(address);
-            if (nonceResult.isSuccess()) {
-                return nonceResult.getResult();
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        return null;
+    // completes with null if the nonce could not be retrieved
+    public CompletableFuture<BigInteger> getNonce(Address address) {
+        return nodeConnection.getNonce(address).thenApply(nonceResult -> nonceResult.isSuccess() ? nonceResult.getResult() : null);
+    }
+
+    public long getCurrentBlockNumber() {
+        return blockNumberCollector.getCurrentBlockNumber();
     }
 
-    // Note that following methods do not always return the most current state of the projected state.
-    // Once the maps are copied from the projected state, they are iterated over here. the state might have changed
-    // between 2 consecutive ConcurrentHashMap copies and the retrieval methods in this class should be able to handle that.
-    public List<AggregatedStatement> getStatements() {
-        long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+    public long getStateVersion() {
+        return projectedState.getSnapshot().getVersion();
+    }
+
+    // Note that following methods return the state as of the latest published snapshot of the projected state.
+    // Each method reads from a single snapshot, so the maps it uses are always consistent with each other.
+    public List<AggregatedStatement> getStatements(long blockNumber) {
 
-        Map<Integer, Statement> statements = projectedState.getStatements();
-        Map<Integer, Answer> answers = projectedState.getAnswers();
+        StateSnapshot snapshot = projectedState.getSnapshot();
+        Map<Integer, Statement> statements = snapshot.getStatements();
+        Map<Integer, Answer> answers = snapshot.getAnswers();
         List<AggregatedStatement> response = new ArrayList<>();
 
         for (Statement s : statements.values()) {
@@ -93,60 +103,122 @@ public class UserState {
         return response;
     }
 
-    public Collection<AggregatedPlayer> getPlayers() {
-        long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+    public Collection<AggregatedPlayer> getPlayers(long blockNumber) {
 
-        boolean prizeDistributed = projectedState.getGameStatus().getPrizeDistributed().key > 0;
+        StateSnapshot snapshot = projectedState.getSnapshot();
+        boolean prizeDistributed = snapshot.getGame().getPrizeDistributed().key > 0;
 
-        List<Player> players = new ArrayList<>(projectedState.getPlayers().values());
         List<AggregatedPlayer> aggregatedPlayers = new ArrayList<>();
-        for(Player p: players){
+        for(Player p: snapshot.getPlayers().values()){
             aggregatedPlayers.add(new AggregatedPlayer(p, blockNumber, prizeDistributed));
         }
         return aggregatedPlayers;
     }
 
-    public List<AggregatedAnswer> getAnswers() {
-        long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+    public List<AggregatedAnswer> getAnswers(long blockNumber) {
         List<AggregatedAnswer> aggregatedAnswers = new ArrayList<>();
 
-        List<Answer> answers = new ArrayList<>(projectedState.getAnswers().values());
-        for (Answer a : answers) {
+        for (Answer a : projectedState.getSnapshot().getAnswers().values()) {
             aggregatedAnswers.add(new AggregatedAnswer(a, blockNumber));
         }
         return aggregatedAnswers;
     }
 
-    public List<AggregatedVote> getVotes() {
-        long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+    public List<AggregatedVote> getVotes(long blockNumber) {
 
-        List<Answer> answers = new ArrayList<>(projectedState.getAnswers().values());
-        List<Vote> votes = new ArrayList<>(projectedState.getVotes().values());
+        StateSnapshot snapshot = projectedState.getSnapshot();
+        // revealed answer per statementId
+        Map<Integer, String> answers = new HashMap<>();
+        for (Answer a : snapshot.getAnswers().values()) {
+            answers.put(a.getStatementId(), a.getAnswer());
+        }
         List<AggregatedVote> aggregatedVotes = new ArrayList<>();
 
-        for (Vote v : votes) {
-            boolean found = false;
-            for (Answer a : answers) {
-                if (v.getStatementId() == a.getStatementId() && v.getGuessedAnswer().equals(a.getAnswer())) {
-                    found = true;
-                    break;
-                }
-            }
+        for (Vote v : snapshot.getVotes().values()) {
+            boolean found = v.getGuessedAnswer().equals(answers.get(v.getStatementId()));
             aggregatedVotes.add(new AggregatedVote(v, blockNumber, found));
         }
         return aggregatedVotes;
     }
 
-    public AggregatedGame getGameStatus() {
-        long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+    public AggregatedGame getGameStatus(long blockNumber) {
 
-        Game gameStatus = projectedState.getGameStatus();
+        StateSnapshot snapshot = projectedState.getSnapshot();
+        Game gameStatus = snapshot.getGame();
         ArrayList<String> winners = new ArrayList<>();
 
         if(gameStatus.getPrizeDistributed().key > 0) {
-            winners = new ArrayList<>(projectedState.getWinners());
+            winners = new ArrayList<>(snapshot.getWinners());
+        }
+        return new AggregatedGame(gameStatus, winners, blockNumber);
+    }
+
+    // scores are only revealed once the prize has been distributed, same as getPlayers
+    public List<AggregatedLeaderboardEntry> getLeaderboard(int offset, int limit) {
+        List<AggregatedLeaderboardEntry> leaderboard = new ArrayList<>();
+        // the ranking and the players are read from the same snapshot
+        StateSnapshot snapshot = projectedState.getSnapshot();
+        if (snapshot.getGame().getPrizeDistributed().key > 0) {
+            for (Leaderboard.Entry entry : snapshot.getRanking().getEntries(offset, limit)) {
+                leaderboard.add(new AggregatedLeaderboardEntry(snapshot.getPlayers().get(entry.playerId), entry.score, entry.rank));
+            }
         }
-        return new AggregatedGame(projectedState.getGameStatus(), winners, blockNumber);
+        return leaderboard;
     }
 
+    // aggregates only the entries included in the delta, against the snapshot published with it
+    public AggregatedStateDelta getDelta(StateDelta delta, long blockNumber) {
+        StateSnapshot snapshot = delta.getSnapshot();
+        Game game = snapshot.getGame();
+        boolean prizeDistributed = game.getPrizeDistributed().key > 0;
+
+        Map<Integer, AggregatedPlayer> players = new HashMap<>();
+        for (Map.Entry<Integer, Player> e : delta.getPlayers().entrySet()) {
+            players.put(e.getKey(), e.getValue() == null ? null : new AggregatedPlayer(e.getValue(), blockNumber, prizeDistributed));
+        }
+        // scores of all the players are revealed once the prize is distributed
+        if (delta.isGameChanged() && prizeDistributed) {
+            for (Map.Entry<Integer, Player> e : snapshot.getPlayers().entrySet()) {
+                players.put(e.getKey(), new AggregatedPlayer(e.getValue(), blockNumber, true));
+            }
+        }
+
+        Map<Integer, AggregatedStatement> statements = new HashMap<>();
+        for (Map.Entry<Integer, Statement> e : delta.getStatements().entrySet()) {
+            Statement s = e.getValue();
+            statements.put(e.getKey(), s == null ? null : new AggregatedStatement(s, snapshot.getAnswers().get(s.getAnswerEventId()), blockNumber));
+        }
+
+        Map<Integer, AggregatedVote> votes = new HashMap<>();
+        if (!delta.getVotes().isEmpty()) {
+            Map<Integer, String> answerPerStatement = new HashMap<>();
+            for (Answer a : snapshot.getAnswers().values()) {
+                answerPerStatement.put(a.getStatementId(), a.getAnswer());
+            }
+            for (Map.Entry<Integer, Vote> e : delta.getVotes().entrySet()) {
+                Vote v = e.getValue();
+                votes.put(e.getKey(), v == null ? null : new AggregatedVote(v, blockNumber, v.getGuessedAnswer().equals(answerPerStatement.get(v.getStatementId()))));
+            }
+        }
+
+        Map<Integer, AggregatedAnswer> answers = new HashMap<>();
+        for (Map.Entry<Integer, Answer> e : delta.getAnswers().entrySet()) {
+            answers.put(e.getKey(), e.getValue() == null ? null : new AggregatedAnswer(e.getValue(), blockNumber));
+        }
+
+        AggregatedGame aggregatedGame = null;
+        if (delta.isGameChanged()) {
+            aggregatedGame = new AggregatedGame(game, prizeDistributed ? new ArrayList<>(snapshot.getWinners()) : new ArrayList<>(), blockNumber);
+        }
+
+        return new AggregatedStateDelta(snapshot.getVersion(),
+                delta.getBlockNumber(),
+                delta.getRevertedBlocks(),
+                delta.isCleared(),
+                players,
+                statements,
+                votes,
+                answers,
+                aggregatedGame);
+    }
 }
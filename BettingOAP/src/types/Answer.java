@@ -19,6 +19,11 @@ public class Answer {
                 blockNumber);
     }
 
+    // used to restore an answer from a checkpoint
+    public static Answer of(int statementId, String answer, String transactionHash, long blockNumber) {
+        return new Answer(statementId, answer, transactionHash, blockNumber);
+    }
+
     private Answer(int statementId, String answer, String transactionHash, long blockNumber) {
         this.statementId = statementId;
         this.answer = answer;
@@ -0,0 +1,46 @@
+package types;
+
+import util.Helper;
+
+import java.util.Arrays;
+
+public class BlockHeader {
+    private final long blockNumber;
+    private final byte[] blockHash;
+    private final byte[] parentHash;
+
+    private BlockHeader(long blockNumber, byte[] blockHash, byte[] parentHash) {
+        this.blockNumber = blockNumber;
+        this.blockHash = blockHash;
+        this.parentHash = parentHash;
+    }
+
+    public static BlockHeader of(long blockNumber, byte[] blockHash, byte[] parentHash) {
+        return new BlockHeader(blockNumber, blockHash, parentHash);
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public byte[] getParentHash() {
+        return parentHash;
+    }
+
+    public boolean isParentOf(BlockHeader child) {
+        return child.blockNumber == blockNumber + 1 && Arrays.equals(blockHash, child.parentHash);
+    }
+
+    @Override
+    public String toString() {
+        return "BlockHeader{" +
+                "blockNumber=" + blockNumber +
+                ", blockHash=" + Helper.bytesToHexString(blockHash) +
+                ", parentHash=" + Helper.bytesToHexString(parentHash) +
+                '}';
+    }
+}
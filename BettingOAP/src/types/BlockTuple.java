@@ -9,18 +9,22 @@ import java.util.Objects;
 public class BlockTuple {
     private long blockNumber;
     private byte[] blockHash;
-    private List<Integer> logIds;
+    private int[] logIds;
 
-    private BlockTuple(long blockNumber, byte[] blockHash, List<Integer> logIds) {
+    private BlockTuple(long blockNumber, byte[] blockHash, int[] logIds) {
         this.blockNumber = blockNumber;
         this.blockHash = blockHash;
         this.logIds = logIds;
     }
 
-   public static BlockTuple of(long blockNumber, byte[] blockHash, List<Integer> logIds) {
+   public static BlockTuple of(long blockNumber, byte[] blockHash, int[] logIds) {
         return new BlockTuple(blockNumber, blockHash, logIds);
    }
 
+   public static BlockTuple of(long blockNumber, byte[] blockHash, List<Integer> logIds) {
+        return new BlockTuple(blockNumber, blockHash, logIds.stream().mapToInt(Integer::intValue).toArray());
+   }
+
     public long getBlockNumber() {
         return blockNumber;
     }
@@ -29,7 +33,7 @@ public class BlockTuple {
         return blockHash;
     }
 
-    public List<Integer> getIncluededLogIds() {
+    public int[] getIncluededLogIds() {
         return logIds;
     }
 
@@ -38,7 +42,7 @@ public class BlockTuple {
         return "BlockTuple{" +
                 "blockNumber=" + blockNumber +
                 ", blockHash=" + Helper.bytesToHexString(blockHash) +
-                ", logIds=" + logIds +
+                ", logIds=" + Arrays.toString(logIds) +
                 '}';
     }
 
@@ -49,13 +53,14 @@ public class BlockTuple {
         BlockTuple that = (BlockTuple) o;
         return blockNumber == that.blockNumber &&
                 Arrays.equals(blockHash, that.blockHash) &&
-                logIds.equals(that.logIds);
+                Arrays.equals(logIds, that.logIds);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(blockNumber, logIds);
+        int result = Objects.hash(blockNumber);
         result = 31 * result + Arrays.hashCode(blockHash);
+        result = 31 * result + Arrays.hashCode(logIds);
         return result;
     }
 }
@@ -3,12 +3,13 @@ package types;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import internal.Assertion;
 import util.Helper;
+import util.IntSet;
 import util.Pair;
 
 import java.math.BigInteger;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 
 public class Game {
     private Pair<Integer, Boolean> isStopped;
@@ -80,13 +81,22 @@ public class Game {
         return winners;
     }
 
+    public Map<Integer, BigInteger> getTransferredValues() {
+        return transferredValues;
+    }
+
     public BigInteger getTotalPrizeAmount() {
         return transferredValues.values().stream().reduce(BigInteger.ZERO, BigInteger::add);
     }
 
     @JsonIgnore
     public Game getCopy() {
-        return new Game(isStopped, prizeDistributed, winners, transferredValues, transactionHashes, blockNumbers);
+        return new Game(isStopped,
+                prizeDistributed,
+                winners,
+                Collections.unmodifiableMap(new HashMap<>(transferredValues)),
+                Collections.unmodifiableMap(new HashMap<>(transactionHashes)),
+                Collections.unmodifiableMap(new HashMap<>(blockNumbers)));
     }
 
     public Map<Integer, String> getTransactionHashes() {
@@ -117,9 +127,11 @@ public class Game {
         winners = Pair.of(-1, null);
     }
 
-    public void revert(Set<Integer> logIds) {
-        transferredValues.keySet().removeAll(logIds);
-        transactionHashes.keySet().removeAll(logIds);
+    public void revert(IntSet logIds) {
+        logIds.forEach(id -> {
+            transferredValues.remove(id);
+            transactionHashes.remove(id);
+        });
         if (logIds.contains(isStopped.key)) {
             resetStopped();
         }
@@ -0,0 +1,20 @@
+package types.Json;
+
+// message pushed to the clients subscribed to an address
+public class AddressNotification {
+    private final String type;
+    private final Object data;
+
+    public AddressNotification(String type, Object data) {
+        this.type = type;
+        this.data = data;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Object getData() {
+        return data;
+    }
+}
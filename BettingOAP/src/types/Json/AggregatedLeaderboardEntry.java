@@ -0,0 +1,28 @@
+package types.Json;
+
+import types.Address;
+import types.Player;
+
+public class AggregatedLeaderboardEntry {
+    private final int rank;
+    private final Address playerAddress;
+    private final int score;
+
+    public AggregatedLeaderboardEntry(Player player, int score, int rank) {
+        this.rank = rank;
+        this.playerAddress = player.getPlayerAddress();
+        this.score = score;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    public Address getPlayerAddress() {
+        return playerAddress;
+    }
+
+    public int getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,73 @@
+package types.Json;
+
+import java.util.Map;
+
+// changes of a single published snapshot, keyed by the internal event ids. A null value means the event was removed.
+public class AggregatedStateDelta {
+    private final long version;
+    private final long blockNumber;
+    private final int revertedBlocks;
+    private final boolean cleared;
+    private final Map<Integer, AggregatedPlayer> players;
+    private final Map<Integer, AggregatedStatement> statements;
+    private final Map<Integer, AggregatedVote> votes;
+    private final Map<Integer, AggregatedAnswer> answers;
+    // null if the game status has not changed
+    private final AggregatedGame game;
+
+    public AggregatedStateDelta(long version,
+                                long blockNumber,
+                                int revertedBlocks,
+                                boolean cleared,
+                                Map<Integer, AggregatedPlayer> players,
+                                Map<Integer, AggregatedStatement> statements,
+                                Map<Integer, AggregatedVote> votes,
+                                Map<Integer, AggregatedAnswer> answers,
+                                AggregatedGame game) {
+        this.version = version;
+        this.blockNumber = blockNumber;
+        this.revertedBlocks = revertedBlocks;
+        this.cleared = cleared;
+        this.players = players;
+        this.statements = statements;
+        this.votes = votes;
+        this.answers = answers;
+        this.game = game;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public int getRevertedBlocks() {
+        return revertedBlocks;
+    }
+
+    public boolean isCleared() {
+        return cleared;
+    }
+
+    public Map<Integer, AggregatedPlayer> getPlayers() {
+        return players;
+    }
+
+    public Map<Integer, AggregatedStatement> getStatements() {
+        return statements;
+    }
+
+    public Map<Integer, AggregatedVote> getVotes() {
+        return votes;
+    }
+
+    public Map<Integer, AggregatedAnswer> getAnswers() {
+        return answers;
+    }
+
+    public AggregatedGame getGame() {
+        return game;
+    }
+}
@@ -4,8 +4,6 @@ import types.Address;
 import types.Answer;
 import types.Statement;
 
-import java.util.Set;
-
 // this is mainly used create a new json object from a statementString and an answer, and to reduce the number of GET calls
 public class AggregatedStatement {
     private final Address playerAddress;
@@ -15,7 +13,7 @@ public class AggregatedStatement {
     private final String statementTransactionHash;
     private final long statementAge;
     // internal ids associated with events.
-    private final Set<Integer> voteEventIds;
+    private final int[] voteEventIds;
 
     private String answerString;
     private String answerTransactionHash;
@@ -27,7 +25,7 @@ public class AggregatedStatement {
         this.answerHash = statement.getAnswerHash();
         this.statementString = statement.getStatementString();
         this.statementTransactionHash = statement.getTransactionHash();
-        this.voteEventIds = statement.getVoteEventIds();
+        this.voteEventIds = statement.getVoteEventIds().toArray();
         this.statementAge = blockNumber - statement.getBlockNumber();
         if(answer != null) {
             this.answerString = answer.getAnswer();
@@ -56,7 +54,7 @@ public class AggregatedStatement {
         return statementTransactionHash;
     }
 
-    public Set<Integer> getVoteEventIds() {
+    public int[] getVoteEventIds() {
         return voteEventIds;
     }
 
@@ -0,0 +1,32 @@
+package types.Json;
+
+// counters of the transactions offered to the queue of the TransactionSender since the application started
+public class QueueMetrics {
+    private final long admitted;
+    private final long rejected;
+    private final long duplicates;
+    private final int queued;
+
+    public QueueMetrics(long admitted, long rejected, long duplicates, int queued) {
+        this.admitted = admitted;
+        this.rejected = rejected;
+        this.duplicates = duplicates;
+        this.queued = queued;
+    }
+
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+}
@@ -2,46 +2,66 @@ package types;
 
 import internal.Assertion;
 import util.Helper;
+import util.SharedIntSet;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.nio.ByteBuffer;
 
+/**
+ * Flyweight over a fixed-width record stored off-heap, see RecordArena.
+ * The answer ids used to calculate the score change over time and are kept on the heap.
+ */
 public class Player {
-    private final Address playerAddress;
-    private final String transactionHash;
-    private final long blockNumber;
+    // record layout: blockNumber, player address, transaction hash
+    private static final int blockNumberOffset = 0;
+    private static final int addressOffset = 8;
+    private static final int transactionHashOffset = 40;
+    private static final int recordSize = 72;
+
+    private static final RecordArena arena = new RecordArena(recordSize, 1024);
+
+    private final ByteBuffer chunk;
+    private final int offset;
     // this is used to calculated the score
-    private final List<Integer> correctVoteAssociatedAnswerEventId;
+    private final SharedIntSet correctVoteAssociatedAnswerEventId;
 
     public static Player from(byte[] data, byte[] transactionHash, long blockNumber) {
-        return new Player(new Address(data),
-                Helper.bytesToHexStringWith0x(transactionHash),
-                blockNumber);
+        return create(data, transactionHash, blockNumber);
+    }
+
+    // used to restore a player from a checkpoint
+    public static Player of(Address playerAddress, String transactionHash, long blockNumber) {
+        return create(playerAddress.toBytes(), Helper.hexStringToBytes(transactionHash), blockNumber);
+    }
+
+    private static Player create(byte[] playerAddress, byte[] transactionHash, long blockNumber) {
+        return arena.allocate((chunk, offset) -> {
+            chunk.putLong(offset + blockNumberOffset, blockNumber);
+            RecordArena.putBytes(chunk, offset + addressOffset, playerAddress, 32);
+            RecordArena.putBytes(chunk, offset + transactionHashOffset, transactionHash, 32);
+            return new Player(chunk, offset);
+        });
     }
 
-    private Player(Address playerAddress, String transactionHash, Long blockNumber) {
-        this.playerAddress = playerAddress;
-        this.transactionHash = transactionHash;
-        this.blockNumber = blockNumber;
-        correctVoteAssociatedAnswerEventId = new ArrayList<>();
+    private Player(ByteBuffer chunk, int offset) {
+        this.chunk = chunk;
+        this.offset = offset;
+        correctVoteAssociatedAnswerEventId = new SharedIntSet();
     }
 
     public Address getPlayerAddress() {
-        return playerAddress;
+        return new Address(RecordArena.getBytes(chunk, offset + addressOffset, 32));
     }
 
     public String getTransactionHash() {
-        return transactionHash;
+        return Helper.bytesToHexStringWith0x(RecordArena.getBytes(chunk, offset + transactionHashOffset, 32));
     }
 
     public void addAnswerEventId(int id) {
-        Assertion.assertTrue(!correctVoteAssociatedAnswerEventId.contains(id));
-        correctVoteAssociatedAnswerEventId.add(id);
+        Assertion.assertTrue(correctVoteAssociatedAnswerEventId.add(id));
     }
 
-    public void removeAnswerEventIds(Set<Integer> ids){
-        correctVoteAssociatedAnswerEventId.removeAll(ids);
+    public boolean removeAnswerEventId(int id){
+        return correctVoteAssociatedAnswerEventId.remove(id);
     }
 
     public int getScore(){
@@ -49,22 +69,22 @@ public class Player {
     }
 
     public long getBlockNumber() {
-        return blockNumber;
+        return chunk.getLong(offset + blockNumberOffset);
     }
 
+    // creates a read-only copy of the player, the record itself is shared
     public Player(Player player){
-        this.playerAddress = player.playerAddress;
-        this.transactionHash= player.transactionHash;
-        this.blockNumber = player.blockNumber;
-        this.correctVoteAssociatedAnswerEventId = player.correctVoteAssociatedAnswerEventId;
+        this.chunk = player.chunk;
+        this.offset = player.offset;
+        this.correctVoteAssociatedAnswerEventId = player.correctVoteAssociatedAnswerEventId.readOnlyCopy();
     }
 
     @Override
     public String toString() {
         return "Player{" +
-                "playerAddress=" + playerAddress +
-                ", transactionHash='" + transactionHash + '\'' +
-                ", blockNumber=" + blockNumber +
+                "playerAddress=" + getPlayerAddress() +
+                ", transactionHash='" + getTransactionHash() + '\'' +
+                ", blockNumber=" + getBlockNumber() +
                 ", correctVoteAssociatedAnswerEventId=" + correctVoteAssociatedAnswerEventId +
                 '}';
     }
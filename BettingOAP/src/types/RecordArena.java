@@ -0,0 +1,59 @@
+package types;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap storage for fixed-width records.
+ * Records are appended to direct buffers of recordsPerChunk records each and are never moved or overwritten, so a
+ * flyweight only needs the chunk and the offset of its record. The arena only references the chunk being filled;
+ * a full chunk is freed by the garbage collector once none of the flyweights pointing into it are reachable.
+ * The records of reverted events are not reused, since published snapshots can still be reading them. They stay
+ * allocated as long as their chunk holds live records, which is bounded by the number of events reverted by reorgs.
+ */
+public class RecordArena {
+
+    private final int recordSize;
+    private final int recordsPerChunk;
+    private ByteBuffer chunk;
+    private int nextOffset;
+
+    public RecordArena(int recordSize, int recordsPerChunk) {
+        this.recordSize = recordSize;
+        this.recordsPerChunk = recordsPerChunk;
+    }
+
+    /**
+     * Reserves a new record and creates its flyweight. The factory is called while holding the lock of the arena and
+     * should write all the fields of the record.
+     */
+    public synchronized <T> T allocate(RecordFactory<T> factory) {
+        if (chunk == null || nextOffset == chunk.capacity()) {
+            chunk = ByteBuffer.allocateDirect(recordSize * recordsPerChunk);
+            nextOffset = 0;
+        }
+        int offset = nextOffset;
+        nextOffset += recordSize;
+        return factory.create(chunk, offset);
+    }
+
+    public static void putBytes(ByteBuffer chunk, int offset, byte[] bytes, int length) {
+        if (bytes.length != length) {
+            throw new IllegalArgumentException("Expected " + length + " bytes but got " + bytes.length);
+        }
+        for (int i = 0; i < length; i++) {
+            chunk.put(offset + i, bytes[i]);
+        }
+    }
+
+    public static byte[] getBytes(ByteBuffer chunk, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = chunk.get(offset + i);
+        }
+        return bytes;
+    }
+
+    public interface RecordFactory<T> {
+        T create(ByteBuffer chunk, int offset);
+    }
+}
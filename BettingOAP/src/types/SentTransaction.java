@@ -0,0 +1,36 @@
+package types;
+
+import org.aion.harness.kernel.Address;
+import org.aion.harness.main.types.ReceiptHash;
+
+/**
+ * A transaction accepted by the node, waiting for its receipt.
+ * The sender is null if it could not be decoded from the signed transaction.
+ */
+public class SentTransaction {
+    private final ReceiptHash receiptHash;
+    private final Address sender;
+    private final long blockNumber;
+
+    private SentTransaction(ReceiptHash receiptHash, Address sender, long blockNumber) {
+        this.receiptHash = receiptHash;
+        this.sender = sender;
+        this.blockNumber = blockNumber;
+    }
+
+    public static SentTransaction of(ReceiptHash receiptHash, Address sender, long blockNumber) {
+        return new SentTransaction(receiptHash, sender, blockNumber);
+    }
+
+    public ReceiptHash getReceiptHash() {
+        return receiptHash;
+    }
+
+    public Address getSender() {
+        return sender;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+}
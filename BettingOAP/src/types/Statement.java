@@ -2,54 +2,99 @@ package types;
 
 import internal.Assertion;
 import util.Helper;
+import util.SharedIntSet;
 
-import java.util.HashSet;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Set;
 
+/**
+ * Flyweight over a fixed-width record stored off-heap, see RecordArena.
+ * The statement text and the ids of the associated events are kept on the heap.
+ */
 public class Statement {
-    private final Address playerAddress;
-    private final int statementId;
-    private final String answerHash;
+    // record layout: blockNumber, statementId, player address, transaction hash, answer hash length, answer hash, player id
+    // the answer hash is a topic, which is at most 32 bytes long
+    private static final int blockNumberOffset = 0;
+    private static final int statementIdOffset = 8;
+    private static final int addressOffset = 12;
+    private static final int transactionHashOffset = 44;
+    private static final int answerHashLengthOffset = 76;
+    private static final int answerHashOffset = 77;
+    private static final int maxAnswerHashLength = 32;
+    private static final int playerIdOffset = 109;
+    private static final int recordSize = 113;
+
+    private static final RecordArena arena = new RecordArena(recordSize, 1024);
+
+    private final ByteBuffer chunk;
+    private final int offset;
     private final String statement;
-    private final String transactionHash;
-    private final long blockNumber;
 
     // internal ids associated with events.
-    private final Set<Integer> voteEventIds;
+    private final SharedIntSet voteEventIds;
     private int answerEventId;
 
-    private Statement(Address playerAddress, int statementId, String answerHash, String statement, String transactionHash, long blockNumber) {
-        this.playerAddress = playerAddress;
-        this.statementId = statementId;
-        this.answerHash = answerHash;
+    private Statement(ByteBuffer chunk, int offset, String statement) {
+        this.chunk = chunk;
+        this.offset = offset;
         this.statement = statement;
-        this.transactionHash = transactionHash;
-        this.blockNumber = blockNumber;
-        voteEventIds = new HashSet<>();
+        voteEventIds = new SharedIntSet();
         answerEventId = -1;
     }
 
+    private static Statement create(byte[] playerAddress, int statementId, byte[] answerHash, String statement, byte[] transactionHash, long blockNumber) {
+        if (answerHash.length > maxAnswerHashLength) {
+            throw new IllegalArgumentException("Answer hash cannot be longer than " + maxAnswerHashLength + " bytes");
+        }
+        return arena.allocate((chunk, offset) -> {
+            chunk.putLong(offset + blockNumberOffset, blockNumber);
+            chunk.putInt(offset + statementIdOffset, statementId);
+            RecordArena.putBytes(chunk, offset + addressOffset, playerAddress, 32);
+            RecordArena.putBytes(chunk, offset + transactionHashOffset, transactionHash, 32);
+            chunk.put(offset + answerHashLengthOffset, (byte) answerHash.length);
+            RecordArena.putBytes(chunk, offset + answerHashOffset, answerHash, answerHash.length);
+            chunk.putInt(offset + playerIdOffset, -1);
+            return new Statement(chunk, offset, statement);
+        });
+    }
+
+    // used to restore a statement from a checkpoint
+    public static Statement of(Address playerAddress, int statementId, String answerHash, String statement, String transactionHash, long blockNumber) {
+        return create(playerAddress.toBytes(), statementId, Helper.hexStringToBytes(answerHash), statement, Helper.hexStringToBytes(transactionHash), blockNumber);
+    }
+
     public static Statement from(List<byte[]> topics, byte[] data, byte[] transactionHash, long blockNumber) {
         Assertion.assertTopicSize(topics, 4);
-        return new Statement(new Address(topics.get(1)),
+        return create(topics.get(1),
                 Helper.byteArrayToInteger(topics.get(2)),
-                Helper.bytesToHexStringWith0x(topics.get(3)),
+                topics.get(3),
                 new String(data),
-                Helper.bytesToHexStringWith0x(transactionHash),
+                transactionHash,
                 blockNumber);
     }
 
     public Address getPlayerAddress() {
-        return playerAddress;
+        return new Address(RecordArena.getBytes(chunk, offset + addressOffset, 32));
+    }
+
+    /**
+     * @return the id of the registration of the player, or -1 if the statement was not added to the state.
+     */
+    public int getPlayerId() {
+        return chunk.getInt(offset + playerIdOffset);
+    }
+
+    // set once the statement is added to the state, so the player is found without decoding its address
+    public void setPlayerId(int playerId) {
+        chunk.putInt(offset + playerIdOffset, playerId);
     }
 
     public int getStatementId() {
-        return statementId;
+        return chunk.getInt(offset + statementIdOffset);
     }
 
     public String getAnswerHash() {
-        return answerHash;
+        return Helper.bytesToHexStringWith0x(RecordArena.getBytes(chunk, offset + answerHashOffset, chunk.get(offset + answerHashLengthOffset)));
     }
 
     public String getStatementString() {
@@ -57,21 +102,19 @@ public class Statement {
     }
 
     public String getTransactionHash() {
-        return transactionHash;
+        return Helper.bytesToHexStringWith0x(RecordArena.getBytes(chunk, offset + transactionHashOffset, 32));
     }
 
+    // creates a read-only copy of the statement, the record itself is shared
     public Statement(Statement statement){
-        this.playerAddress = statement.playerAddress;
-        this.statementId = statement.statementId;
-        this.answerHash = statement.answerHash;
+        this.chunk = statement.chunk;
+        this.offset = statement.offset;
         this.statement = statement.statement;
-        this.transactionHash = statement.transactionHash;
         this.answerEventId = statement.answerEventId;
-        this.voteEventIds = statement.voteEventIds;
-        this.blockNumber = statement.blockNumber;
+        this.voteEventIds = statement.voteEventIds.readOnlyCopy();
     }
 
-    public Set<Integer> getVoteEventIds() {
+    public SharedIntSet getVoteEventIds() {
         return voteEventIds;
     }
 
@@ -96,18 +139,18 @@ public class Statement {
     }
 
     public long getBlockNumber() {
-        return blockNumber;
+        return chunk.getLong(offset + blockNumberOffset);
     }
 
     @Override
     public String toString() {
         return "Statement{" +
-                "playerAddress=" + playerAddress +
-                ", statementId=" + statementId +
-                ", answerHash='" + answerHash + '\'' +
+                "playerAddress=" + getPlayerAddress() +
+                ", statementId=" + getStatementId() +
+                ", answerHash='" + getAnswerHash() + '\'' +
                 ", statement='" + statement + '\'' +
-                ", transactionHash='" + transactionHash + '\'' +
-                ", blockNumber=" + blockNumber +
+                ", transactionHash='" + getTransactionHash() + '\'' +
+                ", blockNumber=" + getBlockNumber() +
                 ", voteEventIds=" + voteEventIds +
                 ", answerEventId=" + answerEventId +
                 '}';
@@ -3,39 +3,79 @@ package types;
 import internal.Assertion;
 import util.Helper;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
+/**
+ * Flyweight over a fixed-width record stored off-heap, see RecordArena.
+ * Only the guessed answer, which has no fixed size, is kept on the heap.
+ */
 public class Vote {
-    private final Address playerAddress;
-    private final int statementId;
+    // record layout: blockNumber, statementId, player address, transaction hash, player id
+    private static final int blockNumberOffset = 0;
+    private static final int statementIdOffset = 8;
+    private static final int addressOffset = 12;
+    private static final int transactionHashOffset = 44;
+    private static final int playerIdOffset = 76;
+    private static final int recordSize = 80;
+
+    private static final RecordArena arena = new RecordArena(recordSize, 4096);
+
+    private final ByteBuffer chunk;
+    private final int offset;
     private final String guessedAnswer;
-    private final String transactionHash;
-    private final long blockNumber;
 
-    private Vote(Address playerAddress, int statementId, String guessedAnswer, String transactionHash, long blockNumber) {
-        this.playerAddress = playerAddress;
-        this.statementId = statementId;
+    private Vote(ByteBuffer chunk, int offset, String guessedAnswer) {
+        this.chunk = chunk;
+        this.offset = offset;
         this.guessedAnswer = guessedAnswer;
-        this.transactionHash = transactionHash;
-        this.blockNumber = blockNumber;
+    }
+
+    private static Vote create(byte[] playerAddress, int statementId, String guessedAnswer, byte[] transactionHash, long blockNumber) {
+        return arena.allocate((chunk, offset) -> {
+            chunk.putLong(offset + blockNumberOffset, blockNumber);
+            chunk.putInt(offset + statementIdOffset, statementId);
+            RecordArena.putBytes(chunk, offset + addressOffset, playerAddress, 32);
+            RecordArena.putBytes(chunk, offset + transactionHashOffset, transactionHash, 32);
+            chunk.putInt(offset + playerIdOffset, -1);
+            return new Vote(chunk, offset, guessedAnswer);
+        });
+    }
+
+    // used to restore a vote from a checkpoint
+    public static Vote of(Address playerAddress, int statementId, String guessedAnswer, String transactionHash, long blockNumber) {
+        return create(playerAddress.toBytes(), statementId, guessedAnswer.intern(), Helper.hexStringToBytes(transactionHash), blockNumber);
     }
 
     public static Vote from(List<byte[]> topics, byte[] data, byte[] transactionHash, long blockNumber) {
         Assertion.assertTopicSize(topics, 3);
         // topic[0] is Voted
-        return new Vote(new Address(topics.get(1)),
+        // most votes of a statement guess the same few answers, so the answer strings are shared
+        return create(topics.get(1),
                 Helper.byteArrayToInteger(topics.get(2)),
-                new String(data),
-                Helper.bytesToHexStringWith0x(transactionHash),
+                new String(data).intern(),
+                transactionHash,
                 blockNumber);
     }
 
     public Address getPlayerAddress() {
-        return playerAddress;
+        return new Address(RecordArena.getBytes(chunk, offset + addressOffset, 32));
+    }
+
+    /**
+     * @return the id of the registration of the player, or -1 if the vote was not added to the state.
+     */
+    public int getPlayerId() {
+        return chunk.getInt(offset + playerIdOffset);
+    }
+
+    // set once the vote is added to the state, so the player is found without decoding its address
+    public void setPlayerId(int playerId) {
+        chunk.putInt(offset + playerIdOffset, playerId);
     }
 
     public int getStatementId() {
-        return statementId;
+        return chunk.getInt(offset + statementIdOffset);
     }
 
     public String getGuessedAnswer() {
@@ -43,29 +83,28 @@ public class Vote {
     }
 
     public String getTransactionHash() {
-        return transactionHash;
+        return Helper.bytesToHexStringWith0x(RecordArena.getBytes(chunk, offset + transactionHashOffset, 32));
     }
 
     public long getBlockNumber() {
-        return blockNumber;
+        return chunk.getLong(offset + blockNumberOffset);
     }
 
+    // records are not modified once the vote is added to the state, so the copy shares the record
     public Vote(Vote vote){
-        this.playerAddress = vote.playerAddress;
-        this.statementId = vote.statementId;
+        this.chunk = vote.chunk;
+        this.offset = vote.offset;
         this.guessedAnswer = vote.guessedAnswer;
-        this.transactionHash = vote.transactionHash;
-        this.blockNumber = vote.blockNumber;
     }
 
     @Override
     public String toString() {
         return "Vote{" +
-                "playerAddress=" + playerAddress +
-                ", statementId=" + statementId +
+                "playerAddress=" + getPlayerAddress() +
+                ", statementId=" + getStatementId() +
                 ", guessedAnswer='" + guessedAnswer + '\'' +
-                ", transactionHash='" + transactionHash + '\'' +
-                ", blockNumber=" + blockNumber +
+                ", transactionHash='" + getTransactionHash() + '\'' +
+                ", blockNumber=" + getBlockNumber() +
                 '}';
     }
 }
@@ -0,0 +1,190 @@
+package util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.aion.harness.kernel.Address;
+import org.aion.harness.main.tools.RpcMethod;
+import org.aion.harness.main.types.ReceiptHash;
+import org.aion.harness.main.types.TransactionReceipt;
+import org.aion.harness.result.RpcResult;
+import util.NodeConnection.BatchResponse;
+import util.NodeConnection.ResultConverter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Non-blocking variant of NodeConnection, used for the calls made while serving a request and by the workers that
+ * pipeline their calls to the node.
+ * Calls return immediately with a future that is completed once the node responds, so a single thread can have several
+ * requests in flight. All requests go through one HttpClient, which keeps the connections to the node alive between calls.
+ * At most maxInFlight requests are sent at the same time, the others are queued until a response is received.
+ */
+public class AsyncNodeConnection {
+
+    private static final Duration connectTimeout = Duration.ofSeconds(10);
+    private static final Duration requestTimeout = Duration.ofSeconds(60);
+
+    private final HttpClient httpClient;
+    private final URI endpoint;
+    private final Semaphore inFlight;
+    private final Queue<Runnable> pending;
+
+    public AsyncNodeConnection(String ip, String port, int maxInFlight) {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .build();
+        this.endpoint = URI.create("http://" + ip + ":" + port);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.pending = new ConcurrentLinkedQueue<>();
+    }
+
+    public CompletableFuture<RpcResult<BigInteger>> getNonce(Address address) {
+        if (address == null) {
+            throw new IllegalArgumentException("Cannot get nonce of a null address.");
+        }
+        return call(RpcMethod.GET_NONCE.getMethod(), params(Helper.bytesToHexStringWith0x(address.getAddressBytes())), NodeConnection::toNonce);
+    }
+
+    /**
+     * Same as NodeConnection.getLogsInRange, the future fails if the call was not successful so it can be told apart from
+     * a range without any logs.
+     */
+    public CompletableFuture<List<Log>> getLogsInRange(long fromBlock, long toBlock, Set<byte[]> filterTopics, Address contractAddress) {
+        return send(NodeConnection.getLogsPayload(fromBlock, String.valueOf(toBlock), filterTopics)).thenApply(output -> {
+            try {
+                return LogBuilder.readLogsResponse(new StringReader(output), contractAddress);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /*
+     * Batch methods, see NodeConnection. The results are in the same order as the input.
+     */
+
+    public CompletableFuture<List<RpcResult<ReceiptHash>>> sendSignedTransactions(List<byte[]> signedTransactions) {
+        return callBatch(RpcMethod.SEND_RAW_TRANSACTION.getMethod(), NodeConnection.signedTransactionParams(signedTransactions), NodeConnection::toReceiptHash);
+    }
+
+    public CompletableFuture<List<RpcResult<TransactionReceipt>>> getTransactionReceipts(List<ReceiptHash> receiptHashes) {
+        return callBatch(RpcMethod.GET_TRANSACTION_RECEIPT.getMethod(), NodeConnection.receiptHashParams(receiptHashes), NodeConnection::toTransactionReceipt);
+    }
+
+    public CompletableFuture<List<RpcResult<BigInteger>>> getPendingNonces(List<Address> addresses) {
+        return callBatch(RpcMethod.GET_NONCE.getMethod(), NodeConnection.pendingNonceParams(addresses), NodeConnection::toNonce);
+    }
+
+    private <T> CompletableFuture<List<RpcResult<T>>> callBatch(String method, List<JsonArray> params, ResultConverter<T> converter) {
+        BatchResponse response = new BatchResponse(params.size());
+        if (params.isEmpty()) {
+            return CompletableFuture.completedFuture(response.getResults(converter));
+        }
+        return send(NodeConnection.batchPayload(method, params)).handle((output, t) -> {
+            if (t != null) {
+                response.fail(t.toString());
+            } else {
+                response.read(output);
+            }
+            return response.getResults(converter);
+        });
+    }
+
+    private <T> CompletableFuture<RpcResult<T>> call(String method, JsonArray params, ResultConverter<T> converter) {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("jsonrpc", "2.0");
+        payload.addProperty("method", method);
+        payload.add("params", params);
+        payload.addProperty("id", 1);
+
+        long timeOfCall = System.nanoTime();
+        return send(payload.toString()).handle((output, t) -> {
+            if (t != null) {
+                return RpcResult.unsuccessful(t.toString());
+            }
+            try {
+                JsonObject response = new JsonParser().parse(output).getAsJsonObject();
+                JsonElement error = response.get("error");
+                if (error != null && !error.isJsonNull()) {
+                    return RpcResult.unsuccessful(error.toString());
+                }
+                JsonElement result = response.get("result");
+                return converter.convert(result == null ? JsonNull.INSTANCE : result, timeOfCall);
+            } catch (RuntimeException e) {
+                return RpcResult.unsuccessful(e.toString());
+            }
+        });
+    }
+
+    private CompletableFuture<String> send(String payload) {
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload))
+                .build();
+
+        CompletableFuture<String> response = new CompletableFuture<>();
+        pending.add(() -> {
+            CompletableFuture<HttpResponse<String>> call;
+            try {
+                call = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            // the permit is returned however the call ends, and the queue is drained again so no request is left waiting
+            call.whenComplete((httpResponse, t) -> {
+                inFlight.release();
+                sendPending();
+                if (t != null) {
+                    response.completeExceptionally(t);
+                } else {
+                    response.complete(httpResponse.body());
+                }
+            });
+        });
+        sendPending();
+        return response;
+    }
+
+    // sends queued requests while there is room in the in-flight window
+    private void sendPending() {
+        while (!pending.isEmpty()) {
+            if (!inFlight.tryAcquire()) {
+                // the request will be sent when one of the calls in flight completes
+                return;
+            }
+            Runnable next = pending.poll();
+            if (next == null) {
+                // another thread took the request, check again since a request queued while the permit was held could
+                // not get one
+                inFlight.release();
+                continue;
+            }
+            next.run();
+        }
+    }
+
+    private static JsonArray params(String param) {
+        JsonArray params = new JsonArray();
+        params.add(param);
+        return params;
+    }
+}
@@ -0,0 +1,160 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Hash map from int keys to non-null values, which stores the keys without boxing them.
+ * Uses open addressing with linear probing. A null value marks a free slot in the table.
+ */
+public class IntMap<V> {
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public IntMap() {
+        this(8);
+    }
+
+    public IntMap(int expectedSize) {
+        int capacity = IntSet.tableCapacity(expectedSize);
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int pos = slot(key);
+        while (values[pos] != null) {
+            if (keys[pos] == key) {
+                return (V) values[pos];
+            }
+            pos = (pos + 1) & mask;
+        }
+        return null;
+    }
+
+    public V getOrDefault(int key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value of the key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("IntMap does not accept null values");
+        }
+        int pos = slot(key);
+        while (values[pos] != null) {
+            if (keys[pos] == key) {
+                V previous = (V) values[pos];
+                values[pos] = value;
+                return previous;
+            }
+            pos = (pos + 1) & mask;
+        }
+        keys[pos] = key;
+        values[pos] = value;
+        size++;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value the key is mapped to, creating it first if the key is not in the map.
+     */
+    public V computeIfAbsent(int key, IntFunction<V> factory) {
+        V value = get(key);
+        if (value == null) {
+            value = factory.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the removed value, or null if the key was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int pos = slot(key);
+        while (values[pos] != null) {
+            if (keys[pos] == key) {
+                V previous = (V) values[pos];
+                size--;
+                shiftEntries(pos);
+                return previous;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // same as IntSet.shiftValues, moving the values along with the keys
+    private void shiftEntries(int pos) {
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & mask;
+            while (true) {
+                if (values[pos] == null) {
+                    values[last] = null;
+                    return;
+                }
+                int slot = slot(keys[pos]);
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = keys[pos];
+            values[last] = values[pos];
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int pos = slot(oldKeys[i]);
+                while (values[pos] != null) {
+                    pos = (pos + 1) & mask;
+                }
+                keys[pos] = oldKeys[i];
+                values[pos] = oldValues[i];
+            }
+        }
+    }
+}
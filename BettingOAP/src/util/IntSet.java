@@ -0,0 +1,219 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hash set of ints which stores the values without boxing them.
+ * Uses open addressing with linear probing. Zero marks a free slot in the table, so zero itself is tracked separately.
+ */
+public class IntSet {
+    private static final IntSet EMPTY = new IntSet(1).readOnlyCopy();
+
+    private int[] table;
+    private int mask;
+    // number of values in the table, not counting zero
+    private int tableSize;
+    private boolean containsZero;
+    private boolean readOnly;
+
+    public IntSet() {
+        this(8);
+    }
+
+    public IntSet(int expectedSize) {
+        int capacity = tableCapacity(expectedSize);
+        table = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private IntSet(IntSet other, boolean readOnly) {
+        this.table = other.table.clone();
+        this.mask = other.mask;
+        this.tableSize = other.tableSize;
+        this.containsZero = other.containsZero;
+        this.readOnly = readOnly;
+    }
+
+    public static IntSet empty() {
+        return EMPTY;
+    }
+
+    public IntSet copy() {
+        return new IntSet(this, false);
+    }
+
+    /**
+     * @return a copy of this set which throws UnsupportedOperationException when it is modified.
+     */
+    public IntSet readOnlyCopy() {
+        return new IntSet(this, true);
+    }
+
+    public boolean add(int value) {
+        checkWritable();
+        if (value == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+        int pos = slot(value);
+        while (table[pos] != 0) {
+            if (table[pos] == value) {
+                return false;
+            }
+            pos = (pos + 1) & mask;
+        }
+        table[pos] = value;
+        tableSize++;
+        if (tableSize * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    public void addAll(int[] values) {
+        for (int value : values) {
+            add(value);
+        }
+    }
+
+    public boolean remove(int value) {
+        checkWritable();
+        if (value == 0) {
+            boolean removed = containsZero;
+            containsZero = false;
+            return removed;
+        }
+        int pos = slot(value);
+        while (table[pos] != 0) {
+            if (table[pos] == value) {
+                tableSize--;
+                shiftValues(pos);
+                return true;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean contains(int value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int pos = slot(value);
+        while (table[pos] != 0) {
+            if (table[pos] == value) {
+                return true;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return tableSize + (containsZero ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        checkWritable();
+        Arrays.fill(table, 0);
+        tableSize = 0;
+        containsZero = false;
+    }
+
+    public void forEach(IntConsumer action) {
+        if (containsZero) {
+            action.accept(0);
+        }
+        for (int value : table) {
+            if (value != 0) {
+                action.accept(value);
+            }
+        }
+    }
+
+    /**
+     * @return the values in ascending order.
+     */
+    public int[] toArray() {
+        int[] values = new int[size()];
+        int i = 0;
+        if (containsZero) {
+            values[i++] = 0;
+        }
+        for (int value : table) {
+            if (value != 0) {
+                values[i++] = value;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private int slot(int value) {
+        int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // fills the slot freed at pos with the next values of its probe sequence, so lookups do not stop early
+    private void shiftValues(int pos) {
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & mask;
+            int value;
+            while (true) {
+                value = table[pos];
+                if (value == 0) {
+                    table[last] = 0;
+                    return;
+                }
+                int slot = slot(value);
+                // the value can move to last if last is between its slot and its current position
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            table[last] = value;
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int value : old) {
+            if (value != 0) {
+                int pos = slot(value);
+                while (table[pos] != 0) {
+                    pos = (pos + 1) & mask;
+                }
+                table[pos] = value;
+            }
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Set is read-only");
+        }
+    }
+
+    static int tableCapacity(int expectedSize) {
+        int capacity = 2;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
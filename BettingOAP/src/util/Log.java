@@ -18,11 +18,17 @@ public class Log {
 
     public Log(Address address, byte[] data, List<byte[]> topics,
                long blockNumber, int transactionIndex, int logIndex, byte[] blockHash, byte[] transactionHash) {
+        this(address, data, topics, blockNumber, transactionIndex, logIndex, blockHash, transactionHash, true);
+    }
+
+    // arrays decoded by the log parser are not referenced anywhere else, so they don't need to be copied
+    Log(Address address, byte[] data, List<byte[]> topics,
+        long blockNumber, int transactionIndex, int logIndex, byte[] blockHash, byte[] transactionHash, boolean copyArrays) {
         this.address = address;
-        this.data = Arrays.copyOf(data, data.length);
-        this.topics = copyOfBytesList(topics);
+        this.data = copyArrays ? Arrays.copyOf(data, data.length) : data;
+        this.topics = copyArrays ? copyOfBytesList(topics) : topics;
         this.blockNumber = blockNumber;
-        this.blockHash = Arrays.copyOf(blockHash, blockHash.length);
+        this.blockHash = copyArrays ? Arrays.copyOf(blockHash, blockHash.length) : blockHash;
         this.transactionIndex = transactionIndex;
         this.logIndex = logIndex;
         this.transactionHash = transactionHash;
@@ -3,10 +3,15 @@ package util;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.aion.harness.kernel.Address;
 import org.aion.harness.main.tools.JsonStringParser;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -107,6 +112,114 @@ public class LogBuilder {
                 .build();
     }
 
+    /**
+     * Decodes the logs of an eth_getLogs response in a single pass over the response body.
+     * Each log is read into its raw fields, and the hex values are only decoded for the logs emitted by contractAddress.
+     * Returns an empty list if the response has no result, and throws an IOException if the node returned an error.
+     */
+    public static List<Log> readLogsResponse(Reader response, Address contractAddress) throws IOException {
+        List<Log> logs = new ArrayList<>();
+        byte[] contractAddressBytes = contractAddress.getAddressBytes();
+
+        JsonReader reader = new JsonReader(response);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("error") && reader.peek() != JsonToken.NULL) {
+                throw new IOException("The node returned an error: " + new JsonParser().parse(reader));
+            } else if (name.equals("result") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Log log = readLog(reader, contractAddress, contractAddressBytes);
+                    if (log != null) {
+                        logs.add(log);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return logs;
+    }
+
+    // returns null if the log was not emitted by the contract
+    private static Log readLog(JsonReader reader, Address contractAddress, byte[] contractAddressBytes) throws IOException {
+        String address = null;
+        String data = null;
+        List<String> topics = Collections.emptyList();
+        String blockNumber = null;
+        String blockHash = null;
+        String transactionIndex = null;
+        String logIndex = null;
+        String transactionHash = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "address":
+                    address = reader.nextString();
+                    break;
+                case "data":
+                    data = reader.nextString();
+                    break;
+                case "topics":
+                    topics = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        topics.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                case "blockNumber":
+                    blockNumber = reader.nextString();
+                    break;
+                case "blockHash":
+                    blockHash = reader.nextString();
+                    break;
+                case "transactionIndex":
+                    transactionIndex = reader.nextString();
+                    break;
+                case "logIndex":
+                    logIndex = reader.nextString();
+                    break;
+                case "transactionHash":
+                    transactionHash = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (address == null || !Arrays.equals(contractAddressBytes, Helper.hexStringToBytes(address))) {
+            return null;
+        }
+        if (blockNumber == null || transactionIndex == null || logIndex == null || blockHash == null) {
+            throw new NullPointerException("Cannot build Log with missing fields!");
+        }
+
+        List<byte[]> topicBytes = new ArrayList<>(topics.size());
+        for (String topic : topics) {
+            topicBytes.add(Helper.hexStringToBytes(topic));
+        }
+        return new Log(contractAddress,
+                parseData(data),
+                topicBytes,
+                Helper.hexStringToLong(blockNumber),
+                (int) Helper.hexStringToLong(transactionIndex),
+                (int) Helper.hexStringToLong(logIndex),
+                Helper.hexStringToBytes(blockHash),
+                transactionHash == null ? null : Helper.hexStringToBytes(transactionHash),
+                false);
+    }
+
     public static List<byte[]> parseJsonTopics(String jsonArrayOfTopics) {
         JsonArray jsonArray = (JsonArray) new JsonParser().parse(jsonArrayOfTopics);
 
@@ -1,15 +1,29 @@
 package util;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import org.aion.harness.main.tools.*;
 import org.aion.harness.main.types.ReceiptHash;
 import org.aion.harness.main.types.TransactionReceipt;
 import org.aion.harness.main.types.internal.TransactionReceiptBuilder;
 import org.aion.harness.result.RpcResult;
+import types.BlockHeader;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -18,10 +32,15 @@ import org.apache.commons.codec.DecoderException;
 
 public class NodeConnection {
 
+    private static final int connectTimeoutMillis = 10_000;
+    private static final int readTimeoutMillis = 60_000;
+
     private final RpcCaller rpc;
+    private final String endpoint;
 
     public NodeConnection(String ip, String port) {
         this.rpc = new RpcCaller(ip, port);
+        this.endpoint = "http://" + ip + ":" + port;
     }
 
     // taken from node-test-harness
@@ -88,26 +107,37 @@ public class NodeConnection {
         }
     }
 
+    /**
+     * The response is decoded while it is read from the connection, only the logs of contractAddress are built.
+     * Returns an empty list if the call was not successful.
+     */
     public List<Log> getLogs(long fromBlock, String toBlock, Set<byte[]> filterTopics, Address contractAddress) throws InterruptedException {
-        String payload = getLogsPayload(fromBlock, toBlock, filterTopics);
-        InternalRpcResult internalResult = rpc.call(payload, false);
-        ArrayList<Log> logArray = new ArrayList<>();
+        try {
+            return readLogs(getLogsPayload(fromBlock, toBlock, filterTopics), contractAddress);
+        } catch (IOException | RuntimeException e) {
+            return new ArrayList<>();
+        }
+    }
 
-        if (internalResult.success) {
-            JsonStringParser outputParser = new JsonStringParser(internalResult.output);
-            String result = outputParser.attributeToString("result");
+    /**
+     * Retrieves the logs of a bounded block range. Unlike getLogs, an unsuccessful call throws an IOException, so it can be
+     * told apart from a range without any logs.
+     */
+    public List<Log> getLogsInRange(long fromBlock, long toBlock, Set<byte[]> filterTopics, Address contractAddress) throws IOException {
+        try {
+            return readLogs(getLogsPayload(fromBlock, String.valueOf(toBlock), filterTopics), contractAddress);
+        } catch (RuntimeException e) {
+            throw new IOException(e);
+        }
+    }
 
-            if (result != null) {
-                JsonArray retrievedLogs = (JsonArray) new JsonParser().parse(result);
-                for (int i = 0; i < retrievedLogs.size(); i++) {
-                    Log log = new LogBuilder().buildFromJsonString(retrievedLogs.get(i).toString());
-                    if (contractAddress.equals(log.address)) {
-                        logArray.add(log);
-                    }
-                }
-            }
+    private List<Log> readLogs(String payload, Address contractAddress) throws IOException {
+        HttpURLConnection connection = send(payload);
+        try (Reader in = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+            return LogBuilder.readLogsResponse(in, contractAddress);
+        } finally {
+            connection.disconnect();
         }
-        return logArray;
     }
 
     // taken from node-test-harness
@@ -132,7 +162,259 @@ public class NodeConnection {
         }
     }
 
-    private String getLogsPayload(long fromBlock, String toBlock, Set<byte[]> topics) {
+    /*
+     * Batch methods
+     * Each method sends all the calls in a single JSON-RPC batch request, and returns the results in the same order as
+     * the input. A result is unsuccessful if the node did not return a response for the corresponding call.
+     */
+
+    public List<RpcResult<ReceiptHash>> sendSignedTransactions(List<byte[]> signedTransactions) {
+        BatchResponse response = callBatchWithParams(RpcMethod.SEND_RAW_TRANSACTION.getMethod(), signedTransactionParams(signedTransactions));
+        return response.getResults(NodeConnection::toReceiptHash);
+    }
+
+    public List<RpcResult<TransactionReceipt>> getTransactionReceipts(List<ReceiptHash> receiptHashes) {
+        BatchResponse response = callBatchWithParams(RpcMethod.GET_TRANSACTION_RECEIPT.getMethod(), receiptHashParams(receiptHashes));
+        return response.getResults(NodeConnection::toTransactionReceipt);
+    }
+
+    /**
+     * @return the nonces of the accounts including their transactions still pending in the node, which is the next
+     * nonce each account can use.
+     */
+    public List<RpcResult<BigInteger>> getPendingNonces(List<Address> addresses) {
+        BatchResponse response = callBatchWithParams(RpcMethod.GET_NONCE.getMethod(), pendingNonceParams(addresses));
+        return response.getResults(NodeConnection::toNonce);
+    }
+
+    public List<RpcResult<BlockHeader>> getBlockHeaders(List<Long> blockNumbers) {
+        List<JsonArray> params = new ArrayList<>();
+        for (long blockNumber : blockNumbers) {
+            JsonArray callParams = new JsonArray();
+            callParams.add("0x" + Long.toHexString(blockNumber));
+            // transactions are not needed
+            callParams.add(false);
+            params.add(callParams);
+        }
+        BatchResponse response = callBatchWithParams("eth_getBlockByNumber", params);
+        return response.getResults(NodeConnection::toBlockHeader);
+    }
+
+    /*
+     * Conversion of the "result" field of a JSON-RPC response, shared with AsyncNodeConnection
+     */
+
+    static RpcResult<ReceiptHash> toReceiptHash(JsonElement result, long timeOfCall) {
+        if (result.isJsonNull()) {
+            return RpcResult.unsuccessful("No receipt hash was returned, transaction was likely rejected.");
+        }
+        return RpcResult.successful(new ReceiptHash(Helper.hexStringToBytes(result.getAsString())), timeOfCall, TimeUnit.NANOSECONDS);
+    }
+
+    static RpcResult<TransactionReceipt> toTransactionReceipt(JsonElement result, long timeOfCall) {
+        if (result.isJsonNull()) {
+            return RpcResult.unsuccessful("No transaction receipt was returned, the transaction may still be processing.");
+        }
+        try {
+            TransactionReceipt receipt = new TransactionReceiptBuilder().buildFromJsonString(result.toString());
+            return RpcResult.successful(receipt, timeOfCall, TimeUnit.NANOSECONDS);
+        } catch (DecoderException e) {
+            return RpcResult.unsuccessful(e.toString());
+        }
+    }
+
+    static RpcResult<BigInteger> toNonce(JsonElement result, long timeOfCall) {
+        if (result.isJsonNull()) {
+            return RpcResult.unsuccessful("No nonce was returned.");
+        }
+        String nonce = result.getAsString();
+        if (nonce.startsWith("0x")) {
+            nonce = nonce.substring(2);
+        }
+        return RpcResult.successful(new BigInteger(nonce, 16), timeOfCall, TimeUnit.NANOSECONDS);
+    }
+
+    static RpcResult<BlockHeader> toBlockHeader(JsonElement result, long timeOfCall) {
+        if (result.isJsonNull()) {
+            return RpcResult.unsuccessful("No block was returned.");
+        }
+        JsonObject block = result.getAsJsonObject();
+        return RpcResult.successful(BlockHeader.of(Helper.hexStringToLong(block.get("number").getAsString()),
+                Helper.hexStringToBytes(block.get("hash").getAsString()),
+                Helper.hexStringToBytes(block.get("parentHash").getAsString())),
+                timeOfCall,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Batch requests, the payload and response handling are shared with AsyncNodeConnection
+     */
+
+    static List<JsonArray> signedTransactionParams(List<byte[]> signedTransactions) {
+        List<JsonArray> params = new ArrayList<>();
+        for (byte[] signedTransactionBytes : signedTransactions) {
+            JsonArray p = new JsonArray();
+            p.add(Helper.bytesToHexStringWith0x(signedTransactionBytes));
+            params.add(p);
+        }
+        return params;
+    }
+
+    static List<JsonArray> receiptHashParams(List<ReceiptHash> receiptHashes) {
+        List<JsonArray> params = new ArrayList<>();
+        for (ReceiptHash receiptHash : receiptHashes) {
+            JsonArray p = new JsonArray();
+            p.add(Helper.bytesToHexStringWith0x(receiptHash.getHash()));
+            params.add(p);
+        }
+        return params;
+    }
+
+    static List<JsonArray> pendingNonceParams(List<Address> addresses) {
+        List<JsonArray> params = new ArrayList<>();
+        for (Address address : addresses) {
+            JsonArray p = new JsonArray();
+            p.add(Helper.bytesToHexStringWith0x(address.getAddressBytes()));
+            p.add("pending");
+            params.add(p);
+        }
+        return params;
+    }
+
+    private BatchResponse callBatchWithParams(String method, List<JsonArray> params) {
+        BatchResponse response = new BatchResponse(params.size());
+        if (params.isEmpty()) {
+            return response;
+        }
+        try {
+            response.read(post(batchPayload(method, params)));
+        } catch (IOException e) {
+            response.fail(e.toString());
+        }
+        return response;
+    }
+
+    // the id of each call is its index in the batch, which is used to match the responses since their order is not guaranteed
+    static String batchPayload(String method, List<JsonArray> params) {
+        JsonArray request = new JsonArray();
+        for (int i = 0; i < params.size(); i++) {
+            JsonObject call = new JsonObject();
+            call.addProperty("jsonrpc", "2.0");
+            call.addProperty("method", method);
+            call.add("params", params.get(i));
+            call.addProperty("id", i);
+            request.add(call);
+        }
+        return request.toString();
+    }
+
+    // returns -1 if the element is not a response to one of the calls of the batch
+    private static int getBatchIndex(JsonElement element, int batchSize) {
+        if (!element.isJsonObject()) {
+            return -1;
+        }
+        JsonElement id = element.getAsJsonObject().get("id");
+        if (id == null || !id.isJsonPrimitive() || !id.getAsJsonPrimitive().isNumber()) {
+            return -1;
+        }
+        int index;
+        try {
+            index = id.getAsBigDecimal().intValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            return -1;
+        }
+        return index >= 0 && index < batchSize ? index : -1;
+    }
+
+    private String post(String payload) throws IOException {
+        HttpURLConnection connection = send(payload);
+        try (InputStream in = connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // writes the payload, the response is read from the returned connection
+    private HttpURLConnection send(String payload) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(endpoint).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        return connection;
+    }
+
+    static class BatchResponse {
+        private final long timeOfCall;
+        private final JsonElement[] results;
+        private final String[] errors;
+
+        BatchResponse(int size) {
+            this.timeOfCall = System.nanoTime();
+            this.results = new JsonElement[size];
+            this.errors = new String[size];
+            Arrays.fill(errors, "No response was returned for the request.");
+        }
+
+        void read(String body) {
+            JsonElement output;
+            try {
+                output = new JsonParser().parse(body);
+            } catch (JsonParseException e) {
+                fail(e.toString());
+                return;
+            }
+
+            if (output.isJsonArray()) {
+                for (JsonElement element : output.getAsJsonArray()) {
+                    // responses that cannot be matched to a call are ignored, the call is then reported as not answered
+                    int index = getBatchIndex(element, results.length);
+                    if (index < 0) {
+                        continue;
+                    }
+                    JsonObject result = element.getAsJsonObject();
+                    JsonElement error = result.get("error");
+                    if (error != null && !error.isJsonNull()) {
+                        errors[index] = error.toString();
+                    } else {
+                        errors[index] = null;
+                        results[index] = result.has("result") ? result.get("result") : JsonNull.INSTANCE;
+                    }
+                }
+            } else {
+                // the node rejected the whole batch
+                fail(output.toString());
+            }
+        }
+
+        void fail(String error) {
+            Arrays.fill(errors, error);
+        }
+
+        <T> List<RpcResult<T>> getResults(ResultConverter<T> converter) {
+            List<RpcResult<T>> converted = new ArrayList<>();
+            for (int i = 0; i < results.length; i++) {
+                converted.add(errors[i] != null
+                        ? RpcResult.unsuccessful(errors[i])
+                        : converter.convert(results[i], timeOfCall));
+            }
+            return converted;
+        }
+    }
+
+    interface ResultConverter<T> {
+        RpcResult<T> convert(JsonElement result, long timeOfCall);
+    }
+
+    static String getLogsPayload(long fromBlock, String toBlock, Set<byte[]> topics) {
         String payloadStart = "{\"jsonrpc\":\"2.0\",\"method\":\"";
         String methodName = "eth_getLogs";
         String paramsStart = "\",\"params\":[{";
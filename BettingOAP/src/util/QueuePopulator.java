@@ -1,21 +1,168 @@
 package util;
 
-import internal.CriticalException;
+import org.aion.harness.kernel.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import state.TransactionListener;
+import types.Json.QueueMetrics;
+import types.TransactionDetails;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admits raw transactions to the queue of the TransactionSender without blocking the request threads.
+ * When the queue is full the transaction is rejected, and the client is told when to retry. The estimate is the time
+ * needed to send the queued transactions, at the rate they have been taken from the queue recently.
+ * The hashes of the admitted transactions are remembered for up to recentTransactionTtlMillis, so a client retrying a
+ * transaction that is queued, being sent or waiting for its receipt does not queue it again. A transaction that could
+ * not be sealed is forgotten as soon as it is reported, so it can be retried.
+ */
+public class QueuePopulator implements TransactionListener {
+    private static final long minRateSampleIntervalMillis = 1_000;
+    private static final long maxRateSampleIntervalMillis = 10_000;
+    private static final long rejectionLogIntervalMillis = 10_000;
+    private static final long minRetryAfterSeconds = 1;
+    private static final long maxRetryAfterSeconds = 60;
 
-public class QueuePopulator {
     private LinkedBlockingDeque<byte[]> rawTransactions;
+    private final int maxRecentTransactions;
+    private final long recentTransactionTtlMillis;
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    // all the following fields are guarded by this
+    // admission time of the recent transactions by hash, in admission order
+    private final LinkedHashMap<String, Long> recentTransactions = new LinkedHashMap<>();
+    // the send rate is sampled at most once per second while transactions are offered
+    private long lastSampleMillis;
+    private long lastSampleTakenCount;
+    private double sendRatePerSecond = -1;
+    private long lastRejectionLogMillis;
+    private long lastLoggedRejectedCount;
 
-    public QueuePopulator(LinkedBlockingDeque<byte[]> rawTransactions) {
+    private final Logger logger = LoggerFactory.getLogger("QueuePopulator");
+
+    public QueuePopulator(LinkedBlockingDeque<byte[]> rawTransactions, int maxRecentTransactions, long recentTransactionTtlMillis) {
         this.rawTransactions = rawTransactions;
+        this.maxRecentTransactions = maxRecentTransactions;
+        this.recentTransactionTtlMillis = recentTransactionTtlMillis;
+        this.lastSampleMillis = System.currentTimeMillis();
+        this.lastRejectionLogMillis = lastSampleMillis;
+    }
+
+    /**
+     * @return REJECTED if the queue is full, or DUPLICATE if the same transaction was admitted recently. In both cases
+     * the transaction was not queued.
+     */
+    public synchronized Admission offerRawTransaction(byte[] transactionHash, byte[] transaction) {
+        long now = System.currentTimeMillis();
+        String hash = Helper.bytesToHexString(transactionHash);
+        evictRecentTransactions(now);
+        if (recentTransactions.containsKey(hash)) {
+            duplicateCount.incrementAndGet();
+            return Admission.DUPLICATE;
+        }
+        if (!rawTransactions.offer(transaction)) {
+            rejectedCount.incrementAndGet();
+            return Admission.REJECTED;
+        }
+        recentTransactions.put(hash, now);
+        admittedCount.incrementAndGet();
+        updateSendRate(now, rawTransactions.size());
+        return Admission.ADMITTED;
+    }
+
+    /**
+     * @return the number of seconds after which a rejected transaction is likely to be admitted.
+     */
+    public synchronized long getRetryAfterSeconds() {
+        long now = System.currentTimeMillis();
+        int queued = rawTransactions.size();
+        updateSendRate(now, queued);
+        logRejections(now, queued);
+
+        if (sendRatePerSecond <= 0) {
+            return maxRetryAfterSeconds;
+        }
+        long seconds = (long) Math.ceil(queued / sendRatePerSecond);
+        return Math.max(minRetryAfterSeconds, Math.min(seconds, maxRetryAfterSeconds));
     }
 
-    public void putRawTransaction(byte[] transaction) {
-        try {
-            rawTransactions.put(transaction);
-        } catch (InterruptedException e) {
-            throw new CriticalException(e.getMessage());
+    @Override
+    public void onTransactionUpdated(Address sender, TransactionDetails transactionDetails) {
+        if (transactionDetails.getResult() == TransactionDetails.RESULT_TYPE.NOT_SEALED) {
+            synchronized (this) {
+                recentTransactions.remove(transactionDetails.getTransactionHash());
+            }
         }
     }
+
+    /**
+     * @return the counters of the offered transactions, and the number of transactions currently queued.
+     */
+    public QueueMetrics getMetrics() {
+        return new QueueMetrics(admittedCount.get(), rejectedCount.get(), duplicateCount.get(), rawTransactions.size());
+    }
+
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    // entries are in admission order, so the expired ones are at the head
+    private void evictRecentTransactions(long now) {
+        Iterator<Map.Entry<String, Long>> iterator = recentTransactions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> oldest = iterator.next();
+            if (recentTransactions.size() < maxRecentTransactions && now - oldest.getValue() <= recentTransactionTtlMillis) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    // the transactions taken by the sender are the admitted ones which are no longer in the queue
+    private void updateSendRate(long now, int queued) {
+        long elapsed = now - lastSampleMillis;
+        if (elapsed < minRateSampleIntervalMillis) {
+            return;
+        }
+        long takenCount = admittedCount.get() - queued;
+        // a sample spanning an idle period would understate the rate, so it only starts a new sample
+        if (elapsed <= maxRateSampleIntervalMillis) {
+            double rate = (takenCount - lastSampleTakenCount) * 1000.0 / elapsed;
+            // recent samples weigh more, so the estimate follows changes of the send rate
+            sendRatePerSecond = sendRatePerSecond < 0 ? rate : (sendRatePerSecond + rate) / 2;
+        }
+        lastSampleMillis = now;
+        lastSampleTakenCount = takenCount;
+    }
+
+    private void logRejections(long now, int queued) {
+        if (now - lastRejectionLogMillis < rejectionLogIntervalMillis) {
+            return;
+        }
+        long rejected = rejectedCount.get();
+        logger.warn("Rejected " + (rejected - lastLoggedRejectedCount) + " transactions in the last " + (now - lastRejectionLogMillis) / 1000
+                + "s, " + rejected + " in total. Queued: " + queued + ", send rate: " + String.format("%.1f", Math.max(sendRatePerSecond, 0)) + "/s"
+                + ", duplicates: " + duplicateCount.get());
+        lastRejectionLogMillis = now;
+        lastLoggedRejectedCount = rejected;
+    }
+
+    public enum Admission {
+        ADMITTED, DUPLICATE, REJECTED
+    }
 }
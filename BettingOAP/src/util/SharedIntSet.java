@@ -0,0 +1,213 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hash set of ints whose read-only copies share the table with the set, used for the sets published with every
+ * snapshot. The table is split into chunks of CHUNK_SIZE slots, and a chunk shared with a copy is only copied when the
+ * set modifies it, so a copy costs the chunk index plus the chunks changed since the previous copy.
+ * Uses open addressing with linear probing like IntSet.
+ */
+public class SharedIntSet {
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private int[][] chunks;
+    // chunks which are not shared with a copy and can be modified in place, null if this set is read-only
+    private boolean[] owned;
+    private int mask;
+    // number of values in the table, not counting zero
+    private int tableSize;
+    private boolean containsZero;
+
+    public SharedIntSet() {
+        allocate(IntSet.tableCapacity(8));
+    }
+
+    private SharedIntSet(SharedIntSet other) {
+        this.chunks = other.chunks.clone();
+        this.mask = other.mask;
+        this.tableSize = other.tableSize;
+        this.containsZero = other.containsZero;
+    }
+
+    /**
+     * @return a copy of this set which throws UnsupportedOperationException when it is modified.
+     */
+    public SharedIntSet readOnlyCopy() {
+        if (owned == null) {
+            return this;
+        }
+        SharedIntSet copy = new SharedIntSet(this);
+        Arrays.fill(owned, false);
+        return copy;
+    }
+
+    public boolean add(int value) {
+        checkWritable();
+        if (value == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+        int pos = slot(value);
+        int current;
+        while ((current = get(pos)) != 0) {
+            if (current == value) {
+                return false;
+            }
+            pos = (pos + 1) & mask;
+        }
+        set(pos, value);
+        tableSize++;
+        if (tableSize * 2 > mask + 1) {
+            rehash((mask + 1) * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(int value) {
+        checkWritable();
+        if (value == 0) {
+            boolean removed = containsZero;
+            containsZero = false;
+            return removed;
+        }
+        int pos = slot(value);
+        int current;
+        while ((current = get(pos)) != 0) {
+            if (current == value) {
+                tableSize--;
+                shiftValues(pos);
+                return true;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean contains(int value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int pos = slot(value);
+        int current;
+        while ((current = get(pos)) != 0) {
+            if (current == value) {
+                return true;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return tableSize + (containsZero ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void forEach(IntConsumer action) {
+        if (containsZero) {
+            action.accept(0);
+        }
+        for (int[] chunk : chunks) {
+            for (int value : chunk) {
+                if (value != 0) {
+                    action.accept(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the values in ascending order.
+     */
+    public int[] toArray() {
+        int[] values = new int[size()];
+        int[] i = {0};
+        forEach(value -> values[i[0]++] = value);
+        Arrays.sort(values);
+        return values;
+    }
+
+    private int get(int pos) {
+        return chunks[pos >>> CHUNK_BITS][pos & CHUNK_MASK];
+    }
+
+    private void set(int pos, int value) {
+        int chunkIndex = pos >>> CHUNK_BITS;
+        if (!owned[chunkIndex]) {
+            chunks[chunkIndex] = chunks[chunkIndex].clone();
+            owned[chunkIndex] = true;
+        }
+        chunks[chunkIndex][pos & CHUNK_MASK] = value;
+    }
+
+    private int slot(int value) {
+        int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // same as IntSet.shiftValues
+    private void shiftValues(int pos) {
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & mask;
+            int value;
+            while (true) {
+                value = get(pos);
+                if (value == 0) {
+                    set(last, 0);
+                    return;
+                }
+                int slot = slot(value);
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            set(last, value);
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[][] old = chunks;
+        allocate(capacity);
+        for (int[] chunk : old) {
+            for (int value : chunk) {
+                if (value != 0) {
+                    int pos = slot(value);
+                    while (get(pos) != 0) {
+                        pos = (pos + 1) & mask;
+                    }
+                    chunks[pos >>> CHUNK_BITS][pos & CHUNK_MASK] = value;
+                }
+            }
+        }
+    }
+
+    // tables smaller than a chunk are stored in a single smaller chunk
+    private void allocate(int capacity) {
+        int chunkCount = Math.max(1, capacity >>> CHUNK_BITS);
+        chunks = new int[chunkCount][Math.min(capacity, CHUNK_SIZE)];
+        owned = new boolean[chunkCount];
+        Arrays.fill(owned, true);
+        mask = capacity - 1;
+    }
+
+    private void checkWritable() {
+        if (owned == null) {
+            throw new UnsupportedOperationException("Set is read-only");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,59 @@
+package util;
+
+import main.crypto.Blake2b;
+import org.aion.harness.kernel.Address;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
+import org.aion.rlp.RLPList;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Reads the fields of signed transactions, as encoded by the offline signer.
+ * A signed transaction is the RLP list [nonce, to, value, data, timestamp, energyLimit, energyPrice, type, (beaconHash,)
+ * signature], where the signature is the 32 byte ed25519 public key of the sender followed by the 64 byte signature.
+ */
+public class TransactionDecoder {
+
+    private static final int publicKeyLength = 32;
+    private static final byte accountAddressPrefix = (byte) 0xa0;
+
+    /**
+     * @return the address of the account that signed the transaction.
+     * @throws IllegalArgumentException if the bytes are not a signed transaction.
+     */
+    public static Address getSender(byte[] signedTransaction) {
+        RLPList fields = getFields(signedTransaction);
+        byte[] signature = fields.get(fields.size() - 1).getRLPData();
+        if (signature == null || signature.length < publicKeyLength) {
+            throw new IllegalArgumentException("Transaction has no valid signature");
+        }
+        // the address is the hash of the public key, with its first byte replaced by the account prefix
+        byte[] address = Blake2b.Digest.newInstance(32).digest(Arrays.copyOf(signature, publicKeyLength));
+        address[0] = accountAddressPrefix;
+        return new Address(address);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a signed transaction.
+     */
+    public static BigInteger getNonce(byte[] signedTransaction) {
+        byte[] nonce = getFields(signedTransaction).get(0).getRLPData();
+        // zero is encoded as an empty item
+        return nonce == null ? BigInteger.ZERO : new BigInteger(1, nonce);
+    }
+
+    private static RLPList getFields(byte[] signedTransaction) {
+        RLPElement transaction;
+        try {
+            transaction = RLP.decode2(signedTransaction).get(0);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Could not decode transaction", e);
+        }
+        if (!(transaction instanceof RLPList) || ((RLPList) transaction).size() < 9) {
+            throw new IllegalArgumentException("Transaction does not have the expected fields");
+        }
+        return (RLPList) transaction;
+    }
+}
@@ -0,0 +1,74 @@
+package worker;
+
+import types.BlockHeader;
+
+/**
+ * Fixed size buffer of the most recent consecutive block headers, the oldest header is overwritten once it is full.
+ * Headers are indexed from the oldest (0) to the most recent (size - 1).
+ */
+public class BlockHeaderRing {
+
+    private final BlockHeader[] headers;
+    // index of the oldest header
+    private int start;
+    private int size;
+
+    public BlockHeaderRing(int capacity) {
+        this.headers = new BlockHeader[capacity];
+        this.start = 0;
+        this.size = 0;
+    }
+
+    /**
+     * If the header does not follow the most recent header, the buffer is cleared first, so it always holds consecutive blocks.
+     */
+    public void add(BlockHeader header) {
+        if (size > 0 && getLast().getBlockNumber() + 1 != header.getBlockNumber()) {
+            clear();
+        }
+        if (size < headers.length) {
+            headers[(start + size) % headers.length] = header;
+            size++;
+        } else {
+            headers[start] = header;
+            start = (start + 1) % headers.length;
+        }
+    }
+
+    public BlockHeader get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for " + size + " headers");
+        }
+        return headers[(start + index) % headers.length];
+    }
+
+    public BlockHeader getLast() {
+        return get(size - 1);
+    }
+
+    /**
+     * Removes the headers of the blocks after blockNumber.
+     */
+    public void truncateAfter(long blockNumber) {
+        while (size > 0 && getLast().getBlockNumber() > blockNumber) {
+            headers[(start + size - 1) % headers.length] = null;
+            size--;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = null;
+        }
+        start = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -3,28 +3,54 @@ package worker;
 import internal.Assertion;
 import internal.CriticalException;
 import org.aion.harness.kernel.Address;
+import org.aion.harness.result.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import state.Checkpoint;
+import state.CheckpointStore;
 import state.StatePopulator;
+import types.BlockHeader;
 import types.BlockTuple;
+import util.AsyncNodeConnection;
 import util.Log;
 import util.NodeConnection;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class EventListener implements Runnable {
 
     private NodeConnection nodeConnection;
+    // used for the catch-up windows
+    private final AsyncNodeConnection asyncNodeConnection;
+    private final BlockNumberCollector blockNumberCollector;
     private final long pollIntervalMilliSeconds;
     private final Logger logger = LoggerFactory.getLogger("EventListener");
     private long lastRetrievedBlockNumber;
     private long startingBlockNumber;
     private byte[] lastRetrievedBlockHash;
+    // last block covered by the bounded polls
+    private long lastPolledBlockNumber;
+    // headers of the most recent polled blocks, used to detect a reorg and find the fork point
+    private final BlockHeaderRing headers;
+    private static final int headerBufferSize = 256;
+    // checkpoints are disabled if null
+    private final CheckpointStore checkpointStore;
     private StatePopulator statePopulator;
     private volatile boolean shutdown = false;
     private final long deploymentLogRangeCheck;
     private final Set<byte[]> topics;
     private final Address contractAddress;
+    // catch-up is disabled if the window size is 0
+    private final long catchUpWindowSize;
+    private final int catchUpWindowsAhead;
+    private static final int maxCatchUpAttempts = 3;
+    private static final int maxCatchUpRounds = 3;
 
     public EventListener(NodeConnection nodeConnection,
                          StatePopulator statePopulator,
@@ -33,7 +59,36 @@ public class EventListener implements Runnable {
                          long deploymentLogRangeCheck,
                          Set<byte[]> topics,
                          Address contractAddress) {
+        this(nodeConnection, null, null, statePopulator, startingBlockNumber, pollIntervalMilliSeconds, deploymentLogRangeCheck, topics, contractAddress, 0, 1, null);
+    }
+
+    /**
+     * If the node is more than catchUpWindowSize blocks ahead of the starting block, the history is first retrieved in
+     * windows of catchUpWindowSize blocks, applied in block order. The windows are requested through the
+     * AsyncNodeConnection, up to catchUpWindowsAhead windows ahead of the one being applied, so they are fetched
+     * concurrently without a thread per window.
+     * If a BlockNumberCollector is given, each poll only requests the blocks up to its current block number that have not
+     * been retrieved yet, at most catchUpWindowSize of them, and polls are skipped while the block number has not moved. Otherwise every poll requests the
+     * logs from the last retrieved block to the latest block.
+     * If a CheckpointStore is given along with the BlockNumberCollector, the state is restored from the saved checkpoint
+     * on start, and new checkpoints are saved while polling. Otherwise the state is rebuilt from the logs kept in the
+     * LogStore of the StatePopulator, if it has one.
+     */
+    public EventListener(NodeConnection nodeConnection,
+                         AsyncNodeConnection asyncNodeConnection,
+                         BlockNumberCollector blockNumberCollector,
+                         StatePopulator statePopulator,
+                         long startingBlockNumber,
+                         long pollIntervalMilliSeconds,
+                         long deploymentLogRangeCheck,
+                         Set<byte[]> topics,
+                         Address contractAddress,
+                         long catchUpWindowSize,
+                         int catchUpWindowsAhead,
+                         CheckpointStore checkpointStore) {
         this.nodeConnection = nodeConnection;
+        this.asyncNodeConnection = asyncNodeConnection;
+        this.blockNumberCollector = blockNumberCollector;
         this.statePopulator = statePopulator;
         this.lastRetrievedBlockNumber = startingBlockNumber;
         this.startingBlockNumber = startingBlockNumber;
@@ -41,35 +96,32 @@ public class EventListener implements Runnable {
         this.deploymentLogRangeCheck = deploymentLogRangeCheck;
         this.topics = Collections.unmodifiableSet(topics);
         this.contractAddress = contractAddress;
+        this.catchUpWindowSize = catchUpWindowSize;
+        this.catchUpWindowsAhead = catchUpWindowsAhead;
+        this.checkpointStore = blockNumberCollector == null ? null : checkpointStore;
+        this.lastPolledBlockNumber = startingBlockNumber - 1;
+        this.headers = new BlockHeaderRing(headerBufferSize);
     }
 
     @Override
     public void run() {
+        try {
+            if (checkpointStore == null || !restoreCheckpoint()) {
+                replayLogStore();
+            }
+            if (catchUpWindowSize > 0) {
+                catchUp();
+            }
+        } catch (Throwable e) {
+            throw new CriticalException(e.getMessage());
+        }
+
         while (!shutdown) {
             try {
-                logger.info("Polling from " + lastRetrievedBlockNumber);
-                List<Log> logs = nodeConnection.getLogs(lastRetrievedBlockNumber, "latest", topics, contractAddress);
-
-                List<Log> sortedLogs = sortLogs(logs);
-
-                if (sortedLogs.size() > 0) {
-                    if (this.lastRetrievedBlockHash != null) {
-                        if (!Arrays.equals(sortedLogs.get(0).blockHash, lastRetrievedBlockHash)) {
-                            logger.info("BlockHash is not equal to the last retrieved log's block hash. Finding the last common log..");
-                            findCommonBlock();
-                        } else {
-                            long alreadySubmittedBlockNumber = sortedLogs.get(0).blockNumber;
-                            sortedLogs.removeIf(l -> (l.blockNumber == alreadySubmittedBlockNumber));
-                            if (sortedLogs.size() > 0) {
-                                setStateBasedOnLogs(sortedLogs);
-                            }
-                        }
-                    } else {
-                        setStateBasedOnLogs(sortedLogs);
-                    }
+                if (blockNumberCollector != null) {
+                    pollNewBlocks();
                 } else {
-                    logger.info("Could not find any contract logs. Finding the last common log..");
-                    findCommonBlock();
+                    pollLatest();
                 }
 
                 if (!shutdown) {
@@ -82,6 +134,347 @@ public class EventListener implements Runnable {
         }
     }
 
+    private void pollLatest() throws InterruptedException {
+        logger.info("Polling from " + lastRetrievedBlockNumber);
+        List<Log> logs = nodeConnection.getLogs(lastRetrievedBlockNumber, "latest", topics, contractAddress);
+
+        List<Log> sortedLogs = sortLogs(logs);
+
+        if (sortedLogs.size() > 0) {
+            if (this.lastRetrievedBlockHash != null) {
+                if (!Arrays.equals(sortedLogs.get(0).blockHash, lastRetrievedBlockHash)) {
+                    logger.info("BlockHash is not equal to the last retrieved log's block hash. Finding the last common log..");
+                    findCommonBlock();
+                } else {
+                    long alreadySubmittedBlockNumber = sortedLogs.get(0).blockNumber;
+                    sortedLogs.removeIf(l -> (l.blockNumber == alreadySubmittedBlockNumber));
+                    if (sortedLogs.size() > 0) {
+                        setStateBasedOnLogs(sortedLogs);
+                    }
+                }
+            } else {
+                setStateBasedOnLogs(sortedLogs);
+            }
+        } else {
+            logger.info("Could not find any contract logs. Finding the last common log..");
+            findCommonBlock();
+        }
+    }
+
+    private void pollNewBlocks() throws InterruptedException {
+        Long headBlockNumber = blockNumberCollector.getCurrentBlockNumber();
+        if (headBlockNumber == null || headBlockNumber <= lastPolledBlockNumber) {
+            return;
+        }
+
+        // a poll covers at most one catch-up window, so blocks that were not caught up are not requested all at once
+        long toBlockNumber = catchUpWindowSize > 0 ? Math.min(headBlockNumber, lastPolledBlockNumber + catchUpWindowSize) : headBlockNumber;
+
+        // headers of the new blocks, at most as many as the buffer can hold
+        long firstHeaderNumber = Math.max(lastPolledBlockNumber + 1, toBlockNumber - headerBufferSize + 1);
+        List<BlockHeader> newHeaders = getBlockHeaders(firstHeaderNumber, toBlockNumber);
+        if (newHeaders == null) {
+            return;
+        }
+
+        // the polled blocks are still canonical if the new blocks are built on top of the last polled block
+        if (!headers.isEmpty()) {
+            BlockHeader lastHeader = headers.getLast();
+            Boolean linked = lastHeader.getBlockNumber() + 1 == firstHeaderNumber
+                    ? lastHeader.isParentOf(newHeaders.get(0))
+                    : isCanonical(lastHeader);
+            if (linked == null) {
+                return;
+            } else if (!linked) {
+                revertToForkPoint();
+                return;
+            }
+        }
+        // the chain could have changed while the headers were retrieved, the next poll retrieves them again
+        for (int i = 1; i < newHeaders.size(); i++) {
+            if (!newHeaders.get(i - 1).isParentOf(newHeaders.get(i))) {
+                logger.info("Retrieved headers are not consecutive, retrying..");
+                return;
+            }
+        }
+
+        logger.info("Polling from " + (lastPolledBlockNumber + 1) + " to " + toBlockNumber);
+        List<Log> logs;
+        try {
+            logs = nodeConnection.getLogsInRange(lastPolledBlockNumber + 1, toBlockNumber, topics, contractAddress);
+        } catch (IOException e) {
+            logger.warn("Could not retrieve logs: " + e.getMessage());
+            return;
+        }
+        for (Log log : logs) {
+            if (log.blockNumber >= firstHeaderNumber && log.blockNumber <= toBlockNumber
+                    && !Arrays.equals(log.blockHash, newHeaders.get((int) (log.blockNumber - firstHeaderNumber)).getBlockHash())) {
+                logger.info("Log of block " + log.blockNumber + " does not match its header, retrying..");
+                return;
+            }
+        }
+
+        if (logs.size() > 0) {
+            setStateBasedOnLogs(sortLogs(logs));
+        }
+        for (BlockHeader header : newHeaders) {
+            headers.add(header);
+        }
+        lastPolledBlockNumber = toBlockNumber;
+
+        if (checkpointStore != null && checkpointStore.shouldCheckpoint(lastPolledBlockNumber)) {
+            try {
+                checkpointStore.save(statePopulator.createCheckpoint(headers.getLast()));
+            } catch (IOException e) {
+                logger.warn("Could not save checkpoint: " + e.getMessage());
+            }
+        }
+    }
+
+    // returns false if there was no checkpoint to restore
+    private boolean restoreCheckpoint() throws InterruptedException {
+        Checkpoint checkpoint = checkpointStore.load();
+        if (checkpoint == null || checkpoint.getBlocks().isEmpty()) {
+            return false;
+        }
+        statePopulator.restore(checkpoint);
+        BlockTuple lastBlock = checkpoint.getBlocks().get(checkpoint.getBlocks().size() - 1);
+        lastRetrievedBlockNumber = lastBlock.getBlockNumber();
+        lastRetrievedBlockHash = lastBlock.getBlockHash();
+        lastPolledBlockNumber = checkpoint.getPolledBlock().getBlockNumber();
+        headers.add(checkpoint.getPolledBlock());
+        logger.info("Restored checkpoint at block " + lastPolledBlockNumber);
+
+        // the chain could have been reorganized while the application was stopped
+        if (Boolean.FALSE.equals(isCanonical(checkpoint.getPolledBlock()))) {
+            logger.info("Checkpoint block " + lastPolledBlockNumber + " has changed.");
+            revertToForkPoint();
+        }
+        return true;
+    }
+
+    // rebuilds the state from the logs stored by the previous run, the polls continue after the last stored block
+    private void replayLogStore() throws InterruptedException {
+        BlockTuple lastBlock = statePopulator.replayLogStore();
+        if (lastBlock == null) {
+            return;
+        }
+        lastRetrievedBlockNumber = lastBlock.getBlockNumber();
+        lastRetrievedBlockHash = lastBlock.getBlockHash();
+        lastPolledBlockNumber = lastRetrievedBlockNumber;
+        logger.info("Replayed the stored logs up to block " + lastRetrievedBlockNumber);
+
+        // the chain could have been reorganized while the application was stopped. Without a block number collector,
+        // this is detected by the first poll
+        if (blockNumberCollector != null) {
+            // the polls can only detect the reorg if they are linked to this header, so it is retried until retrieved
+            List<BlockHeader> lastHeader = getBlockHeaders(lastRetrievedBlockNumber, lastRetrievedBlockNumber);
+            while (lastHeader == null) {
+                if (shutdown) {
+                    return;
+                }
+                Thread.sleep(pollIntervalMilliSeconds);
+                lastHeader = getBlockHeaders(lastRetrievedBlockNumber, lastRetrievedBlockNumber);
+            }
+            if (Arrays.equals(lastHeader.get(0).getBlockHash(), lastRetrievedBlockHash)) {
+                headers.add(lastHeader.get(0));
+            } else {
+                logger.info("Stored block " + lastRetrievedBlockNumber + " has changed. Finding the last common log..");
+                findCommonBlock();
+                lastPolledBlockNumber = lastRetrievedBlockHash == null ? lastRetrievedBlockNumber - 1 : lastRetrievedBlockNumber;
+            }
+        }
+    }
+
+    // headers of the blocks from fromBlock to toBlock, or null if any of them could not be retrieved
+    private List<BlockHeader> getBlockHeaders(long fromBlock, long toBlock) {
+        List<Long> blockNumbers = new ArrayList<>();
+        for (long blockNumber = fromBlock; blockNumber <= toBlock; blockNumber++) {
+            blockNumbers.add(blockNumber);
+        }
+        List<RpcResult<BlockHeader>> results = nodeConnection.getBlockHeaders(blockNumbers);
+        if (results.size() != blockNumbers.size()) {
+            logger.warn("Could not retrieve block headers from " + fromBlock + " to " + toBlock);
+            return null;
+        }
+        List<BlockHeader> blockHeaders = new ArrayList<>();
+        for (RpcResult<BlockHeader> result : results) {
+            if (!result.isSuccess()) {
+                logger.warn("Could not retrieve block headers from " + fromBlock + " to " + toBlock + ": " + result.getError());
+                return null;
+            }
+            blockHeaders.add(result.getResult());
+        }
+        return blockHeaders;
+    }
+
+    // null if the header of the block could not be retrieved
+    private Boolean isCanonical(BlockHeader header) {
+        List<BlockHeader> current = getBlockHeaders(header.getBlockNumber(), header.getBlockNumber());
+        return current == null ? null : Arrays.equals(current.get(0).getBlockHash(), header.getBlockHash());
+    }
+
+    /**
+     * Binary searches the last buffered header which is still canonical, and reverts the blocks after it.
+     * If none of the buffered headers are canonical, the last common log is found from the logs of the stored blocks.
+     */
+    private void revertToForkPoint() throws InterruptedException {
+        int low = 0;
+        int high = headers.size() - 1;
+        int forkIndex = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Boolean canonical = isCanonical(headers.get(mid));
+            if (canonical == null) {
+                return;
+            } else if (canonical) {
+                forkIndex = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (forkIndex < 0) {
+            logger.info("Reorg is deeper than " + headers.size() + " blocks. Finding the last common log..");
+            findCommonBlock();
+            headers.clear();
+            // the next poll starts after the common block, or from the deployment block if there was none
+            lastPolledBlockNumber = lastRetrievedBlockHash == null ? lastRetrievedBlockNumber - 1 : lastRetrievedBlockNumber;
+            return;
+        }
+
+        long forkBlockNumber = headers.get(forkIndex).getBlockNumber();
+        logger.info("Reorg after block " + forkBlockNumber + ", reverting the blocks after it..");
+        headers.truncateAfter(forkBlockNumber);
+        statePopulator.revertBlocksAfter(forkBlockNumber);
+        lastPolledBlockNumber = forkBlockNumber;
+    }
+
+    /**
+     * If a window cannot be retrieved or does not match the chain, the windows are planned again from the last applied
+     * block, for up to maxCatchUpRounds. The blocks left after that are polled catchUpWindowSize blocks at a time.
+     */
+    private void catchUp() throws InterruptedException {
+        int failedRounds = 0;
+        while (!shutdown) {
+            RpcResult<Long> blockNumber = nodeConnection.blockNumber();
+            if (!blockNumber.isSuccess()) {
+                logger.warn("Could not retrieve the block number, skipping catch-up: " + blockNumber.getError());
+                return;
+            }
+            long headBlockNumber = blockNumber.getResult();
+            if (headBlockNumber - lastPolledBlockNumber <= catchUpWindowSize) {
+                break;
+            }
+            logger.info("Catching up from " + (lastPolledBlockNumber + 1) + " to " + headBlockNumber);
+            if (!catchUpTo(headBlockNumber) && ++failedRounds == maxCatchUpRounds) {
+                logger.warn("Catch-up failed " + failedRounds + " times, polling the remaining blocks..");
+                break;
+            }
+        }
+        logger.info("Caught up to " + lastPolledBlockNumber);
+    }
+
+    // returns false if a window could not be applied, the windows after it are cancelled
+    private boolean catchUpTo(long headBlockNumber) throws InterruptedException {
+        // windows are applied in the order they were requested. At most catchUpWindowsAhead windows are fetched ahead of
+        // the one being applied, so the memory used does not grow with the length of the history
+        Deque<CatchUpWindow> windows = new ArrayDeque<>();
+        long nextFromBlock = lastPolledBlockNumber + 1;
+        try {
+            while (!shutdown && (nextFromBlock <= headBlockNumber || !windows.isEmpty())) {
+                while (nextFromBlock <= headBlockNumber && windows.size() < catchUpWindowsAhead) {
+                    long toBlock = Math.min(nextFromBlock + catchUpWindowSize - 1, headBlockNumber);
+                    windows.add(new CatchUpWindow(nextFromBlock, toBlock, getWindowLogs(nextFromBlock, toBlock, 1)));
+                    nextFromBlock = toBlock + 1;
+                }
+
+                CatchUpWindow window = windows.poll();
+                List<Log> logs;
+                try {
+                    logs = window.logs.get();
+                } catch (ExecutionException e) {
+                    logger.warn("Could not retrieve logs from " + window.fromBlock + " to " + window.toBlock + ": " + getMessage(e.getCause()));
+                    return false;
+                }
+                if (!validateWindow(window, headBlockNumber, logs)) {
+                    logger.info("Logs from " + window.fromBlock + " to " + window.toBlock + " do not match the current chain");
+                    // the blocks applied before this window could have been reorganized as well
+                    if (!headers.isEmpty() && Boolean.FALSE.equals(isCanonical(headers.getLast()))) {
+                        revertToForkPoint();
+                    }
+                    return false;
+                }
+                if (logs.size() > 0) {
+                    setStateBasedOnLogs(sortLogs(logs));
+                }
+                lastPolledBlockNumber = window.toBlock;
+            }
+            return true;
+        } finally {
+            for (CatchUpWindow window : windows) {
+                window.logs.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * The logs of the blocks that fit in the header buffer are checked against the headers of their blocks, the same
+     * way as in pollNewBlocks, so a reorg near the head during catch-up is detected. The headers are then buffered for
+     * the following polls.
+     *
+     * @return false if the headers could not be retrieved or do not match the logs.
+     */
+    private boolean validateWindow(CatchUpWindow window, long headBlockNumber, List<Log> logs) {
+        long firstHeaderNumber = Math.max(window.fromBlock, headBlockNumber - headerBufferSize + 1);
+        if (firstHeaderNumber > window.toBlock) {
+            return true;
+        }
+        List<BlockHeader> newHeaders = getBlockHeaders(firstHeaderNumber, window.toBlock);
+        if (newHeaders == null) {
+            return false;
+        }
+        if (!headers.isEmpty() && headers.getLast().getBlockNumber() + 1 == firstHeaderNumber
+                && !headers.getLast().isParentOf(newHeaders.get(0))) {
+            return false;
+        }
+        for (int i = 1; i < newHeaders.size(); i++) {
+            if (!newHeaders.get(i - 1).isParentOf(newHeaders.get(i))) {
+                return false;
+            }
+        }
+        for (Log log : logs) {
+            if (log.blockNumber >= firstHeaderNumber && log.blockNumber <= window.toBlock
+                    && !Arrays.equals(log.blockHash, newHeaders.get((int) (log.blockNumber - firstHeaderNumber)).getBlockHash())) {
+                return false;
+            }
+        }
+        for (BlockHeader header : newHeaders) {
+            headers.add(header);
+        }
+        return true;
+    }
+
+    // retries with an increasing delay, the window is given up after maxCatchUpAttempts
+    private CompletableFuture<List<Log>> getWindowLogs(long fromBlock, long toBlock, int attempt) {
+        return asyncNodeConnection.getLogsInRange(fromBlock, toBlock, topics, contractAddress).handle((logs, t) -> {
+            if (t == null) {
+                return CompletableFuture.completedFuture(logs);
+            } else if (attempt == maxCatchUpAttempts || shutdown) {
+                return CompletableFuture.<List<Log>>failedFuture(t);
+            }
+            logger.warn("Could not retrieve logs from " + fromBlock + " to " + toBlock + ", retrying: " + getMessage(t));
+            Executor delayed = CompletableFuture.delayedExecutor(pollIntervalMilliSeconds << (attempt - 1), TimeUnit.MILLISECONDS);
+            return CompletableFuture.supplyAsync(() -> attempt + 1, delayed)
+                    .thenCompose(nextAttempt -> getWindowLogs(fromBlock, toBlock, nextAttempt));
+        }).thenCompose(logs -> logs);
+    }
+
+    private static String getMessage(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause().getMessage() : t.getMessage();
+    }
+
     private static List<Log> sortLogs(List<Log> logs) {
         List<Log> sortedLog = new ArrayList<>(logs);
         sortedLog.sort(Comparator.comparing((Log l) -> l.blockNumber).thenComparing(l -> l.transactionIndex).thenComparing(l -> l.logIndex));
@@ -94,7 +487,7 @@ public class EventListener implements Runnable {
         List<Log> sortedLogs = null;
         ListIterator<BlockTuple> itr = statePopulator.getBlocksIterator();
         int count = 0;
-        do {
+        while (!foundCommon && itr.hasPrevious()) {
             // always remove the last block
             count++;
 
@@ -116,7 +509,7 @@ public class EventListener implements Runnable {
                 }
             }
             // if all logs have changed, will break out of the while loop when it reaches the first block
-        } while (!foundCommon && itr.hasPrevious());
+        }
 
         // Could not find a common log. Find the original deployment log and start from there
         if (!foundCommon) {
@@ -146,4 +539,16 @@ public class EventListener implements Runnable {
         this.shutdown = true;
         logger.info("Shutdown");
     }
+
+    private static class CatchUpWindow {
+        private final long fromBlock;
+        private final long toBlock;
+        private final CompletableFuture<List<Log>> logs;
+
+        private CatchUpWindow(long fromBlock, long toBlock, CompletableFuture<List<Log>> logs) {
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.logs = logs;
+        }
+    }
 }
@@ -1,7 +1,6 @@
 package worker;
 
 import internal.CriticalException;
-import internal.RetryExecutor;
 import org.aion.harness.kernel.Address;
 import org.aion.harness.main.types.ReceiptHash;
 import org.aion.harness.main.types.TransactionReceipt;
@@ -10,34 +9,48 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import state.UserState;
 import util.Helper;
-import util.NodeConnection;
-import util.Pair;
+import util.AsyncNodeConnection;
+import types.SentTransaction;
 import types.TransactionDetails;
 
-import java.util.concurrent.Callable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingDeque;
 
 /**
  * This thread retrieves the receipt for the transactions in the transactionHashes queue.
- * getTransactionReceipt call is executed when at least minimumDepth block have been generated since the block number at
- * which the transaction was broadcast to the blockchain. If the RpcResult is unsuccessful, getTransactionReceipt call
- * is retried for maxGetReceiptAttempt times.
+ * A receipt is requested once at least minimumDepth blocks have been generated since the block number at which the
+ * transaction was broadcast to the blockchain. Pending transactions are kept in a priority queue ordered by the block
+ * number at which their receipt can be requested, and every time the head advances, the receipts of all the
+ * transactions that became eligible are requested together in batch requests of up to maxBatchSize transactions.
+ * All the batches are sent before any response is processed, so they are in flight at the same time.
+ * If the RpcResult is unsuccessful, the transaction is requested again at the next block, for up to
+ * maxGetReceiptAttempt attempts, so a missing receipt does not delay the transactions behind it.
  */
 public class ReceiptCollector implements Runnable {
 
-    private LinkedBlockingDeque<Pair<ReceiptHash, Long>> transactionHashes;
+    private static final int maxBatchSize = 100;
+
+    private LinkedBlockingDeque<SentTransaction> transactionHashes;
     private BlockNumberCollector blockNumberCollector;
-    private NodeConnection nodeConnection;
+    private AsyncNodeConnection nodeConnection;
     private UserState userState;
-    private RetryExecutor<RpcResult<TransactionReceipt>> getReceiptRetryExecutor;
+    private final int maxGetReceiptAttempt;
     private final long pollIntervalMillis;
     private long minimumDepth;
+    // only accessed by the collector thread
+    private final PriorityQueue<PendingReceipt> pendingReceipts;
     private volatile boolean shutdown = false;
     private final Logger logger = LoggerFactory.getLogger("ReceiptCollector");
 
     public ReceiptCollector(BlockNumberCollector blockNumberCollector,
-                            LinkedBlockingDeque<Pair<ReceiptHash, Long>> transactionHashes,
-                            NodeConnection nodeConnection,
+                            LinkedBlockingDeque<SentTransaction> transactionHashes,
+                            AsyncNodeConnection nodeConnection,
                             UserState userState,
                             long minimumDepth,
                             long pollIntervalMillis,
@@ -49,55 +62,49 @@ public class ReceiptCollector implements Runnable {
         this.minimumDepth = minimumDepth;
         // used for queue, receipt and block number polling intervals. Can be separated in the future.
         this.pollIntervalMillis = pollIntervalMillis;
-        this.getReceiptRetryExecutor = new RetryExecutor<>(r -> !r.isSuccess(), maxGetReceiptAttempt, pollIntervalMillis);
+        this.maxGetReceiptAttempt = maxGetReceiptAttempt;
+        this.pendingReceipts = new PriorityQueue<>(Comparator.comparingLong(p -> p.eligibleBlockNumber));
     }
 
     @Override
     public void run() {
+        List<SentTransaction> sentTransactions = new ArrayList<>();
         while (!shutdown) {
             try {
-                Pair<ReceiptHash, Long> transactionInfo = transactionHashes.peek();
-                if (transactionInfo != null) {
-                    Long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+                transactionHashes.drainTo(sentTransactions);
+                for (SentTransaction sentTransaction : sentTransactions) {
+                    pendingReceipts.add(new PendingReceipt(sentTransaction, sentTransaction.getBlockNumber() + minimumDepth));
+                }
+                sentTransactions.clear();
 
-                    while (blockNumber == null) {
+                Long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+                List<PendingReceipt> eligible = new ArrayList<>();
+                if (blockNumber == null) {
+                    if (!pendingReceipts.isEmpty()) {
                         logger.error("Could not retrieve the block number.");
-                        Thread.sleep(pollIntervalMillis);
-                        blockNumber = blockNumberCollector.getCurrentBlockNumber();
                     }
-                    // wait for minimumDepth blocks before querying for the receipt
-                    long expectedBlockNumber = transactionInfo.value + minimumDepth;
-                    while (blockNumber < expectedBlockNumber) {
-                        logger.debug("current block number: " + blockNumber + ", waiting for " + expectedBlockNumber);
-                        Thread.sleep(pollIntervalMillis);
-                        blockNumber = blockNumberCollector.getCurrentBlockNumber();
-                    }
-
-                    logger.info("Calling getTransactionReceipt for " + transactionInfo.key);
-
-                    transactionHashes.poll();
-
-                    RpcResult<TransactionReceipt> getReceiptRpcResult = getReceipt(transactionInfo.key);
-                    TransactionReceipt receipt = getReceiptRpcResult.getResult();
-
-                    if (getReceiptRpcResult.isSuccess()) {
-                        userState.putTransaction(receipt.getTransactionSender(), TransactionDetails.fromReceipt(receipt));
-                        logger.debug("Blk: " + blockNumber + ", Successfully received the receipt for " + transactionInfo.key);
-                    } else {
-                        if(receipt != null) {
-                            userState.putTransaction(receipt.getTransactionSender(), TransactionDetails.fromReceipt(receipt));
-                            logger.debug("Blk: " + blockNumber + ", Failed to retrieve receipt for " + transactionInfo.key);
-                        } else {
-                            // todo decode sender address from the bytes
-                            userState.putTransaction(new Address(Helper.hexStringToBytes("0x0000000000000000000000000000000000000000000000000000000000000000")),
-                                    TransactionDetails.fromFailedTransaction(transactionInfo.key.getHash()));
-                        }
+                } else {
+                    while (!pendingReceipts.isEmpty() && pendingReceipts.peek().eligibleBlockNumber <= blockNumber) {
+                        eligible.add(pendingReceipts.poll());
                     }
+                }
 
-                } else {
+                if (eligible.isEmpty()) {
                     if (!shutdown) {
                         Thread.sleep(pollIntervalMillis);
                     }
+                } else {
+                    logger.info("Calling getTransactionReceipt for " + eligible.size() + " transactions");
+                    List<List<PendingReceipt>> batches = new ArrayList<>();
+                    List<CompletableFuture<List<RpcResult<TransactionReceipt>>>> responses = new ArrayList<>();
+                    for (int from = 0; from < eligible.size(); from += maxBatchSize) {
+                        List<PendingReceipt> batch = eligible.subList(from, Math.min(from + maxBatchSize, eligible.size()));
+                        batches.add(batch);
+                        responses.add(requestReceipts(batch));
+                    }
+                    for (int i = 0; i < batches.size(); i++) {
+                        collectReceipts(batches.get(i), responses.get(i), blockNumber);
+                    }
                 }
             } catch (Throwable e) {
                 throw new CriticalException(e.getMessage());
@@ -110,8 +117,59 @@ public class ReceiptCollector implements Runnable {
         logger.info("Shutdown");
     }
 
-    private RpcResult<TransactionReceipt> getReceipt(ReceiptHash txnHash) {
-        Callable<RpcResult<TransactionReceipt>> getReceipt = () -> nodeConnection.getTransactionReceipt(txnHash);
-        return getReceiptRetryExecutor.execute(getReceipt);
+    private CompletableFuture<List<RpcResult<TransactionReceipt>>> requestReceipts(List<PendingReceipt> batch) {
+        List<ReceiptHash> hashes = new ArrayList<>(batch.size());
+        for (PendingReceipt p : batch) {
+            hashes.add(p.receiptHash);
+        }
+        return nodeConnection.getTransactionReceipts(hashes);
+    }
+
+    // unsuccessful calls are scheduled again for the next block, until they run out of attempts
+    private void collectReceipts(List<PendingReceipt> batch, CompletableFuture<List<RpcResult<TransactionReceipt>>> response, long blockNumber) throws InterruptedException {
+        List<RpcResult<TransactionReceipt>> getReceiptRpcResults;
+        try {
+            getReceiptRpcResults = response.get();
+        } catch (ExecutionException e) {
+            logger.error("Error occurred while retrieving receipts. " + e.getCause().getMessage());
+            getReceiptRpcResults = Collections.nCopies(batch.size(), RpcResult.unsuccessful("Could not retrieve the receipt."));
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingReceipt pendingReceipt = batch.get(i);
+            RpcResult<TransactionReceipt> getReceiptRpcResult = getReceiptRpcResults.get(i);
+            TransactionReceipt receipt = getReceiptRpcResult.getResult();
+
+            if (getReceiptRpcResult.isSuccess()) {
+                userState.putTransaction(receipt.getTransactionSender(), TransactionDetails.fromReceipt(receipt));
+                logger.debug("Blk: " + blockNumber + ", Successfully received the receipt for " + pendingReceipt.receiptHash);
+            } else if (++pendingReceipt.attempts < maxGetReceiptAttempt) {
+                pendingReceipt.eligibleBlockNumber = blockNumber + 1;
+                pendingReceipts.add(pendingReceipt);
+            } else {
+                if (receipt != null) {
+                    userState.putTransaction(receipt.getTransactionSender(), TransactionDetails.fromReceipt(receipt));
+                    logger.debug("Blk: " + blockNumber + ", Failed to retrieve receipt for " + pendingReceipt.receiptHash);
+                } else {
+                    Address sender = pendingReceipt.sender == null
+                            ? new Address(Helper.hexStringToBytes("0x0000000000000000000000000000000000000000000000000000000000000000"))
+                            : pendingReceipt.sender;
+                    userState.putTransaction(sender, TransactionDetails.fromFailedTransaction(pendingReceipt.receiptHash.getHash()));
+                }
+            }
+        }
+    }
+
+    private static class PendingReceipt {
+        private final ReceiptHash receiptHash;
+        private final Address sender;
+        private long eligibleBlockNumber;
+        private int attempts;
+
+        private PendingReceipt(SentTransaction sentTransaction, long eligibleBlockNumber) {
+            this.receiptHash = sentTransaction.getReceiptHash();
+            this.sender = sentTransaction.getSender();
+            this.eligibleBlockNumber = eligibleBlockNumber;
+        }
     }
 }
@@ -0,0 +1,221 @@
+package worker;
+
+import org.aion.harness.kernel.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Helper;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Holds the transactions waiting to be sent, in one lane per sender.
+ * A lane keeps its transactions sorted by nonce, and only releases the ones that continue the nonce sequence of the
+ * sender. If a nonce is missing, the transactions after it are held for up to maxNonceGapWaitMillis, after which the
+ * gap is skipped and the node decides what to do with them.
+ * Batches are taken from the lanes round-robin, with a single nonce from each lane, so a burst from one sender does not
+ * delay the others. JSON-RPC does not define the order in which the node processes the entries of a batch, so two
+ * nonces of a sender are never sent in the same batch. A lane is not given out again until its batch was sent, so the
+ * transactions of a sender reach the node in nonce order even when several batches are in flight.
+ */
+public class SenderLanes {
+
+    // lanes remember the next nonce of their sender for a while after they are emptied, because the nonce of the
+    // account on chain does not account for the transactions that are still pending
+    private static final long idleLaneTimeoutMillis = 10 * 60 * 1000;
+
+    private final long maxNonceGapWaitMillis;
+    private final Map<String, Lane> lanes = new HashMap<>();
+    // lanes in round-robin order, starting from nextLane
+    private final List<Lane> rotation = new ArrayList<>();
+    private int nextLane;
+    // transactions whose sender could not be decoded are sent in the order they arrived
+    private final ArrayDeque<PendingTransaction> unordered = new ArrayDeque<>();
+    private int size;
+    private final Logger logger = LoggerFactory.getLogger("SenderLanes");
+
+    public SenderLanes(long maxNonceGapWaitMillis) {
+        this.maxNonceGapWaitMillis = maxNonceGapWaitMillis;
+    }
+
+    public synchronized boolean hasLane(Address sender) {
+        return lanes.containsKey(laneKey(sender));
+    }
+
+    /**
+     * @param accountNonce the nonce of the sender including its pending transactions, used as the next nonce of a new
+     *                     lane. If it is null, the lane starts from the nonce of this transaction.
+     */
+    public synchronized void add(PendingTransaction transaction, BigInteger accountNonce) {
+        if (transaction.sender == null) {
+            unordered.add(transaction);
+        } else {
+            String key = laneKey(transaction.sender);
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key, accountNonce == null ? transaction.nonce : accountNonce);
+                lanes.put(key, lane);
+                rotation.add(lane);
+            }
+            // transactions reusing a nonce are kept, the node decides which one replaces the other
+            lane.held.computeIfAbsent(transaction.nonce, n -> new ArrayList<>()).add(transaction);
+            lane.lastActive = System.currentTimeMillis();
+        }
+        size++;
+        notifyAll();
+    }
+
+    /**
+     * Waits up to timeoutMillis for transactions that can be sent.
+     * Every lane of the returned transactions has to be passed to {@link #complete} once they have been sent.
+     *
+     * @return up to about maxBatchSize transactions, or an empty list on timeout.
+     */
+    public synchronized List<PendingTransaction> take(int maxBatchSize, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        List<PendingTransaction> batch = new ArrayList<>();
+        while (true) {
+            while (!unordered.isEmpty() && batch.size() < maxBatchSize) {
+                batch.add(unordered.poll());
+            }
+            long now = System.currentTimeMillis();
+            int visited = 0;
+            while (visited < rotation.size() && batch.size() < maxBatchSize) {
+                if (nextLane >= rotation.size()) {
+                    nextLane = 0;
+                }
+                Lane lane = rotation.get(nextLane);
+                if (lane.isIdle(now)) {
+                    lanes.remove(lane.key);
+                    rotation.remove(nextLane);
+                } else {
+                    lane.release(batch, now);
+                    nextLane++;
+                    visited++;
+                }
+            }
+            if (!batch.isEmpty()) {
+                size -= batch.size();
+                return batch;
+            }
+            long remaining = deadline - now;
+            if (remaining <= 0) {
+                return batch;
+            }
+            wait(remaining);
+        }
+    }
+
+    /**
+     * Releases the lanes of a batch returned by {@link #take}.
+     * The nonces of the failed transactions can be used again, so the lane waits for them to be resubmitted before
+     * releasing any higher nonce.
+     */
+    public synchronized void complete(List<PendingTransaction> batch, List<PendingTransaction> failed) {
+        long now = System.currentTimeMillis();
+        for (PendingTransaction transaction : batch) {
+            Lane lane = transaction.sender == null ? null : lanes.get(laneKey(transaction.sender));
+            if (lane != null) {
+                lane.inFlight = false;
+                lane.lastActive = now;
+            }
+        }
+        for (PendingTransaction transaction : failed) {
+            Lane lane = transaction.sender == null ? null : lanes.get(laneKey(transaction.sender));
+            if (lane != null && transaction.nonce.compareTo(lane.nextNonce) < 0) {
+                lane.nextNonce = transaction.nonce;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return the number of transactions held in the lanes.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private static String laneKey(Address sender) {
+        return Helper.bytesToHexString(sender.getAddressBytes());
+    }
+
+    private class Lane {
+        private final String key;
+        private final TreeMap<BigInteger, List<PendingTransaction>> held = new TreeMap<>();
+        private BigInteger nextNonce;
+        private boolean inFlight;
+        // time at which the lane started waiting for a missing nonce, 0 if it is not waiting
+        private long gapSince;
+        private long lastActive;
+
+        private Lane(String key, BigInteger nextNonce) {
+            this.key = key;
+            this.nextNonce = nextNonce;
+        }
+
+        private boolean isIdle(long now) {
+            return !inFlight && held.isEmpty() && now - lastActive > idleLaneTimeoutMillis;
+        }
+
+        private void release(List<PendingTransaction> batch, long now) {
+            if (inFlight || held.isEmpty()) {
+                return;
+            }
+            BigInteger lowestNonce = held.firstKey();
+            if (lowestNonce.compareTo(nextNonce) > 0) {
+                if (gapSince == 0) {
+                    logger.debug("Holding the transactions of " + key + " until nonce " + nextNonce + " is received");
+                    gapSince = now;
+                    return;
+                } else if (now - gapSince < maxNonceGapWaitMillis) {
+                    return;
+                }
+                logger.warn("Nonce " + nextNonce + " of " + key + " was not received, sending from nonce " + lowestNonce);
+                nextNonce = lowestNonce;
+            }
+            gapSince = 0;
+
+            // the transactions reusing a nonce go in the same batch and the node keeps one of them. nonces below
+            // nextNonce were already used and are rejected by the node, but they are still released one per batch
+            Map.Entry<BigInteger, List<PendingTransaction>> entry = held.pollFirstEntry();
+            batch.addAll(entry.getValue());
+            if (entry.getKey().equals(nextNonce)) {
+                nextNonce = nextNonce.add(BigInteger.ONE);
+            }
+            inFlight = true;
+        }
+    }
+
+    public static class PendingTransaction {
+        private final byte[] signedTransaction;
+        private final Address sender;
+        private final BigInteger nonce;
+
+        /**
+         * @param sender null if it could not be decoded, in which case the nonce is ignored.
+         */
+        public PendingTransaction(byte[] signedTransaction, Address sender, BigInteger nonce) {
+            this.signedTransaction = signedTransaction;
+            this.sender = sender;
+            this.nonce = nonce;
+        }
+
+        public byte[] getSignedTransaction() {
+            return signedTransaction;
+        }
+
+        public Address getSender() {
+            return sender;
+        }
+
+        public BigInteger getNonce() {
+            return nonce;
+        }
+    }
+}
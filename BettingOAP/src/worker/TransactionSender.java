@@ -9,36 +9,66 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import state.UserState;
 import util.Helper;
-import util.NodeConnection;
-import util.Pair;
+import util.AsyncNodeConnection;
+import util.TransactionDecoder;
+import types.SentTransaction;
 import types.TransactionDetails;
+import worker.SenderLanes.PendingTransaction;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This thread keeps polling the rawTransaction queue, and transmits the transactions to the connected node
- * Note that if the transactionHashes queue is full, this thread will sleep until there is one available slot
+ * This thread waits for transactions in the rawTransaction queue, decodes their sender and nonce, and moves them to
+ * the lane of their sender. A sender thread takes batches of up to maxBatchSize transactions from the lanes,
+ * round-robin across the senders, and transmits each batch to the connected node in a single request. It does not wait
+ * for the response before taking the next batch, so up to maxBatchesInFlight batches are sent at the same time.
+ * The lanes only release the transactions of a sender in nonce order, one nonce per batch, and hold the ones sent
+ * after a missing nonce for up to maxNonceGapWaitMillis. See {@link SenderLanes}.
+ * A slot of the transactionHashes queue is reserved for every transaction of a batch before it is taken, so the
+ * receipt hashes of the sent transactions always fit in the queue.
+ * Note that if the transactionHashes queue is full, or the lanes hold as many transactions as the rawTransaction queue
+ * can, this thread will sleep until there is one available slot
  */
 
 public class TransactionSender implements Runnable {
 
+    private static final int maxBatchSize = 100;
+
     private LinkedBlockingDeque<byte[]> rawTransactions;
-    private LinkedBlockingDeque<Pair<ReceiptHash, Long>> transactionHashes;
+    private LinkedBlockingDeque<SentTransaction> transactionHashes;
     private BlockNumberCollector blockNumberCollector;
-    private NodeConnection nodeConnection;
+    private AsyncNodeConnection nodeConnection;
     private UserState userState;
     private final long pollIntervalMilliSeconds;
     private final long queueQueryIntervalMillis;
+    private final int maxBatchesInFlight;
+    private final Semaphore batchesInFlight;
+    private final SenderLanes lanes;
+    private final int maxHeldTransactions;
+    // slots of the transactionHashes queue reserved by the batches being sent, guarded by this
+    private int reservedHashSlots;
+    private volatile Throwable senderFailure;
     private volatile boolean shutdown = false;
     private final Logger logger = LoggerFactory.getLogger("TransactionSender");
 
     public TransactionSender(BlockNumberCollector blockNumberCollector,
                              LinkedBlockingDeque<byte[]> rawTransactions,
-                             LinkedBlockingDeque<Pair<ReceiptHash, Long>> transactionHashes,
-                             NodeConnection nodeConnection,
+                             LinkedBlockingDeque<SentTransaction> transactionHashes,
+                             AsyncNodeConnection nodeConnection,
                              UserState userState,
                              long pollIntervalMilliSeconds,
-                             long queueQueryIntervalMillis) {
+                             long queueQueryIntervalMillis,
+                             int maxBatchesInFlight,
+                             long maxNonceGapWaitMillis) {
         this.blockNumberCollector = blockNumberCollector;
         this.rawTransactions = rawTransactions;
         this.transactionHashes = transactionHashes;
@@ -46,50 +76,46 @@ public class TransactionSender implements Runnable {
         this.userState = userState;
         this.pollIntervalMilliSeconds = pollIntervalMilliSeconds;
         this.queueQueryIntervalMillis = queueQueryIntervalMillis;
+        this.maxBatchesInFlight = maxBatchesInFlight;
+        this.batchesInFlight = new Semaphore(maxBatchesInFlight);
+        this.lanes = new SenderLanes(maxNonceGapWaitMillis);
+        this.maxHeldTransactions = rawTransactions.remainingCapacity() + rawTransactions.size();
     }
 
     @Override
     public void run() {
-        while (!shutdown) {
-            try {
-                if (transactionHashes.remainingCapacity() > 0) {
-                    byte[] toSend = rawTransactions.poll();
-                    if (toSend != null) {
-                        Long blockNumber = blockNumberCollector.getCurrentBlockNumber();
-                        // this should only be null during startup
-                        while (blockNumber == null) {
-                            logger.error("Could not retrieve the block number.");
-                            Thread.sleep(pollIntervalMilliSeconds);
-                            blockNumber = blockNumberCollector.getCurrentBlockNumber();
-                        }
-                        RpcResult<ReceiptHash> sendResult = nodeConnection.sendSignedTransaction(toSend);
-                        logger.debug("Blk: " + blockNumber + ", result: " + sendResult.toString());
-                        if (sendResult.isSuccess()) {
-                            ReceiptHash hash = sendResult.getResult();
-                            transactionHashes.offer(Pair.of(hash, blockNumber));
-                        } else {
-                            //retry later?
-                            logger.debug("Blk: " + blockNumber + ", Could not send " + Helper.bytesToHexString(toSend));
-                            // todo decode sender address from the bytes
-                            userState.putTransaction(new Address(Helper.hexStringToBytes("0x0000000000000000000000000000000000000000000000000000000000000000")),
-                                    TransactionDetails.fromFailedTransaction(SignedTransactionBuilder.getTransactionHashOfSignedTransaction(toSend)));
-                        }
-
-                    } else {
-                        if (!shutdown) {
-                            Thread.sleep(pollIntervalMilliSeconds);
-                        }
+        Thread sender = new Thread(this::runSender, "transactionSender-batches");
+        sender.setDaemon(true);
+        sender.start();
+
+        try {
+            while (!shutdown) {
+                checkSender();
+                int heldCapacity = maxHeldTransactions - lanes.size();
+                if (transactionHashes.remainingCapacity() > 0 && heldCapacity > 0) {
+                    // blocks until a transaction is queued, so it is moved to its lane as soon as it arrives
+                    byte[] transaction = rawTransactions.poll(pollIntervalMilliSeconds, TimeUnit.MILLISECONDS);
+                    if (transaction != null) {
+                        List<byte[]> received = new ArrayList<>();
+                        received.add(transaction);
+                        rawTransactions.drainTo(received, Math.min(heldCapacity, maxBatchSize) - 1);
+                        addToLanes(received);
                     }
                 } else {
                     if (!shutdown) {
                         Thread.sleep(queueQueryIntervalMillis);
                     }
                 }
-
-                // for now shutdown if an exception happens
-            } catch (Throwable e) {
-                throw new CriticalException(e.getMessage());
             }
+
+            sender.join();
+            // waits for the responses of the batches in flight
+            batchesInFlight.acquire(maxBatchesInFlight);
+            checkSender();
+
+            // for now shutdown if an exception happens
+        } catch (Throwable e) {
+            throw new CriticalException(e.getMessage());
         }
     }
 
@@ -97,4 +123,171 @@ public class TransactionSender implements Runnable {
         this.shutdown = true;
         logger.info("Shutdown");
     }
+
+    private void addToLanes(List<byte[]> received) throws InterruptedException {
+        List<PendingTransaction> transactions = new ArrayList<>();
+        List<Address> newSenders = new ArrayList<>();
+        for (byte[] signedTransaction : received) {
+            PendingTransaction transaction;
+            try {
+                transaction = new PendingTransaction(signedTransaction,
+                        TransactionDecoder.getSender(signedTransaction),
+                        TransactionDecoder.getNonce(signedTransaction));
+                if (!lanes.hasLane(transaction.getSender()) && !newSenders.contains(transaction.getSender())) {
+                    newSenders.add(transaction.getSender());
+                }
+            } catch (IllegalArgumentException e) {
+                // the node will reject the transaction, so it does not need to be ordered
+                logger.debug("Could not decode " + Helper.bytesToHexString(signedTransaction) + ": " + e.getMessage());
+                transaction = new PendingTransaction(signedTransaction, null, null);
+            }
+            transactions.add(transaction);
+        }
+
+        Map<Address, BigInteger> accountNonces = getAccountNonces(newSenders);
+        for (PendingTransaction transaction : transactions) {
+            lanes.add(transaction, transaction.getSender() == null ? null : accountNonces.get(transaction.getSender()));
+        }
+    }
+
+    // the lanes of new senders start from the pending nonce of the account, so transactions received out of order are
+    // held, while the ones following the transactions already pending in the node are sent right away
+    private Map<Address, BigInteger> getAccountNonces(List<Address> senders) throws InterruptedException {
+        Map<Address, BigInteger> accountNonces = new HashMap<>();
+        if (senders.isEmpty()) {
+            return accountNonces;
+        }
+        List<RpcResult<BigInteger>> results;
+        try {
+            results = nodeConnection.getPendingNonces(senders).get();
+        } catch (ExecutionException e) {
+            logger.error("Error occurred while retrieving nonces. " + e.getCause().getMessage());
+            return accountNonces;
+        }
+        for (int i = 0; i < senders.size() && i < results.size(); i++) {
+            if (results.get(i).isSuccess()) {
+                accountNonces.put(senders.get(i), results.get(i).getResult());
+            }
+        }
+        return accountNonces;
+    }
+
+    private void checkSender() {
+        if (senderFailure != null) {
+            throw new CriticalException(senderFailure.getMessage());
+        }
+    }
+
+    private void runSender() {
+        try {
+            while (!shutdown) {
+                if (!batchesInFlight.tryAcquire(pollIntervalMilliSeconds, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                int hashSlots = reserveHashSlots();
+                if (hashSlots == 0) {
+                    batchesInFlight.release();
+                    Thread.sleep(queueQueryIntervalMillis);
+                    continue;
+                }
+                List<PendingTransaction> toSend = lanes.take(hashSlots, pollIntervalMilliSeconds);
+                if (toSend.isEmpty()) {
+                    releaseHashSlots(hashSlots);
+                    batchesInFlight.release();
+                } else {
+                    long blockNumber = getBlockNumber();
+                    send(toSend).whenComplete((sendResults, t) -> completeBatch(toSend, sendResults, t, blockNumber, hashSlots));
+                }
+            }
+        } catch (Throwable e) {
+            logger.error("Sender failed", e);
+            senderFailure = e;
+        }
+    }
+
+    // returns the number of reserved slots, which is the maximum size of the next batch, or 0 if the queue is full
+    private synchronized int reserveHashSlots() {
+        int slots = Math.min(transactionHashes.remainingCapacity() - reservedHashSlots, maxBatchSize);
+        if (slots <= 0) {
+            return 0;
+        }
+        reservedHashSlots += slots;
+        return slots;
+    }
+
+    private synchronized void releaseHashSlots(int slots) {
+        reservedHashSlots -= slots;
+    }
+
+    private long getBlockNumber() throws InterruptedException {
+        Long blockNumber = blockNumberCollector.getCurrentBlockNumber();
+        // this should only be null during startup
+        while (blockNumber == null) {
+            logger.error("Could not retrieve the block number.");
+            Thread.sleep(pollIntervalMilliSeconds);
+            blockNumber = blockNumberCollector.getCurrentBlockNumber();
+        }
+        return blockNumber;
+    }
+
+    private CompletableFuture<List<RpcResult<ReceiptHash>>> send(List<PendingTransaction> toSend) {
+        List<byte[]> signedTransactions = new ArrayList<>(toSend.size());
+        for (PendingTransaction transaction : toSend) {
+            signedTransactions.add(transaction.getSignedTransaction());
+        }
+        return nodeConnection.sendSignedTransactions(signedTransactions);
+    }
+
+    // runs once the node responded, the lanes of the batch and its reserved slots are released
+    private void completeBatch(List<PendingTransaction> toSend, List<RpcResult<ReceiptHash>> sendResults, Throwable t, long blockNumber, int hashSlots) {
+        try {
+            if (t != null) {
+                throw t;
+            }
+            lanes.complete(toSend, processResults(toSend, sendResults, blockNumber));
+        } catch (Throwable e) {
+            logger.error("Could not complete a batch", e);
+            senderFailure = e;
+        } finally {
+            releaseHashSlots(hashSlots);
+            batchesInFlight.release();
+        }
+    }
+
+    /**
+     * @return the transactions the node did not accept.
+     */
+    private List<PendingTransaction> processResults(List<PendingTransaction> toSend, List<RpcResult<ReceiptHash>> sendResults, long blockNumber) throws InterruptedException {
+        List<PendingTransaction> failed = new ArrayList<>();
+        for (int i = 0; i < toSend.size(); i++) {
+            PendingTransaction transaction = toSend.get(i);
+            RpcResult<ReceiptHash> sendResult = sendResults.get(i);
+            logger.debug("Blk: " + blockNumber + ", result: " + sendResult.toString());
+            if (sendResult.isSuccess()) {
+                ReceiptHash hash = sendResult.getResult();
+                queueReceiptHash(SentTransaction.of(hash, transaction.getSender(), blockNumber));
+            } else {
+                //retry later?
+                logger.debug("Blk: " + blockNumber + ", Could not send " + Helper.bytesToHexString(transaction.getSignedTransaction()));
+                Address sender = transaction.getSender() == null
+                        ? new Address(Helper.hexStringToBytes("0x0000000000000000000000000000000000000000000000000000000000000000"))
+                        : transaction.getSender();
+                userState.putTransaction(sender,
+                        TransactionDetails.fromFailedTransaction(SignedTransactionBuilder.getTransactionHashOfSignedTransaction(transaction.getSignedTransaction())));
+                failed.add(transaction);
+            }
+        }
+        return failed;
+    }
+
+    // a batch can exceed its reserved slots by the transactions sharing the nonce of its last sender, in which case this
+    // waits for the ReceiptCollector to make room
+    private void queueReceiptHash(SentTransaction sentTransaction) throws InterruptedException {
+        while (!transactionHashes.offer(sentTransaction, pollIntervalMilliSeconds, TimeUnit.MILLISECONDS)) {
+            if (shutdown) {
+                logger.warn("Dropping receipt hash " + Helper.bytesToHexString(sentTransaction.getReceiptHash().getHash()) + " on shutdown");
+                return;
+            }
+        }
+    }
 }
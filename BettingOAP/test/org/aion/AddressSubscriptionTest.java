@@ -0,0 +1,87 @@
+package org.aion;
+
+import org.aion.harness.kernel.Address;
+import org.glassfish.grizzly.websockets.WebSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.AddressSubscriptionApplication;
+import state.ProjectedState;
+import state.StatePopulator;
+import types.TransactionDetails;
+import util.Helper;
+import util.Log;
+import worker.BlockNumberCollector;
+
+import java.util.Arrays;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.*;
+
+public class AddressSubscriptionTest {
+
+    private BlockNumberCollector blockNumberCollector = mock(BlockNumberCollector.class);
+    private AddressSubscriptionApplication application;
+    private StatePopulator statePopulator;
+    private Address player = new Address(TestingHelper.getRandomAddressBytes());
+    private Address contractAddress = new Address(new byte[32]);
+    private byte[] transactionHash = TestingHelper.getRandomAddressBytes();
+
+    @Before
+    public void setup() {
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(20L);
+        application = new AddressSubscriptionApplication(blockNumberCollector, 10);
+        statePopulator = new StatePopulator(new ProjectedState());
+        statePopulator.addListener(application);
+    }
+
+    @After
+    public void close() {
+        application.close();
+    }
+
+    @Test
+    public void testTransactionNotification() {
+        WebSocket subscriber = mockSocket();
+        WebSocket other = mockSocket();
+
+        application.onMessage(subscriber, Helper.bytesToHexStringWith0x(player.getAddressBytes()));
+        application.onMessage(other, Helper.bytesToHexString(TestingHelper.getRandomAddressBytes()));
+
+        application.onTransactionUpdated(player, TransactionDetails.fromFailedTransaction(transactionHash));
+
+        verify(subscriber, timeout(1000)).send(contains(Helper.bytesToHexString(transactionHash)));
+        verify(other, never()).send(anyString());
+    }
+
+    @Test
+    public void testPlayerNotification() {
+        WebSocket subscriber = mockSocket();
+        application.onMessage(subscriber, Helper.bytesToHexString(player.getAddressBytes()));
+
+        Log deployLog = TestingHelper.getOneTopicEvent(contractAddress, 10, "BettingContractDeployed", 0, null);
+        Log registeredLog = TestingHelper.getRegisteredLog(contractAddress, 11, player, 0, null);
+        statePopulator.populate(Arrays.asList(deployLog, registeredLog));
+
+        verify(subscriber, timeout(1000)).send(contains("\"type\":\"player\""));
+    }
+
+    @Test
+    public void testClosedSocket() throws InterruptedException {
+        WebSocket subscriber = mockSocket();
+        application.onMessage(subscriber, Helper.bytesToHexString(player.getAddressBytes()));
+        application.onClose(subscriber, null);
+
+        application.onTransactionUpdated(player, TransactionDetails.fromFailedTransaction(transactionHash));
+
+        Thread.sleep(200);
+        verify(subscriber, never()).send(anyString());
+    }
+
+    private static WebSocket mockSocket() {
+        WebSocket socket = mock(WebSocket.class);
+        when(socket.isConnected()).thenReturn(true);
+        return socket;
+    }
+}
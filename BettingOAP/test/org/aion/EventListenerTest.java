@@ -1,25 +1,38 @@
 package org.aion;
 
+import types.BlockHeader;
 import types.Player;
 import org.aion.harness.kernel.Address;
+import org.aion.harness.result.RpcResult;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import state.ProjectedState;
+import state.CheckpointStore;
+import state.LogStore;
 import state.StatePopulator;
+import util.AsyncNodeConnection;
 import util.Log;
 import util.NodeConnection;
+import worker.BlockNumberCollector;
 import worker.EventListener;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
 
 import static org.aion.TestingHelper.*;
 import static org.mockito.Matchers.*;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 public class EventListenerTest {
     NodeConnection nodeConnection = mock(NodeConnection.class);
+    AsyncNodeConnection asyncNodeConnection = mock(AsyncNodeConnection.class);
+    BlockNumberCollector blockNumberCollector = mock(BlockNumberCollector.class);
     private EventListener eventListener;
     private static long pollingIntervalMillis = 50;
     private static Log deployLog;
@@ -52,6 +65,26 @@ public class EventListenerTest {
         eventListenerThread = new Thread(eventListener);
     }
 
+    private void setupBoundedEventListener(long catchUpWindowSize, int catchUpWindowsAhead) {
+        setupBoundedEventListener(catchUpWindowSize, catchUpWindowsAhead, null);
+    }
+
+    private void setupBoundedEventListener(long catchUpWindowSize, int catchUpWindowsAhead, CheckpointStore checkpointStore) {
+        eventListener = new EventListener(nodeConnection,
+                asyncNodeConnection,
+                blockNumberCollector,
+                new StatePopulator(projectedState),
+                deployLog.blockNumber,
+                pollingIntervalMillis,
+                5,
+                topics,
+                contractAddress,
+                catchUpWindowSize,
+                catchUpWindowsAhead,
+                checkpointStore);
+        eventListenerThread = new Thread(eventListener);
+    }
+
     private void startThreads() {
         eventListenerThread.start();
     }
@@ -95,6 +128,308 @@ public class EventListenerTest {
         Assert.assertEquals(1, projectedState.getStatements().size());
     }
 
+    @Test
+    public void testCatchUp() throws Exception {
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+
+        byte[][] hashes = chainHashes(10, 40);
+        Log registerLog = TestingHelper.getRegisteredLog(deployLog.address, 15, player1, 0, hashes[5]);
+        Log submitLog = TestingHelper.getSubmittedStatementLog(deployLog.address, 25, player1, 1, "Q".getBytes(), "H".getBytes(), 0, hashes[15]);
+        Log registerLog2 = TestingHelper.getRegisteredLog(deployLog.address, 40, player2, 0, hashes[30]);
+
+        setupBoundedEventListener(10, 2);
+
+        when(nodeConnection.blockNumber()).thenReturn(RpcResult.successful(40L, 0, TimeUnit.NANOSECONDS));
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(40L);
+        stubHeaders(10, getRandomAddressBytes(), hashes);
+        // the first window fails once, so it is applied after the following windows were retrieved
+        when(asyncNodeConnection.getLogsInRange(10, 19, topics, contractAddress))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("timeout")))
+                .thenReturn(CompletableFuture.completedFuture(new ArrayList<>(Arrays.asList(registerLog, deployLog))));
+        when(asyncNodeConnection.getLogsInRange(20, 29, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>(Arrays.asList(submitLog))));
+        when(asyncNodeConnection.getLogsInRange(30, 39, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+        when(asyncNodeConnection.getLogsInRange(40, 40, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>(Arrays.asList(registerLog2))));
+
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 10);
+        shutdownThreads();
+
+        verify(nodeConnection, never()).getLogs(anyLong(), anyString(), anySetOf(byte[].class), any(Address.class));
+        // the head has not moved after the catch-up
+        verify(asyncNodeConnection, times(1)).getLogsInRange(40, 40, topics, contractAddress);
+        verify(nodeConnection, never()).getLogsInRange(anyLong(), anyLong(), anySetOf(byte[].class), any(Address.class));
+        Assert.assertEquals(4, projectedState.getBlocks().size());
+        Assert.assertEquals(40, projectedState.getBlocks().getLast().getBlockNumber());
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+        Assert.assertEquals(1, projectedState.getStatements().size());
+    }
+
+    @Test
+    public void testCatchUpFailedWindow() throws Exception {
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+
+        byte[][] hashes = chainHashes(10, 40);
+        Log registerLog = TestingHelper.getRegisteredLog(deployLog.address, 15, player1, 0, hashes[5]);
+        Log registerLog2 = TestingHelper.getRegisteredLog(deployLog.address, 35, player2, 0, hashes[25]);
+
+        setupBoundedEventListener(10, 1);
+
+        when(nodeConnection.blockNumber()).thenReturn(RpcResult.successful(40L, 0, TimeUnit.NANOSECONDS));
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(40L);
+        stubHeaders(10, getRandomAddressBytes(), hashes);
+        when(asyncNodeConnection.getLogsInRange(10, 19, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>(Arrays.asList(registerLog, deployLog))));
+        when(asyncNodeConnection.getLogsInRange(20, 29, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+        // the window runs out of attempts once, and is retrieved when the windows are planned again
+        when(asyncNodeConnection.getLogsInRange(30, 39, topics, contractAddress)).thenReturn(
+                CompletableFuture.failedFuture(new IOException("timeout")),
+                CompletableFuture.failedFuture(new IOException("timeout")),
+                CompletableFuture.failedFuture(new IOException("timeout")),
+                CompletableFuture.completedFuture(new ArrayList<>(Arrays.asList(registerLog2))));
+        when(asyncNodeConnection.getLogsInRange(40, 40, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 10);
+        shutdownThreads();
+
+        verify(asyncNodeConnection, times(4)).getLogsInRange(30, 39, topics, contractAddress);
+        verify(asyncNodeConnection, times(1)).getLogsInRange(20, 29, topics, contractAddress);
+        verify(nodeConnection, never()).getLogsInRange(anyLong(), anyLong(), anySetOf(byte[].class), any(Address.class));
+        Assert.assertEquals(35, projectedState.getBlocks().getLast().getBlockNumber());
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+    }
+
+    @Test
+    public void testCatchUpFallsBackToBoundedPolls() throws Exception {
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+
+        byte[][] hashes = chainHashes(10, 40);
+        Log registerLog = TestingHelper.getRegisteredLog(deployLog.address, 15, player1, 0, hashes[5]);
+        Log registerLog2 = TestingHelper.getRegisteredLog(deployLog.address, 35, player2, 0, hashes[25]);
+
+        setupBoundedEventListener(10, 1);
+
+        when(nodeConnection.blockNumber()).thenReturn(RpcResult.successful(40L, 0, TimeUnit.NANOSECONDS));
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(40L);
+        stubHeaders(10, getRandomAddressBytes(), hashes);
+        when(asyncNodeConnection.getLogsInRange(10, 19, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>(Arrays.asList(registerLog, deployLog))));
+        when(asyncNodeConnection.getLogsInRange(20, 29, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+        when(asyncNodeConnection.getLogsInRange(30, 39, topics, contractAddress)).thenReturn(CompletableFuture.failedFuture(new IOException("timeout")));
+        // the remaining blocks are polled one window at a time
+        when(nodeConnection.getLogsInRange(30, 39, topics, contractAddress)).thenReturn(new ArrayList<>(Arrays.asList(registerLog2)));
+
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 30);
+        shutdownThreads();
+
+        // 3 rounds of 3 attempts
+        verify(asyncNodeConnection, times(9)).getLogsInRange(30, 39, topics, contractAddress);
+        verify(nodeConnection, times(1)).getLogsInRange(30, 39, topics, contractAddress);
+        verify(nodeConnection, times(1)).getLogsInRange(40, 40, topics, contractAddress);
+        verify(nodeConnection, never()).getLogsInRange(30, 40, topics, contractAddress);
+        Assert.assertEquals(35, projectedState.getBlocks().getLast().getBlockNumber());
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+    }
+
+    @Test
+    public void testCatchUpReorg() throws Exception {
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player3 = new Address(TestingHelper.getRandomAddressBytes());
+
+        byte[][] hashes = chainHashes(10, 40);
+        Log registerLog = TestingHelper.getRegisteredLog(deployLog.address, 15, player1, 0, hashes[5]);
+        // block 40 was replaced between the retrieval of its logs and of its header
+        Log staleLog = TestingHelper.getRegisteredLog(deployLog.address, 40, player2, 0, getRandomAddressBytes());
+        Log registerLog3 = TestingHelper.getRegisteredLog(deployLog.address, 40, player3, 0, hashes[30]);
+
+        setupBoundedEventListener(10, 2);
+
+        when(nodeConnection.blockNumber()).thenReturn(RpcResult.successful(40L, 0, TimeUnit.NANOSECONDS));
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(40L);
+        stubHeaders(10, getRandomAddressBytes(), hashes);
+        when(asyncNodeConnection.getLogsInRange(10, 19, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>(Arrays.asList(registerLog, deployLog))));
+        when(asyncNodeConnection.getLogsInRange(20, 29, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+        when(asyncNodeConnection.getLogsInRange(30, 39, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+        when(asyncNodeConnection.getLogsInRange(40, 40, topics, contractAddress)).thenReturn(CompletableFuture.completedFuture(new ArrayList<>(Arrays.asList(staleLog))));
+        when(nodeConnection.getLogsInRange(40, 40, topics, contractAddress)).thenReturn(new ArrayList<>(Arrays.asList(registerLog3)));
+
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 10);
+        shutdownThreads();
+
+        verify(asyncNodeConnection, times(1)).getLogsInRange(40, 40, topics, contractAddress);
+        verify(nodeConnection, times(1)).getLogsInRange(40, 40, topics, contractAddress);
+        Assert.assertEquals(40, projectedState.getBlocks().getLast().getBlockNumber());
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+        Assert.assertTrue(containsPlayer(projectedState.getPlayers(), player3));
+        Assert.assertFalse(containsPlayer(projectedState.getPlayers(), player2));
+    }
+
+    @Test
+    public void testBoundedWindowPolling() throws Exception {
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+
+        Log registerLog = TestingHelper.getRegisteredLog(deployLog.address, 11, player1, 0, null);
+        Log registerLog2 = TestingHelper.getRegisteredLog(deployLog.address, 14, player2, 0, null);
+
+        setupBoundedEventListener(0, 1);
+
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(12L, 12L, 15L);
+        byte[] hash12 = getRandomAddressBytes();
+        when(nodeConnection.getBlockHeaders(blockNumbers(10, 12))).thenReturn(headers(10, getRandomAddressBytes(), Hash, registerLog.blockHash, hash12));
+        when(nodeConnection.getBlockHeaders(blockNumbers(13, 15))).thenReturn(headers(13, hash12, getRandomAddressBytes(), registerLog2.blockHash, getRandomAddressBytes()));
+        when(nodeConnection.getLogsInRange(10, 12, topics, contractAddress)).thenReturn(new ArrayList<>(Arrays.asList(registerLog, deployLog)));
+        when(nodeConnection.getLogsInRange(13, 15, topics, contractAddress)).thenReturn(new ArrayList<>(Arrays.asList(registerLog2)));
+
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 10);
+        shutdownThreads();
+
+        verify(nodeConnection, times(1)).getLogsInRange(10, 12, topics, contractAddress);
+        verify(nodeConnection, times(1)).getLogsInRange(13, 15, topics, contractAddress);
+        verify(nodeConnection, never()).getLogs(anyLong(), anyString(), anySetOf(byte[].class), any(Address.class));
+        Assert.assertEquals(3, projectedState.getBlocks().size());
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+    }
+
+    @Test
+    public void testBoundedWindowPollingReorg() throws Exception {
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+
+        Log registerLog = TestingHelper.getRegisteredLog(deployLog.address, 11, player1, 0, null);
+        Log registerLog2 = TestingHelper.getRegisteredLog(deployLog.address, 12, player2, 0, null);
+
+        setupBoundedEventListener(0, 1);
+
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(12L, 13L);
+        when(nodeConnection.getBlockHeaders(blockNumbers(10, 12))).thenReturn(headers(10, getRandomAddressBytes(), Hash, registerLog.blockHash, getRandomAddressBytes()));
+        when(nodeConnection.getLogsInRange(10, 12, topics, contractAddress)).thenReturn(new ArrayList<>(Arrays.asList(deployLog, registerLog)));
+
+        // block 11 was replaced by a fork where player2 registered in block 12 instead
+        List<RpcResult<BlockHeader>> fork = headers(11, Hash, getRandomAddressBytes(), registerLog2.blockHash, getRandomAddressBytes());
+        when(nodeConnection.getBlockHeaders(blockNumbers(13, 13))).thenReturn(fork.subList(2, 3));
+        when(nodeConnection.getBlockHeaders(blockNumbers(11, 11))).thenReturn(fork.subList(0, 1));
+        when(nodeConnection.getBlockHeaders(blockNumbers(10, 10))).thenReturn(headers(10, getRandomAddressBytes(), Hash));
+        when(nodeConnection.getBlockHeaders(blockNumbers(11, 13))).thenReturn(fork);
+        when(nodeConnection.getLogsInRange(11, 13, topics, contractAddress)).thenReturn(new ArrayList<>(Arrays.asList(registerLog2)));
+
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 10);
+        shutdownThreads();
+
+        Assert.assertEquals(2, projectedState.getBlocks().size());
+        Assert.assertEquals(12, projectedState.getBlocks().getLast().getBlockNumber());
+        Assert.assertEquals(1, projectedState.getPlayers().size());
+        Assert.assertTrue(containsPlayer(projectedState.getPlayers(), player2));
+        // the fork point is found from the headers, without retrieving the logs of the stored blocks
+        verify(nodeConnection, never()).getLogs(anyLong(), anyString(), anySetOf(byte[].class), any(Address.class));
+    }
+
+    @Test
+    public void testCheckpointRestore() throws Exception {
+        Path checkpointFile = Files.createTempFile("checkpoint", ".bin");
+        Files.delete(checkpointFile);
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+        byte[] hash11 = getRandomAddressBytes();
+        List<Log> logs = Arrays.asList(deployLog,
+                TestingHelper.getRegisteredLog(deployLog.address, 11, player1, 0, hash11),
+                TestingHelper.getRegisteredLog(deployLog.address, 11, player2, 1, hash11),
+                TestingHelper.getSubmittedStatementLog(deployLog.address, 11, player1, 1, "Q".getBytes(), "H".getBytes(), 2, hash11),
+                TestingHelper.getVotedLog(deployLog.address, 11, player2, 1, "A".getBytes(), 3, hash11),
+                TestingHelper.getRevealedAnswerLog(deployLog.address, 11, 1, "A".getBytes(), 4, hash11),
+                TestingHelper.getOneTopicEvent(deployLog.address, 11, "GameStopped", 5, hash11),
+                TestingHelper.getDistributedPrizeLog(deployLog.address, 11, 1, 6, hash11));
+
+        byte[] hash12 = getRandomAddressBytes();
+        List<RpcResult<BlockHeader>> chain = headers(10, getRandomAddressBytes(), Hash, hash11, hash12, getRandomAddressBytes(), getRandomAddressBytes());
+        when(nodeConnection.getBlockHeaders(blockNumbers(10, 12))).thenReturn(chain.subList(0, 3));
+        when(nodeConnection.getBlockHeaders(blockNumbers(13, 14))).thenReturn(chain.subList(3, 5));
+        when(nodeConnection.getBlockHeaders(blockNumbers(14, 14))).thenReturn(chain.subList(4, 5));
+        when(nodeConnection.getLogsInRange(10, 12, topics, contractAddress)).thenReturn(new ArrayList<>(logs));
+        when(nodeConnection.getLogsInRange(13, 14, topics, contractAddress)).thenReturn(new ArrayList<>());
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(12L, 14L);
+
+        // a checkpoint is saved after each poll, the first one while the blocks of the logs are only 1 block deep
+        setupBoundedEventListener(0, 1, new CheckpointStore(checkpointFile, contractAddress, 1));
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 5);
+        shutdownThreads();
+        Assert.assertTrue(Files.exists(checkpointFile));
+        List<String> winners = projectedState.getWinners();
+
+        projectedState = new ProjectedState();
+        setupBoundedEventListener(0, 1, new CheckpointStore(checkpointFile, contractAddress, 1));
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 5);
+        shutdownThreads();
+        Files.delete(checkpointFile);
+
+        // the logs are only retrieved by the first run
+        verify(nodeConnection, times(1)).getLogsInRange(10, 12, topics, contractAddress);
+        Assert.assertEquals(2, projectedState.getBlocks().size());
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+        Assert.assertEquals(1, projectedState.getStatements().size());
+        Assert.assertEquals(1, projectedState.getVotes().size());
+        Assert.assertEquals(1, projectedState.getAnswers().size());
+        Assert.assertEquals(1, projectedState.getTopScore());
+        Assert.assertEquals(winners, projectedState.getWinners());
+        Assert.assertTrue(projectedState.getGameStatus().getStopped().value);
+        Assert.assertEquals(1, (int) projectedState.getGameStatus().getPrizeDistributed().value);
+    }
+
+    @Test
+    public void testReplayedBlockChangedWhileStopped() throws Exception {
+        Path directory = Files.createTempDirectory("logStore");
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+        LogStore logStore = new LogStore(directory, 1024);
+        new StatePopulator(new ProjectedState(), logStore).populate(Arrays.asList(deployLog,
+                TestingHelper.getRegisteredLog(deployLog.address, 11, player1, 0, null)));
+        logStore.close();
+
+        // block 11 was replaced while the application was stopped, and its header cannot be retrieved at first
+        byte[] hash11 = getRandomAddressBytes();
+        when(nodeConnection.getBlockHeaders(blockNumbers(11, 11)))
+                .thenReturn(Arrays.asList(RpcResult.unsuccessful("timeout")))
+                .thenReturn(headers(11, Hash, hash11));
+        when(nodeConnection.getLogs(10, "latest", topics, contractAddress)).thenReturn(new ArrayList<>(Arrays.asList(deployLog)));
+        when(nodeConnection.getLogsInRange(11, 11, topics, contractAddress))
+                .thenReturn(new ArrayList<>(Arrays.asList(TestingHelper.getRegisteredLog(deployLog.address, 11, player2, 0, hash11))));
+        when(blockNumberCollector.getCurrentBlockNumber()).thenReturn(11L);
+
+        logStore = new LogStore(directory, 1024);
+        eventListener = new EventListener(nodeConnection,
+                asyncNodeConnection,
+                blockNumberCollector,
+                new StatePopulator(projectedState, logStore),
+                deployLog.blockNumber,
+                pollingIntervalMillis,
+                5,
+                topics,
+                contractAddress,
+                0,
+                1,
+                null);
+        eventListenerThread = new Thread(eventListener);
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 5);
+        shutdownThreads();
+        logStore.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+
+        Assert.assertEquals(11, projectedState.getBlocks().getLast().getBlockNumber());
+        Assert.assertEquals(1, projectedState.getPlayers().size());
+        Assert.assertTrue(containsPlayer(projectedState.getPlayers(), player2));
+    }
+
     @Test
     public void testSuccessfulUnorderedBlockEvents() throws InterruptedException {
         Address player1 = new Address(TestingHelper.getRandomAddressBytes());
@@ -701,6 +1036,41 @@ public class EventListenerTest {
         shutdownThreads();
     }
 
+    // random hashes of the blocks from fromBlock to toBlock, with the deployment block first
+    private static byte[][] chainHashes(long fromBlock, long toBlock) {
+        byte[][] hashes = new byte[(int) (toBlock - fromBlock + 1)][];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = fromBlock + i == deployLog.blockNumber ? deployLog.blockHash : getRandomAddressBytes();
+        }
+        return hashes;
+    }
+
+    // headers of the catch-up windows of 10 blocks
+    private void stubHeaders(long firstBlockNumber, byte[] parentHash, byte[][] hashes) {
+        List<RpcResult<BlockHeader>> chain = headers(firstBlockNumber, parentHash, hashes);
+        for (int from = 0; from < hashes.length; from += 10) {
+            int to = Math.min(from + 10, hashes.length);
+            when(nodeConnection.getBlockHeaders(blockNumbers(firstBlockNumber + from, firstBlockNumber + to - 1))).thenReturn(chain.subList(from, to));
+        }
+    }
+
+    private static List<Long> blockNumbers(long fromBlock, long toBlock) {
+        List<Long> blockNumbers = new ArrayList<>();
+        for (long blockNumber = fromBlock; blockNumber <= toBlock; blockNumber++) {
+            blockNumbers.add(blockNumber);
+        }
+        return blockNumbers;
+    }
+
+    // headers of consecutive blocks, each one built on top of the previous one
+    private static List<RpcResult<BlockHeader>> headers(long firstBlockNumber, byte[] parentHash, byte[]... hashes) {
+        List<RpcResult<BlockHeader>> headers = new ArrayList<>();
+        for (int i = 0; i < hashes.length; i++) {
+            headers.add(RpcResult.successful(BlockHeader.of(firstBlockNumber + i, hashes[i], i == 0 ? parentHash : hashes[i - 1]), 0, TimeUnit.NANOSECONDS));
+        }
+        return headers;
+    }
+
     private boolean containsPlayer(Map<Integer, Player> playerMap, Address player) {
         types.Address internalAddress = new types.Address(player.getAddressBytes());
         for (Player p : playerMap.values()) {
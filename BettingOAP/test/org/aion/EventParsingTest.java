@@ -2,6 +2,7 @@ package org.aion;
 
 import org.junit.Assert;
 import org.junit.Test;
+import types.Address;
 import types.Answer;
 import types.Player;
 import types.Statement;
@@ -10,6 +11,8 @@ import util.Helper;
 import util.LogBuilder;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class EventParsingTest {
@@ -113,4 +116,47 @@ public class EventParsingTest {
         Assert.assertEquals(7, new BigInteger(data).intValue());
 
     }
+
+    @Test
+    public void testVoteRecords() {
+        // more votes than fit in one chunk of the arena
+        int count = 5000;
+        List<Vote> votes = new ArrayList<>();
+        List<byte[]> players = new ArrayList<>();
+        List<byte[]> transactionHashes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] player = TestingHelper.getRandomAddressBytes();
+            byte[] hash = TestingHelper.getRandomAddressBytes();
+            players.add(player);
+            transactionHashes.add(hash);
+            votes.add(Vote.from(Arrays.asList("Voted".getBytes(), player, BigInteger.valueOf(i).toByteArray()), ("A" + i % 3).getBytes(), hash, i));
+        }
+        for (int i = 0; i < count; i++) {
+            Vote v = new Vote(votes.get(i));
+            Assert.assertEquals(new Address(players.get(i)), v.getPlayerAddress());
+            Assert.assertEquals(i, v.getStatementId());
+            Assert.assertEquals("A" + i % 3, v.getGuessedAnswer());
+            Assert.assertEquals(Helper.bytesToHexStringWith0x(transactionHashes.get(i)), v.getTransactionHash());
+            Assert.assertEquals(i, v.getBlockNumber());
+        }
+    }
+
+    @Test
+    public void testRestoredRecords() {
+        Address player = new Address(TestingHelper.getRandomAddressBytes());
+        String hash = Helper.bytesToHexStringWith0x(transactionHash);
+
+        Player p = Player.of(player, hash, 5);
+        Assert.assertEquals(player, p.getPlayerAddress());
+        Assert.assertEquals(hash, p.getTransactionHash());
+        Assert.assertEquals(5, p.getBlockNumber());
+
+        Statement s = Statement.of(player, 3, "0x48", "Q", hash, 6);
+        Assert.assertEquals(player, s.getPlayerAddress());
+        Assert.assertEquals(3, s.getStatementId());
+        Assert.assertEquals("0x48", s.getAnswerHash());
+        Assert.assertEquals("Q", s.getStatementString());
+        Assert.assertEquals(hash, s.getTransactionHash());
+        Assert.assertEquals(6, s.getBlockNumber());
+    }
 }
@@ -0,0 +1,107 @@
+package org.aion;
+
+import org.junit.Assert;
+import org.junit.Test;
+import util.IntMap;
+import util.IntSet;
+import util.SharedIntSet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class IntCollectionsTest {
+
+    private Random random = new Random(7);
+
+    @Test
+    public void testIntSet() {
+        IntSet set = new IntSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            // small range, so values are removed and added again
+            int value = random.nextInt(2000) - 100;
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.add(value), set.add(value));
+            } else {
+                Assert.assertEquals(expected.remove(value), set.remove(value));
+            }
+        }
+        Assert.assertEquals(expected.size(), set.size());
+        Assert.assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+        for (int value = -100; value < 1900; value++) {
+            Assert.assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnlyCopy() {
+        IntSet set = new IntSet();
+        set.add(1);
+        IntSet copy = set.readOnlyCopy();
+        set.add(2);
+        Assert.assertEquals(1, copy.size());
+        copy.add(3);
+    }
+
+    @Test
+    public void testSharedIntSet() {
+        SharedIntSet set = new SharedIntSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Map<SharedIntSet, int[]> copies = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            int value = random.nextInt(2000) - 100;
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.add(value), set.add(value));
+            } else {
+                Assert.assertEquals(expected.remove(value), set.remove(value));
+            }
+            // copies must keep their values while the set keeps changing the shared chunks
+            if (i % 500 == 0) {
+                copies.put(set.readOnlyCopy(), expected.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        Assert.assertEquals(expected.size(), set.size());
+        Assert.assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+        for (int value = -100; value < 1900; value++) {
+            Assert.assertEquals(expected.contains(value), set.contains(value));
+        }
+        for (Map.Entry<SharedIntSet, int[]> copy : copies.entrySet()) {
+            Assert.assertArrayEquals(copy.getValue(), copy.getKey().toArray());
+            for (int value : copy.getValue()) {
+                Assert.assertTrue(copy.getKey().contains(value));
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSharedIntSetReadOnlyCopy() {
+        SharedIntSet set = new SharedIntSet();
+        set.add(1);
+        SharedIntSet copy = set.readOnlyCopy();
+        set.add(2);
+        Assert.assertEquals(1, copy.size());
+        Assert.assertEquals(1, copy.readOnlyCopy().size());
+        copy.remove(1);
+    }
+
+    @Test
+    public void testIntMap() {
+        IntMap<String> map = new IntMap<>();
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(2000) - 100;
+            if (random.nextBoolean()) {
+                String value = Integer.toString(i);
+                Assert.assertEquals(expected.put(key, value), map.put(key, value));
+            } else {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = -100; key < 1900; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.aion;
+
+import org.aion.harness.kernel.Address;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import state.LogStore;
+import state.ProjectedState;
+import state.StatePopulator;
+import util.Log;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class LogStoreTest {
+
+    private Path directory;
+    private LogStore logStore;
+    private Address contractAddress = new Address(new byte[32]);
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("logStore");
+        // small segments, so the logs are spread over several files
+        logStore = new LogStore(directory, 512);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        logStore.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReplayAfterReopen() throws IOException {
+        List<Log> logs = appendBlocks(10, 20);
+        logStore.close();
+        logStore = new LogStore(directory, 512);
+
+        Assert.assertEquals(20, logStore.getBlockCount());
+        Assert.assertEquals(29, logStore.getLastBlockNumber());
+        Assert.assertEquals(logs, replay(0));
+        Assert.assertEquals(logs.subList(10, 20), replay(20));
+    }
+
+    @Test
+    public void testTruncate() throws IOException {
+        List<Log> logs = appendBlocks(10, 20);
+        logStore.truncateAfter(14);
+        Assert.assertEquals(logs.subList(0, 5), replay(0));
+
+        // replacing a block truncates the blocks after it
+        Log replacement = TestingHelper.getRegisteredLog(contractAddress, 12, new Address(TestingHelper.getRandomAddressBytes()), 0, null);
+        logStore.appendBlock(12, Arrays.asList(replacement));
+        logStore.close();
+        logStore = new LogStore(directory, 512);
+
+        Assert.assertEquals(Arrays.asList(logs.get(0), logs.get(1), replacement), replay(0));
+    }
+
+    @Test
+    public void testIncompleteRecordIsDropped() throws IOException {
+        List<Log> logs = appendBlocks(10, 2);
+        logStore.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.sorted().reduce((a, b) -> b).get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        logStore = new LogStore(directory, 512);
+
+        Assert.assertEquals(logs.subList(0, 1), replay(0));
+        appendBlocks(11, 1);
+        Assert.assertEquals(2, logStore.getBlockCount());
+    }
+
+    @Test
+    public void testStatePopulatorRevert() {
+        StatePopulator statePopulator = new StatePopulator(new ProjectedState(), logStore);
+        Log deployLog = TestingHelper.getOneTopicEvent(contractAddress, 10, "BettingContractDeployed", 0, null);
+        Log registeredLog = TestingHelper.getRegisteredLog(contractAddress, 11, new Address(TestingHelper.getRandomAddressBytes()), 0, null);
+        statePopulator.populate(Arrays.asList(deployLog, registeredLog));
+        Assert.assertEquals(Arrays.asList(deployLog, registeredLog), replay(0));
+
+        statePopulator.revertBlocks(1);
+        Assert.assertEquals(Arrays.asList(deployLog), replay(0));
+
+        statePopulator.clear();
+        Assert.assertEquals(0, logStore.getBlockCount());
+    }
+
+    @Test
+    public void testStatePopulatorReplayAfterRestart() throws IOException {
+        Log deployLog = TestingHelper.getOneTopicEvent(contractAddress, 10, "BettingContractDeployed", 0, null);
+        Log registeredLog = TestingHelper.getRegisteredLog(contractAddress, 11, new Address(TestingHelper.getRandomAddressBytes()), 0, null);
+        Log registeredLog2 = TestingHelper.getRegisteredLog(contractAddress, 11, new Address(TestingHelper.getRandomAddressBytes()), 1, null);
+        new StatePopulator(new ProjectedState(), logStore).populate(Arrays.asList(deployLog, registeredLog, registeredLog2));
+        logStore.close();
+        logStore = new LogStore(directory, 512);
+
+        ProjectedState projectedState = new ProjectedState();
+        StatePopulator statePopulator = new StatePopulator(projectedState, logStore);
+        Assert.assertEquals(11, statePopulator.replayLogStore().getBlockNumber());
+        Assert.assertEquals(2, projectedState.getBlocks().size());
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+
+        // the following blocks are appended after the replayed ones
+        Log registeredLog3 = TestingHelper.getRegisteredLog(contractAddress, 12, new Address(TestingHelper.getRandomAddressBytes()), 0, null);
+        statePopulator.populate(Arrays.asList(registeredLog3));
+        Assert.assertEquals(Arrays.asList(deployLog, registeredLog, registeredLog2, registeredLog3), replay(0));
+    }
+
+    // appends one Registered log per block
+    private List<Log> appendBlocks(long firstBlockNumber, int count) {
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Log log = TestingHelper.getRegisteredLog(contractAddress, firstBlockNumber + i, new Address(TestingHelper.getRandomAddressBytes()), 0, null);
+            logStore.appendBlock(log.blockNumber, Arrays.asList(log));
+            logs.add(log);
+        }
+        return logs;
+    }
+
+    private List<Log> replay(long fromBlock) {
+        List<Log> logs = new ArrayList<>();
+        logStore.replay(fromBlock, logs::add);
+        return logs;
+    }
+}
@@ -4,13 +4,16 @@ import org.aion.harness.result.RpcResult;
 import org.apache.commons.codec.binary.Hex;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.mockito.stubbing.Answer;
+import server.AddressSubscriptionApplication;
 import server.SimpleHttpServer;
+import server.StateEventBroadcaster;
 import state.ProjectedState;
 import state.UserState;
 import types.Player;
 import types.Statement;
 import types.Vote;
 import util.LogBuilder;
+import util.AsyncNodeConnection;
 import util.NodeConnection;
 import util.QueuePopulator;
 import worker.BlockNumberCollector;
@@ -42,9 +45,9 @@ public class MockServer {
         projectedState = new ProjectedState();
 
         blockNumberCollector = new BlockNumberCollector(nodeConnection, pollingIntervalMillis, 3);
-        userState = new UserState(projectedState, nodeConnection, blockNumberCollector);
+        userState = new UserState(projectedState, mock(AsyncNodeConnection.class), blockNumberCollector);
         LinkedBlockingDeque<byte[]> rawTransactions = new LinkedBlockingDeque<>(100);
-        queuePopulator = new QueuePopulator(rawTransactions);
+        queuePopulator = new QueuePopulator(rawTransactions, 1000, 60_000);
 
         blockNumberCollectorThread = new Thread(blockNumberCollector);
         populateProjectedState();
@@ -60,6 +63,7 @@ public class MockServer {
         for (int i = 0; i < playerSize; i++) {
             projectedState.addPlayer(Player.from(TestingHelper.getRandomAddressBytes(), TestingHelper.getRandomAddressBytes(), currentBlockNumber));
         }
+        projectedState.publishSnapshot();
         Player p = projectedState.getPlayers().get(1);
         for (int i = 0; i < statementSize; i++) {
             byte[] data = LogBuilder.parseData("0x52616e646f6d205175657374696f6e205375626d6974746564");
@@ -96,11 +100,17 @@ public class MockServer {
         }
 
         projectedState.distributedPrize(BigInteger.TEN.toByteArray(), TestingHelper.getRandomAddressBytes(), currentBlockNumber);
+        projectedState.publishSnapshot();
     }
 
 
     private static HttpServer startServer() throws IOException {
-        HttpServer server = SimpleHttpServer.startServer(userState, queuePopulator, "localhost", "8025");
+        HttpServer server = SimpleHttpServer.startServer(userState,
+                queuePopulator,
+                new StateEventBroadcaster(userState),
+                new AddressSubscriptionApplication(blockNumberCollector, 100),
+                "localhost",
+                "8025");
         server.start();
         return server;
     }
@@ -0,0 +1,275 @@
+package org.aion;
+
+import com.sun.net.httpserver.HttpServer;
+import org.aion.harness.kernel.Address;
+import org.aion.harness.main.types.ReceiptHash;
+import org.aion.harness.result.RpcResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import util.AsyncNodeConnection;
+import util.Helper;
+import util.Log;
+import util.NodeConnection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NodeConnectionTest {
+
+    private HttpServer node;
+    private AtomicInteger requestCount = new AtomicInteger();
+    private AtomicInteger concurrentRequests = new AtomicInteger();
+    private AtomicInteger maxConcurrentRequests = new AtomicInteger();
+    private NodeConnection nodeConnection;
+    private Address contractAddress = new Address(TestingHelper.getRandomAddressBytes());
+    private JSONArray logs = new JSONArray();
+    // if set, returned as is for batch requests
+    private volatile String batchOutput;
+    private volatile String lastRequest;
+
+    @Before
+    public void setup() throws IOException {
+        // responds to each call with its own param. Batch responses are in reverse order, with an error for the second call
+        node = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        node.setExecutor(Executors.newCachedThreadPool());
+        node.createContext("/", exchange -> {
+            requestCount.incrementAndGet();
+            int concurrent = concurrentRequests.incrementAndGet();
+            maxConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+
+            String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            lastRequest = request;
+            String output;
+            if (request.startsWith("[") && batchOutput != null) {
+                output = batchOutput;
+            } else if (request.startsWith("[")) {
+                JSONArray calls = new JSONArray(request);
+                JSONArray responses = new JSONArray();
+                for (int i = calls.length() - 1; i >= 0; i--) {
+                    JSONObject call = calls.getJSONObject(i);
+                    JSONObject response = new JSONObject().put("jsonrpc", "2.0").put("id", call.getInt("id"));
+                    if (call.getInt("id") == 1) {
+                        response.put("error", new JSONObject().put("code", -32000).put("message", "rejected"));
+                    } else {
+                        response.put("result", call.getJSONArray("params").getString(0));
+                    }
+                    responses.put(response);
+                }
+                output = responses.toString();
+            } else if (request.contains("eth_getLogs")) {
+                output = new JSONObject().put("jsonrpc", "2.0").put("id", 1).put("result", logs).toString();
+            } else {
+                JSONObject call = new JSONObject(request);
+                output = new JSONObject().put("jsonrpc", "2.0").put("id", call.getInt("id")).put("result", call.getJSONArray("params").getString(0)).toString();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            concurrentRequests.decrementAndGet();
+            byte[] body = output.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        node.start();
+        nodeConnection = new NodeConnection("localhost", String.valueOf(node.getAddress().getPort()));
+    }
+
+    @After
+    public void shutdown() {
+        node.stop(0);
+    }
+
+    @Test
+    public void testSendSignedTransactions() {
+        List<byte[]> transactions = Arrays.asList(TestingHelper.getRandomAddressBytes(),
+                TestingHelper.getRandomAddressBytes(),
+                TestingHelper.getRandomAddressBytes());
+
+        List<RpcResult<ReceiptHash>> results = nodeConnection.sendSignedTransactions(transactions);
+
+        Assert.assertEquals(1, requestCount.get());
+        Assert.assertEquals(3, results.size());
+        Assert.assertArrayEquals(transactions.get(0), results.get(0).getResult().getHash());
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertArrayEquals(transactions.get(2), results.get(2).getResult().getHash());
+    }
+
+    @Test
+    public void testGetPendingNonces() {
+        List<Address> addresses = Arrays.asList(new Address(Helper.hexStringToBytes("00000000000000000000000000000000000000000000000000000000000000aa")),
+                new Address(TestingHelper.getRandomAddressBytes()));
+
+        List<RpcResult<BigInteger>> results = nodeConnection.getPendingNonces(addresses);
+
+        Assert.assertEquals(1, requestCount.get());
+        Assert.assertEquals("pending", new JSONArray(lastRequest).getJSONObject(0).getJSONArray("params").getString(1));
+        Assert.assertEquals(BigInteger.valueOf(0xaa), results.get(0).getResult());
+        Assert.assertFalse(results.get(1).isSuccess());
+    }
+
+    @Test
+    public void testMalformedBatchResponses() {
+        List<byte[]> transactions = Arrays.asList(TestingHelper.getRandomAddressBytes(),
+                TestingHelper.getRandomAddressBytes(),
+                TestingHelper.getRandomAddressBytes(),
+                TestingHelper.getRandomAddressBytes());
+        String hash = Helper.bytesToHexString(transactions.get(3));
+        batchOutput = "[1, \"response\", null, {\"id\":\"zero\",\"result\":\"0x00\"}, {\"id\":{},\"result\":\"0x00\"}, "
+                + "{\"id\":1.5,\"result\":\"0x00\"}, {\"id\":3,\"result\":\"" + hash + "\"}]";
+
+        List<RpcResult<ReceiptHash>> results = nodeConnection.sendSignedTransactions(transactions);
+
+        Assert.assertEquals(4, results.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(results.get(i).isSuccess());
+            Assert.assertTrue(results.get(i).getError().contains("No response was returned"));
+        }
+        Assert.assertArrayEquals(transactions.get(3), results.get(3).getResult().getHash());
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        Assert.assertTrue(nodeConnection.getTransactionReceipts(Arrays.asList()).isEmpty());
+        Assert.assertEquals(0, requestCount.get());
+    }
+
+    @Test
+    public void testAsyncInFlightWindow() throws Exception {
+        AsyncNodeConnection asyncNodeConnection = new AsyncNodeConnection("localhost", String.valueOf(node.getAddress().getPort()), 2);
+        List<CompletableFuture<RpcResult<BigInteger>>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(asyncNodeConnection.getNonce(new Address(Helper.hexStringToBytes(String.format("%064x", i)))));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            RpcResult<BigInteger> result = futures.get(i).get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertEquals(BigInteger.valueOf(i), result.getResult());
+        }
+        Assert.assertEquals(10, requestCount.get());
+        Assert.assertTrue(maxConcurrentRequests.get() <= 2);
+    }
+
+    @Test
+    public void testAsyncInFlightWindowFromManyThreads() throws Exception {
+        AsyncNodeConnection asyncNodeConnection = new AsyncNodeConnection("localhost", String.valueOf(node.getAddress().getPort()), 2);
+        List<CompletableFuture<RpcResult<BigInteger>>> futures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> callers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread caller = new Thread(() -> {
+                for (int i = 0; i < 10; i++) {
+                    futures.add(asyncNodeConnection.getNonce(new Address(TestingHelper.getRandomAddressBytes())));
+                }
+            });
+            callers.add(caller);
+            caller.start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        // every queued request is sent once a permit is released
+        for (CompletableFuture<RpcResult<BigInteger>> future : futures) {
+            Assert.assertTrue(future.get(10, TimeUnit.SECONDS).isSuccess());
+        }
+        Assert.assertEquals(80, requestCount.get());
+        Assert.assertTrue(maxConcurrentRequests.get() <= 2);
+    }
+
+    @Test
+    public void testAsyncSendSignedTransactions() throws Exception {
+        AsyncNodeConnection asyncNodeConnection = new AsyncNodeConnection("localhost", String.valueOf(node.getAddress().getPort()), 2);
+        List<byte[]> transactions = Arrays.asList(TestingHelper.getRandomAddressBytes(),
+                TestingHelper.getRandomAddressBytes(),
+                TestingHelper.getRandomAddressBytes());
+
+        List<RpcResult<ReceiptHash>> results = asyncNodeConnection.sendSignedTransactions(transactions).get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, requestCount.get());
+        Assert.assertEquals(3, results.size());
+        Assert.assertArrayEquals(transactions.get(0), results.get(0).getResult().getHash());
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertArrayEquals(transactions.get(2), results.get(2).getResult().getHash());
+    }
+
+    @Test
+    public void testAsyncGetLogsInRangeUnreachableNode() throws Exception {
+        AsyncNodeConnection asyncNodeConnection = new AsyncNodeConnection("localhost", String.valueOf(node.getAddress().getPort()), 1);
+        node.stop(0);
+
+        CompletableFuture<List<Log>> result = asyncNodeConnection.getLogsInRange(0, 10, Collections.singleton(TestingHelper.getRandomAddressBytes()), contractAddress);
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            // the failure is not mistaken for a range without logs
+        }
+        // the permit of the failed call was returned
+        Assert.assertTrue(asyncNodeConnection.getNonce(new Address(TestingHelper.getRandomAddressBytes())).get(5, TimeUnit.SECONDS).getError() != null);
+    }
+
+    @Test
+    public void testGetLogs() throws Exception {
+        byte[] topic = TestingHelper.getRandomAddressBytes();
+        byte[] blockHash = TestingHelper.getRandomAddressBytes();
+        logs.put(getLogJson(contractAddress, topic, blockHash, "0x1f", "0x2"));
+        logs.put(getLogJson(new Address(TestingHelper.getRandomAddressBytes()), topic, blockHash, "0x20", "0x0"));
+        logs.put(getLogJson(contractAddress, topic, blockHash, "0x21", "0x0"));
+
+        List<Log> result = nodeConnection.getLogs(0, "latest", Collections.singleton(topic), contractAddress);
+
+        Assert.assertEquals(2, result.size());
+        Log log = result.get(0);
+        Assert.assertEquals(contractAddress, log.address);
+        Assert.assertEquals(0x1f, log.blockNumber);
+        Assert.assertEquals(2, log.logIndex);
+        Assert.assertEquals(1, log.transactionIndex);
+        Assert.assertArrayEquals(blockHash, log.blockHash);
+        Assert.assertArrayEquals(topic, log.copyOfTopics().get(0));
+        Assert.assertArrayEquals(new byte[]{0x01, 0x02}, log.copyOfData());
+        Assert.assertEquals(0x21, result.get(1).blockNumber);
+    }
+
+    @Test
+    public void testUnreachableNode() throws InterruptedException {
+        node.stop(0);
+        List<RpcResult<ReceiptHash>> results = nodeConnection.sendSignedTransactions(Arrays.asList(new byte[32], new byte[32]));
+        Assert.assertEquals(2, results.size());
+        Assert.assertFalse(results.get(0).isSuccess());
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertTrue(nodeConnection.getLogs(0, "latest", Collections.singleton(new byte[32]), contractAddress).isEmpty());
+    }
+
+    private static JSONObject getLogJson(Address address, byte[] topic, byte[] blockHash, String blockNumber, String logIndex) {
+        return new JSONObject()
+                .put("address", Helper.bytesToHexStringWith0x(address.getAddressBytes()))
+                .put("data", "0x0102")
+                .put("topics", new JSONArray().put(Helper.bytesToHexStringWith0x(topic)))
+                .put("blockNumber", blockNumber)
+                .put("blockHash", Helper.bytesToHexStringWith0x(blockHash))
+                .put("transactionIndex", "0x1")
+                .put("logIndex", logIndex)
+                .put("transactionHash", Helper.bytesToHexStringWith0x(TestingHelper.getRandomAddressBytes()))
+                .put("removed", false);
+    }
+}
@@ -15,10 +15,14 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.stubbing.Answer;
+import server.AddressSubscriptionApplication;
 import server.SimpleHttpServer;
+import server.StateEventBroadcaster;
 import state.ProjectedState;
 import state.StatePopulator;
 import state.UserState;
+import types.SentTransaction;
+import types.TransactionDetails;
 import util.*;
 import worker.BlockNumberCollector;
 import worker.EventListener;
@@ -29,8 +33,12 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.InboundSseEvent;
+import javax.ws.rs.sse.SseEventSource;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
@@ -41,12 +49,13 @@ import java.util.*;
 import java.util.concurrent.*;
 
 import static org.aion.TestingHelper.*;
-import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class RESTInteractionTest {
     private NodeConnection nodeConnection = mock(NodeConnection.class);
+    private AsyncNodeConnection asyncNodeConnection = mock(AsyncNodeConnection.class);
     private EventListener eventListener;
     private Log deployLog;
     private byte[] hash = new byte[32];
@@ -66,6 +75,8 @@ public class RESTInteractionTest {
 
     private long currentBlockNumber = 10;
     private QueuePopulator queuePopulator;
+    private StateEventBroadcaster stateEventBroadcaster;
+    private AddressSubscriptionApplication addressSubscriptionApplication;
 
     Set<byte[]> topics = TestingHelper.getContractTopics();
 
@@ -73,6 +84,8 @@ public class RESTInteractionTest {
     public void setup() throws InterruptedException {
         URI = SimpleHttpServer.getBaseUri("localhost", "8025");
         when(nodeConnection.blockNumber()).thenAnswer(getNextBlock);
+        // the lanes of new senders start from the nonce of their first transaction
+        when(asyncNodeConnection.getPendingNonces(anyListOf(Address.class))).thenAnswer(eachCompletes(RpcResult.unsuccessful("no pending nonce")));
 
         deployLog = TestingHelper.getOneTopicEvent(contractAddress,
                 10,
@@ -96,22 +109,31 @@ public class RESTInteractionTest {
 
 
         blockNumberCollector = new BlockNumberCollector(nodeConnection, pollingIntervalMillis, 3);
-        userState = new UserState(projectedState, nodeConnection, blockNumberCollector);
+        userState = new UserState(projectedState, asyncNodeConnection, blockNumberCollector);
+
+        stateEventBroadcaster = new StateEventBroadcaster(userState);
+        statePopulator.addListener(stateEventBroadcaster);
+
+        addressSubscriptionApplication = new AddressSubscriptionApplication(blockNumberCollector, 100);
+        statePopulator.addListener(addressSubscriptionApplication);
+        userState.addTransactionListener(addressSubscriptionApplication);
 
         LinkedBlockingDeque<byte[]> rawTransactions = new LinkedBlockingDeque<>(100);
-        LinkedBlockingDeque<Pair<ReceiptHash, Long>> transactionHashes = new LinkedBlockingDeque<>(100);
+        LinkedBlockingDeque<SentTransaction> transactionHashes = new LinkedBlockingDeque<>(100);
 
         transactionSender = new TransactionSender(blockNumberCollector,
                 rawTransactions,
                 transactionHashes,
-                nodeConnection,
+                asyncNodeConnection,
                 userState,
                 pollingIntervalMillis,
-                1);
+                1,
+                2,
+                pollingIntervalMillis * 4);
 
         receiptCollector = new ReceiptCollector(blockNumberCollector,
                 transactionHashes,
-                nodeConnection,
+                asyncNodeConnection,
                 userState,
                 2,
                 pollingIntervalMillis,
@@ -122,7 +144,8 @@ public class RESTInteractionTest {
         blockNumberCollectorThread = new Thread(blockNumberCollector);
         eventListenerThread = new Thread(eventListener);
 
-        queuePopulator = new QueuePopulator(rawTransactions);
+        queuePopulator = new QueuePopulator(rawTransactions, 1000, 60_000);
+        userState.addTransactionListener(queuePopulator);
     }
 
     private void startThreads() throws IOException {
@@ -135,6 +158,8 @@ public class RESTInteractionTest {
 
     @After
     public void shutdownThreads() throws InterruptedException {
+        stateEventBroadcaster.close();
+        addressSubscriptionApplication.close();
         server.shutdown();
         eventListener.shutdown();
         blockNumberCollector.shutdown();
@@ -321,17 +346,17 @@ public class RESTInteractionTest {
                         0,
                         0))), 1);
 
-        when(nodeConnection.sendSignedTransaction(any(byte[].class))).thenReturn(
+        when(asyncNodeConnection.sendSignedTransactions(anyListOf(byte[].class))).thenAnswer(eachCompletes(
                 RpcResult.successful(
                         new ReceiptHash(receipt.getTransactionHash()),
                         System.currentTimeMillis(),
-                        TimeUnit.MILLISECONDS));
+                        TimeUnit.MILLISECONDS)));
 
-        when(nodeConnection.getTransactionReceipt(any(ReceiptHash.class))).thenReturn(
+        when(asyncNodeConnection.getTransactionReceipts(anyListOf(ReceiptHash.class))).thenAnswer(eachCompletes(
                 RpcResult.successful(
                         receipt,
                         System.currentTimeMillis(),
-                        TimeUnit.MILLISECONDS));
+                        TimeUnit.MILLISECONDS)));
 
         when(nodeConnection.getLogs(deployLog.blockNumber, "latest", topics, contractAddress)).thenReturn(Arrays.asList(deployLog));
 
@@ -346,6 +371,72 @@ public class RESTInteractionTest {
         c1.close();
     }
 
+    @Test
+    public void sendTransactionQueueFull() throws InvalidKeySpecException, NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException {
+        SignedTransaction rawTransaction = TransactionCreator.buildRawTransaction(
+                PrivateKey.random(),
+                BigInteger.ONE,
+                new org.aion.harness.kernel.Address(TestingHelper.getRandomAddressBytes()),
+                new byte[0],
+                BigInteger.ONE);
+
+        // the sender is not started, so the queue stays full
+        while (queuePopulator.offerRawTransaction(TestingHelper.getRandomAddressBytes(), new byte[0]) == QueuePopulator.Admission.ADMITTED) ;
+        long rejectedCount = queuePopulator.getRejectedCount();
+        server = startServer();
+
+        Client c1 = getNewClient();
+        WebTarget target = c1.target(URI);
+        Response response = makePOSTCall(target, Helper.bytesToHexString(rawTransaction.getSignedTransactionBytes()));
+        Assert.assertEquals(Response.Status.TOO_MANY_REQUESTS.getStatusCode(), response.getStatus());
+        long retryAfter = Long.parseLong(response.getHeaderString("Retry-After"));
+        Assert.assertTrue(retryAfter >= 1 && retryAfter <= 60);
+        Assert.assertEquals(rejectedCount + 1, queuePopulator.getRejectedCount());
+
+        Response metrics = target.path("state/metrics").request().get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), metrics.getStatus());
+        JSONObject counters = new JSONObject(metrics.readEntity(String.class));
+        Assert.assertEquals(rejectedCount + 1, counters.getLong("rejected"));
+        Assert.assertEquals(queuePopulator.getAdmittedCount(), counters.getLong("admitted"));
+        Assert.assertEquals(0, counters.getLong("duplicates"));
+        Assert.assertEquals(counters.getLong("admitted"), counters.getInt("queued"));
+
+        // reads are still served
+        Response read = target.path("state/getTransactions").queryParam("address", "a0c7ef65be0ea76f0a6691e1b7a78e8b09c7e31a23964cc81d74f56a47c2f4bf").request().get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), read.getStatus());
+        c1.close();
+    }
+
+    @Test
+    public void sendTransactionDuplicate() throws InvalidKeySpecException, NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException {
+        PrivateKey privateKey = PrivateKey.random();
+        SignedTransaction rawTransaction = TransactionCreator.buildRawTransaction(
+                privateKey,
+                BigInteger.ONE,
+                new org.aion.harness.kernel.Address(TestingHelper.getRandomAddressBytes()),
+                new byte[0],
+                BigInteger.ONE);
+        String transactionHash = Helper.bytesToHexString(rawTransaction.getTransactionHash());
+        server = startServer();
+
+        Client c1 = getNewClient();
+        WebTarget target = c1.target(URI);
+        for (int i = 0; i < 2; i++) {
+            Response response = makePOSTCall(target, Helper.bytesToHexString(rawTransaction.getSignedTransactionBytes()));
+            Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            Assert.assertEquals(transactionHash, response.readEntity(String.class));
+        }
+        Assert.assertEquals(1, queuePopulator.getAdmittedCount());
+        Assert.assertEquals(1, queuePopulator.getDuplicateCount());
+
+        // a transaction that could not be sealed can be sent again
+        userState.putTransaction(privateKey.getAddress(), TransactionDetails.fromFailedTransaction(rawTransaction.getTransactionHash()));
+        Response response = makePOSTCall(target, Helper.bytesToHexString(rawTransaction.getSignedTransactionBytes()));
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertEquals(2, queuePopulator.getAdmittedCount());
+        c1.close();
+    }
+
     @Test
     public void testGetVotesMulti() throws InterruptedException, IOException {
         int clientSize = 100;
@@ -506,6 +597,61 @@ public class RESTInteractionTest {
         c1.close();
     }
 
+    @Test
+    public void testGetLeaderboard() throws IOException, InterruptedException {
+        Client c1 = getNewClient();
+        WebTarget target1 = c1.target(URI);
+
+        Address player1 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player2 = new Address(TestingHelper.getRandomAddressBytes());
+        Address player3 = new Address(TestingHelper.getRandomAddressBytes());
+
+        long blockNumber = 100;
+        List<Log> logs2 = new ArrayList<>(Arrays.asList(
+                TestingHelper.getRegisteredLog(deployLog.address, blockNumber, player1, 0, hash),
+                TestingHelper.getRegisteredLog(deployLog.address, blockNumber, player2, 1, hash),
+                TestingHelper.getRegisteredLog(deployLog.address, blockNumber, player3, 2, hash),
+                TestingHelper.getSubmittedStatementLog(deployLog.address, blockNumber, player1, 1, "Q".getBytes(), "H".getBytes(), 3, hash),
+                TestingHelper.getSubmittedStatementLog(deployLog.address, blockNumber, player1, 2, "Q".getBytes(), "H".getBytes(), 4, hash),
+                TestingHelper.getVotedLog(deployLog.address, blockNumber, player1, 1, "A".getBytes(), 5, hash),
+                TestingHelper.getVotedLog(deployLog.address, blockNumber, player1, 2, "A".getBytes(), 6, hash),
+                TestingHelper.getVotedLog(deployLog.address, blockNumber, player2, 1, "A".getBytes(), 7, hash),
+                TestingHelper.getVotedLog(deployLog.address, blockNumber, player3, 1, "B".getBytes(), 8, hash),
+                getOneTopicEvent(player1, blockNumber, "GameStopped", 9, hash),
+                getRevealedAnswerLog(deployLog.address, blockNumber, 1, "A".getBytes(), 10, hash),
+                getRevealedAnswerLog(deployLog.address, blockNumber, 2, "A".getBytes(), 11, hash),
+                TestingHelper.getDistributedPrizeLog(player1, blockNumber, 1, 12, hash)));
+
+        List<Log> logs1 = new ArrayList<>(logs2);
+        logs1.add(deployLog);
+
+        when(nodeConnection.getLogs(deployLog.blockNumber, "latest", topics, contractAddress)).thenReturn(logs1);
+        when(nodeConnection.getLogs(blockNumber, "latest", topics, contractAddress)).thenReturn(logs2);
+
+        startThreads();
+
+        JSONArray firstPage = new JSONArray(getLeaderboard(target1, 0, 2));
+        Assert.assertEquals(2, firstPage.length());
+        Assert.assertEquals(1, firstPage.getJSONObject(0).getInt("rank"));
+        Assert.assertEquals(2, firstPage.getJSONObject(0).getInt("score"));
+        Assert.assertEquals(Helper.bytesToHexStringWith0x(player1.getAddressBytes()),
+                firstPage.getJSONObject(0).getJSONObject("playerAddress").getString("addressString"));
+        Assert.assertEquals(2, firstPage.getJSONObject(1).getInt("rank"));
+        Assert.assertEquals(1, firstPage.getJSONObject(1).getInt("score"));
+
+        JSONArray secondPage = new JSONArray(getLeaderboard(target1, 2, 2));
+        Assert.assertEquals(1, secondPage.length());
+        Assert.assertEquals(3, secondPage.getJSONObject(0).getInt("rank"));
+        Assert.assertEquals(0, secondPage.getJSONObject(0).getInt("score"));
+        Assert.assertEquals(Helper.bytesToHexStringWith0x(player3.getAddressBytes()),
+                secondPage.getJSONObject(0).getJSONObject("playerAddress").getString("addressString"));
+
+        JSONObject gameObj = new JSONObject(getGameStatus(target1));
+        Assert.assertEquals(1, gameObj.getJSONArray("winners").length());
+
+        c1.close();
+    }
+
     @Test
     public void testGetNonce() throws IOException, InterruptedException {
         Client c1 = getNewClient();
@@ -513,7 +659,7 @@ public class RESTInteractionTest {
         org.aion.harness.kernel.Address player = new org.aion.harness.kernel.Address(TestingHelper.getRandomAddressBytes());
 
         when(nodeConnection.getLogs(deployLog.blockNumber, "latest", topics, contractAddress)).thenReturn(Arrays.asList(deployLog));
-        when(nodeConnection.getNonce(player)).thenReturn(RpcResult.successful(new BigInteger("10", 16), System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+        when(asyncNodeConnection.getNonce(player)).thenReturn(CompletableFuture.completedFuture(RpcResult.successful(new BigInteger("10", 16), System.currentTimeMillis(), TimeUnit.MILLISECONDS)));
 
         startThreads();
 
@@ -523,6 +669,78 @@ public class RESTInteractionTest {
         c1.close();
     }
 
+    @Test
+    public void testNotModified() throws IOException, InterruptedException {
+        Client c1 = getNewClient();
+        WebTarget target1 = c1.target(URI);
+        Address player = new Address(TestingHelper.getRandomAddressBytes());
+
+        List<Log> logs = Arrays.asList(deployLog,
+                TestingHelper.getRegisteredLog(deployLog.address, deployLog.blockNumber, player, 1, hash));
+
+        // keep the block number constant so the state tag does not change between requests
+        when(nodeConnection.blockNumber()).thenReturn(RpcResult.successful(20L, System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+        when(nodeConnection.getLogs(deployLog.blockNumber, "latest", topics, contractAddress)).thenReturn(logs);
+
+        startThreads();
+
+        Response response = target1.path("state/allPlayers").request().get();
+        Assert.assertEquals(200, response.getStatus());
+        EntityTag tag = response.getEntityTag();
+        Assert.assertNotNull(tag);
+        Assert.assertEquals(1, new JSONArray(response.readEntity(String.class)).length());
+
+        response = target1.path("state/allPlayers").request().header(HttpHeaders.IF_NONE_MATCH, tag).get();
+        Assert.assertEquals(304, response.getStatus());
+        Assert.assertFalse(response.hasEntity());
+
+        response = target1.path("state/allPlayers").request().header(HttpHeaders.IF_NONE_MATCH, new EntityTag("0-0")).get();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals(tag, response.getEntityTag());
+
+        response = target1.path("state/gameStatus").request().header(HttpHeaders.IF_NONE_MATCH, tag).get();
+        Assert.assertEquals(304, response.getStatus());
+
+        c1.close();
+    }
+
+    @Test
+    public void testStateEvents() throws IOException, InterruptedException {
+        Client c1 = getNewClient();
+        WebTarget target1 = c1.target(URI);
+        Address player = new Address(TestingHelper.getRandomAddressBytes());
+
+        when(nodeConnection.getLogs(deployLog.blockNumber, "latest", topics, contractAddress)).thenReturn(Arrays.asList(deployLog));
+
+        startThreads();
+
+        BlockingQueue<InboundSseEvent> events = new LinkedBlockingQueue<>();
+        SseEventSource eventSource = SseEventSource.target(target1.path("state/events")).build();
+        eventSource.register(events::add);
+        eventSource.open();
+        Thread.sleep(200);
+
+        long blockNumber = deployLog.blockNumber + 1;
+        when(nodeConnection.getLogs(deployLog.blockNumber, "latest", topics, contractAddress)).thenReturn(Arrays.asList(deployLog,
+                TestingHelper.getRegisteredLog(deployLog.address, blockNumber, player, 0, hash)));
+
+        InboundSseEvent event = events.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(event);
+        Assert.assertEquals("delta", event.getName());
+
+        JSONObject delta = new JSONObject(event.readData());
+        Assert.assertEquals(blockNumber, delta.getLong("blockNumber"));
+        Assert.assertEquals(1, delta.getJSONObject("players").length());
+        JSONObject playerObj = delta.getJSONObject("players").getJSONObject(delta.getJSONObject("players").keys().next());
+        Assert.assertEquals(Helper.bytesToHexStringWith0x(player.getAddressBytes()),
+                playerObj.getJSONObject("playerAddress").getString("addressString"));
+        Assert.assertEquals(0, delta.getJSONObject("votes").length());
+        Assert.assertTrue(delta.isNull("game"));
+
+        eventSource.close();
+        c1.close();
+    }
+
     private static String getStatements(WebTarget target) {
         return target.path("state/allStatements").request().get(String.class);
     }
@@ -551,6 +769,10 @@ public class RESTInteractionTest {
         return target.path("state/gameStatus").request().get(String.class);
     }
 
+    private static String getLeaderboard(WebTarget target, int offset, int limit) {
+        return target.queryParam("offset", offset).queryParam("limit", limit).path("state/leaderboard").request().get(String.class);
+    }
+
     private static String getNonce(WebTarget target, String address) {
         return target.queryParam("address", address).path("state/getNonce").request().get(String.class);
     }
@@ -560,7 +782,12 @@ public class RESTInteractionTest {
     }
 
     private HttpServer startServer() throws IOException {
-        HttpServer server = SimpleHttpServer.startServer(userState, queuePopulator, "localhost", "8025");
+        HttpServer server = SimpleHttpServer.startServer(userState,
+                queuePopulator,
+                stateEventBroadcaster,
+                addressSubscriptionApplication,
+                "localhost",
+                "8025");
         server.start();
         return server;
     }
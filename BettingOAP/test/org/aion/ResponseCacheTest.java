@@ -0,0 +1,41 @@
+package org.aion;
+
+import org.junit.Assert;
+import org.junit.Test;
+import server.ResponseCache;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void testReuseForSameVersionAndBlock() {
+        ResponseCache responseCache = new ResponseCache();
+        AtomicInteger calls = new AtomicInteger();
+
+        byte[] first = responseCache.get("allPlayers", 1, 10, () -> Arrays.asList(calls.incrementAndGet(), "a"));
+        byte[] second = responseCache.get("allPlayers", 1, 10, () -> Arrays.asList(calls.incrementAndGet(), "a"));
+
+        Assert.assertEquals(1, calls.get());
+        Assert.assertSame(first, second);
+        Assert.assertEquals("[1,\"a\"]", new String(first));
+    }
+
+    @Test
+    public void testInvalidation() {
+        ResponseCache responseCache = new ResponseCache();
+        AtomicInteger calls = new AtomicInteger();
+
+        responseCache.get("allPlayers", 1, 10, calls::incrementAndGet);
+        // new state version
+        Assert.assertEquals("2", new String(responseCache.get("allPlayers", 2, 10, calls::incrementAndGet)));
+        // new block number
+        Assert.assertEquals("3", new String(responseCache.get("allPlayers", 2, 11, calls::incrementAndGet)));
+        // different endpoint
+        Assert.assertEquals("4", new String(responseCache.get("allVotes", 2, 11, calls::incrementAndGet)));
+        Assert.assertEquals("3", new String(responseCache.get("allPlayers", 2, 11, calls::incrementAndGet)));
+
+        Assert.assertEquals(4, calls.get());
+    }
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 import state.ProjectedState;
 import state.StatePopulator;
 import state.UserState;
+import types.SentTransaction;
 import util.*;
 import worker.BlockNumberCollector;
 import worker.EventListener;
@@ -46,7 +47,7 @@ public class SampleNodeInteraction {
 
     private static BlockNumberCollector blockNumberCollector;
     private static LinkedBlockingDeque<byte[]> rawTransactions;
-    private static LinkedBlockingDeque<Pair<ReceiptHash, Long>> transactionHashes;
+    private static LinkedBlockingDeque<SentTransaction> transactionHashes;
     private static TransactionSender transactionSender;
     private static ReceiptCollector receiptCollector;
     private static EventListener eventListener;
@@ -84,19 +85,22 @@ public class SampleNodeInteraction {
         transactionHashes = new LinkedBlockingDeque<>(100);
 
         StatePopulator statePopulator = new StatePopulator(projectedState);
-        UserState userState = new UserState(projectedState, nodeConnection, blockNumberCollector);
+        AsyncNodeConnection asyncNodeConnection = new AsyncNodeConnection("127.0.0.1", "8545", 4);
+        UserState userState = new UserState(projectedState, asyncNodeConnection, blockNumberCollector);
 
         transactionSender = new TransactionSender(blockNumberCollector,
                 rawTransactions,
                 transactionHashes,
-                nodeConnection,
+                asyncNodeConnection,
                 userState,
                 pollingIntervalMilliSeconds,
-                5);
+                5,
+                1,
+                30_000);
 
         receiptCollector = new ReceiptCollector(blockNumberCollector,
                 transactionHashes,
-                nodeConnection,
+                asyncNodeConnection,
                 userState,
                 2,
                 5000,
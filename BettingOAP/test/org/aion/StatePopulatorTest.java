@@ -1,5 +1,6 @@
 package org.aion;
 
+import internal.CriticalException;
 import org.aion.harness.kernel.Address;
 import org.junit.Assert;
 import org.junit.Before;
@@ -241,6 +242,56 @@ public class StatePopulatorTest {
         shutdownThreads();
     }
 
+    @Test
+    public void testScoreCalculationMultipleStatements() throws InterruptedException {
+        Address[] player = new Address[4];
+        Log[] registerLogs = new Log[player.length];
+        byte[] sampleHash = getRandomAddressBytes();
+
+        for (int i = 0; i < player.length; i++) {
+            player[i] = new Address(getRandomAddressBytes());
+            registerLogs[i] = getRegisteredLog(deployLog.address, blockNumber, player[i], i + 1, deployLog.blockHash);
+        }
+
+        Log submittedLog1 = getSubmittedStatementLog(sampleAddress, blockNumber + 1, player[0], 1, "S1".getBytes(), getRandomAddressBytes(), 0, sampleHash);
+        Log submittedLog2 = getSubmittedStatementLog(sampleAddress, blockNumber + 1, player[1], 2, "S2".getBytes(), getRandomAddressBytes(), 1, sampleHash);
+
+        // player 0 and 1 guess both statements correctly, player 2 only the first one, player 3 none
+        List<Log> voteLogs = new ArrayList<>(Arrays.asList(
+                getVotedLog(deployLog.address, blockNumber + 1, player[0], 1, "A".getBytes(), 2, sampleHash),
+                getVotedLog(deployLog.address, blockNumber + 1, player[0], 2, "B".getBytes(), 3, sampleHash),
+                getVotedLog(deployLog.address, blockNumber + 1, player[1], 1, "A".getBytes(), 4, sampleHash),
+                getVotedLog(deployLog.address, blockNumber + 1, player[1], 2, "B".getBytes(), 5, sampleHash),
+                getVotedLog(deployLog.address, blockNumber + 1, player[2], 1, "A".getBytes(), 6, sampleHash),
+                getVotedLog(deployLog.address, blockNumber + 1, player[2], 2, "A".getBytes(), 7, sampleHash),
+                getVotedLog(deployLog.address, blockNumber + 1, player[3], 1, "B".getBytes(), 8, sampleHash)));
+
+        Log revealedAnswerLog1 = getRevealedAnswerLog(deployLog.address, blockNumber + 1, 1, "A".getBytes(), 9, sampleHash);
+        Log revealedAnswerLog2 = getRevealedAnswerLog(deployLog.address, blockNumber + 1, 2, "B".getBytes(), 10, sampleHash);
+
+        List<Log> logs2 = new ArrayList<>(Arrays.asList(submittedLog1, submittedLog2, revealedAnswerLog1, revealedAnswerLog2));
+        logs2.addAll(voteLogs);
+
+        List<Log> logs1 = new ArrayList<>(Arrays.asList(deployLog));
+        logs1.addAll(Arrays.asList(registerLogs));
+        logs1.addAll(logs2);
+
+        when(nodeConnection.getLogs(deployLog.blockNumber, "latest", topics, sampleAddress)).thenReturn(logs1);
+        when(nodeConnection.getLogs(blockNumber + 1, "latest", topics, sampleAddress)).thenReturn(logs2);
+
+        startThreads();
+
+        Thread.sleep(pollingIntervalMillis * 10);
+
+        shutdownThreads();
+
+        Map<Integer, Player> players = projectedState.getPlayers();
+        Assert.assertEquals(2, players.get(1).getScore());
+        Assert.assertEquals(2, players.get(2).getScore());
+        Assert.assertEquals(1, players.get(3).getScore());
+        Assert.assertEquals(0, players.get(4).getScore());
+    }
+
     @Test
     public void testGameStoppedEvent() throws InterruptedException {
         Address player = new Address(getRandomAddressBytes());
@@ -280,4 +331,52 @@ public class StatePopulatorTest {
 
         Assert.assertEquals(5, (long) projectedState.getGameStatus().getPrizeDistributed().value);
     }
+
+    @Test
+    public void testPlayerIdsFollowRevertAndClear() {
+        StatePopulator statePopulator = new StatePopulator(projectedState);
+        Address player1 = new Address(getRandomAddressBytes());
+        Address player2 = new Address(getRandomAddressBytes());
+        statePopulator.populate(Arrays.asList(
+                deployLog,
+                getRegisteredLog(sampleAddress, 11, player1, 0, null),
+                getRegisteredLog(sampleAddress, 12, player2, 0, null)));
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+
+        // a reverted player can register again
+        statePopulator.revertBlocks(1);
+        Assert.assertEquals(1, projectedState.getPlayers().size());
+        statePopulator.populate(Arrays.asList(getRegisteredLog(sampleAddress, 12, player2, 0, null)));
+        Assert.assertEquals(2, projectedState.getPlayers().size());
+
+        // and is no longer known once reverted
+        statePopulator.revertBlocks(1);
+        try {
+            statePopulator.populate(Arrays.asList(getSubmittedStatementLog(sampleAddress, 12, player2, 1, "Q".getBytes(), "H".getBytes(), 0, null)));
+            Assert.fail("Statement of an unknown player was accepted");
+        } catch (CriticalException e) {
+            // expected
+        }
+
+        statePopulator.clear();
+        Assert.assertEquals(0, projectedState.getPlayers().size());
+        statePopulator.populate(Arrays.asList(deployLog, getRegisteredLog(sampleAddress, 11, player1, 0, null)));
+        Assert.assertEquals(1, projectedState.getPlayers().size());
+    }
+
+    @Test
+    public void testRankingIsReadFromSnapshot() {
+        Address player = new Address(getRandomAddressBytes());
+        projectedState.addPlayer(Player.from(player.getAddressBytes(), sampleHash, 11));
+
+        // the new player is not visible until the changes are published
+        Assert.assertEquals(-1, projectedState.getTopScore());
+        Assert.assertTrue(projectedState.getLeaderboard(0, 10).isEmpty());
+
+        projectedState.publishSnapshot();
+        Assert.assertEquals(0, projectedState.getTopScore());
+        Assert.assertEquals(1, projectedState.getLeaderboard(0, 10).size());
+        Assert.assertEquals(Arrays.asList(projectedState.getPlayers().values().iterator().next().getPlayerAddress().getAddressString()),
+                projectedState.getWinners());
+    }
 }
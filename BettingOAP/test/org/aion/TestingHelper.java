@@ -1,13 +1,13 @@
 package org.aion;
 
 import org.aion.harness.kernel.Address;
+import org.mockito.stubbing.Answer;
 import util.Log;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 public class TestingHelper {
@@ -126,6 +126,12 @@ public class TestingHelper {
                 "GameStopped"));
         return topics.stream().map(String::getBytes).collect(Collectors.toSet());
     }
+    // answers a batch call with the same result for every call in the batch
+    // for the batch calls of AsyncNodeConnection
+    static <T> Answer<CompletableFuture<List<T>>> eachCompletes(T result) {
+        return invocation -> CompletableFuture.completedFuture(new ArrayList<>(Collections.nCopies(((List<?>) invocation.getArguments()[0]).size(), result)));
+    }
+
     static byte[] getRandomAddressBytes() {
         byte[] bytes = new byte[32];
         secureRandom.nextBytes(bytes);
@@ -12,11 +12,13 @@ import org.junit.Test;
 import org.mockito.stubbing.Answer;
 import state.ProjectedState;
 import state.UserState;
+import types.SentTransaction;
 import types.TransactionDetails;
 import util.Helper;
+import util.AsyncNodeConnection;
 import util.NodeConnection;
-import util.Pair;
 import util.TransactionCreator;
+import util.TransactionDecoder;
 import worker.BlockNumberCollector;
 import worker.ReceiptCollector;
 import worker.TransactionSender;
@@ -28,19 +30,26 @@ import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.mockito.Matchers.any;
+import static org.aion.TestingHelper.eachCompletes;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class TransactionSenderTest {
 
     NodeConnection nodeConnection = mock(NodeConnection.class);
+    AsyncNodeConnection asyncNodeConnection = mock(AsyncNodeConnection.class);
 
     private LinkedBlockingDeque<byte[]> rawTransactions;
-    private LinkedBlockingDeque<Pair<ReceiptHash, Long>> transactionHashes;
+    private LinkedBlockingDeque<SentTransaction> transactionHashes;
     private TransactionSender transactionSender;
     private ReceiptCollector receiptCollector;
     private UserState userState;
@@ -56,24 +65,28 @@ public class TransactionSenderTest {
     @Before
     public void setup() throws InterruptedException {
         when(nodeConnection.blockNumber()).thenAnswer(getNextBlock);
+        // the lanes of new senders start from the nonce of their first transaction
+        when(asyncNodeConnection.getPendingNonces(anyListOf(org.aion.harness.kernel.Address.class))).thenAnswer(eachCompletes(RpcResult.unsuccessful("no pending nonce")));
         blockNumberCollector = new BlockNumberCollector(nodeConnection, pollingIntervalMillis, 3);
 
         rawTransactions = new LinkedBlockingDeque<>(100);
         transactionHashes = new LinkedBlockingDeque<>(100);
 
-        userState = new UserState(new ProjectedState(), nodeConnection, blockNumberCollector);
+        userState = new UserState(new ProjectedState(), asyncNodeConnection, blockNumberCollector);
 
         transactionSender = new TransactionSender(blockNumberCollector,
                 rawTransactions,
                 transactionHashes,
-                nodeConnection,
+                asyncNodeConnection,
                 userState,
                 pollingIntervalMillis,
-                1);
+                1,
+                2,
+                pollingIntervalMillis * 20);
 
         receiptCollector = new ReceiptCollector(blockNumberCollector,
                 transactionHashes,
-                nodeConnection,
+                asyncNodeConnection,
                 userState,
                 2,
                 pollingIntervalMillis,
@@ -103,17 +116,17 @@ public class TransactionSenderTest {
     @Test
     public void testSendTransactionSuccess() throws InterruptedException, InvalidKeySpecException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         String receiptHash = "15c6fce4f6d59f5207ac26bdd0190713b1fdb207411301a1eaaf4b1875aecaa1";
-        when(nodeConnection.sendSignedTransaction(any(byte[].class))).thenReturn(
+        when(asyncNodeConnection.sendSignedTransactions(anyListOf(byte[].class))).thenAnswer(eachCompletes(
                 RpcResult.successful(
                         new ReceiptHash(Helper.hexStringToBytes(receiptHash)),
                         System.currentTimeMillis(),
-                        TimeUnit.MILLISECONDS));
+                        TimeUnit.MILLISECONDS)));
 
-        when(nodeConnection.getTransactionReceipt(any(ReceiptHash.class))).thenReturn(
+        when(asyncNodeConnection.getTransactionReceipts(anyListOf(ReceiptHash.class))).thenAnswer(eachCompletes(
                 RpcResult.successful(
                         successReceipt,
                         System.currentTimeMillis(),
-                        TimeUnit.MILLISECONDS));
+                        TimeUnit.MILLISECONDS)));
 
         PrivateKey privateKey = PrivateKey.fromBytes(
                 Helper.hexStringToBytes("0x15c6fce4f6d59f5207ac26bdd0190713b1fdb207411301a1eaaf4b1875aecaa1"));
@@ -140,14 +153,14 @@ public class TransactionSenderTest {
     @Test
     public void testSendTransactionFail() throws InterruptedException, InvalidKeySpecException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         String receiptHash = "15c6fce4f6d59f5207ac26bdd0190713b1fdb207411301a1eaaf4b1875aecaa1";
-        when(nodeConnection.sendSignedTransaction(any(byte[].class))).thenReturn(
+        when(asyncNodeConnection.sendSignedTransactions(anyListOf(byte[].class))).thenAnswer(eachCompletes(
                 RpcResult.successful(
                         new ReceiptHash(Helper.hexStringToBytes(receiptHash)),
                         System.currentTimeMillis(),
-                        TimeUnit.MILLISECONDS));
+                        TimeUnit.MILLISECONDS)));
 
-        when(nodeConnection.getTransactionReceipt(any(ReceiptHash.class))).thenReturn(
-                RpcResult.unsuccessful("could not retrieve successReceipt"));
+        when(asyncNodeConnection.getTransactionReceipts(anyListOf(ReceiptHash.class))).thenAnswer(eachCompletes(
+                RpcResult.unsuccessful("could not retrieve successReceipt")));
 
         PrivateKey privateKey = PrivateKey.fromBytes(
                 Helper.hexStringToBytes("0x15c6fce4f6d59f5207ac26bdd0190713b1fdb207411301a1eaaf4b1875aecaa1"));
@@ -174,17 +187,17 @@ public class TransactionSenderTest {
     @Test
     public void testSendTransactionFailed() throws InterruptedException, InvalidKeySpecException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         String receiptHash = "15c6fce4f6d59f5207ac26bdd0190713b1fdb207411301a1eaaf4b1875aecaa1";
-        when(nodeConnection.sendSignedTransaction(any(byte[].class))).thenReturn(
+        when(asyncNodeConnection.sendSignedTransactions(anyListOf(byte[].class))).thenAnswer(eachCompletes(
                 RpcResult.successful(
                         new ReceiptHash(Helper.hexStringToBytes(receiptHash)),
                         System.currentTimeMillis(),
-                        TimeUnit.MILLISECONDS));
+                        TimeUnit.MILLISECONDS)));
 
-        when(nodeConnection.getTransactionReceipt(any(ReceiptHash.class))).thenReturn(
+        when(asyncNodeConnection.getTransactionReceipts(anyListOf(ReceiptHash.class))).thenAnswer(eachCompletes(
                 RpcResult.successful(
                         failedReceipt,
                         System.currentTimeMillis(),
-                        TimeUnit.MILLISECONDS));
+                        TimeUnit.MILLISECONDS)));
 
         PrivateKey privateKey = PrivateKey.fromBytes(
                 Helper.hexStringToBytes("0x15c6fce4f6d59f5207ac26bdd0190713b1fdb207411301a1eaaf4b1875aecaa1"));
@@ -207,6 +220,226 @@ public class TransactionSenderTest {
         shutdownThreads();
     }
 
+    @Test
+    public void testMissingReceiptDoesNotDelayOthers() throws InterruptedException {
+        ReceiptHash missing = new ReceiptHash(TestingHelper.getRandomAddressBytes());
+        ReceiptHash found = new ReceiptHash(TestingHelper.getRandomAddressBytes());
+        AtomicInteger missingQueries = new AtomicInteger();
+        when(asyncNodeConnection.getTransactionReceipts(anyListOf(ReceiptHash.class))).thenAnswer(invocation -> {
+            List<RpcResult<TransactionReceipt>> results = new ArrayList<>();
+            for (Object hash : (List<?>) invocation.getArguments()[0]) {
+                if (hash == missing) {
+                    missingQueries.incrementAndGet();
+                }
+                results.add(hash == found
+                        ? RpcResult.successful(successReceipt, System.currentTimeMillis(), TimeUnit.MILLISECONDS)
+                        : RpcResult.unsuccessful("receipt not found"));
+            }
+            return CompletableFuture.completedFuture(results);
+        });
+
+        org.aion.harness.kernel.Address missingSender = new org.aion.harness.kernel.Address(TestingHelper.getRandomAddressBytes());
+        // the missing receipt becomes eligible first
+        transactionHashes.add(SentTransaction.of(missing, missingSender, currentBlockNumber));
+        transactionHashes.add(SentTransaction.of(found, successReceipt.getTransactionSender(), currentBlockNumber + 1));
+
+        startThreads();
+
+        String sender = Helper.bytesToHexString(successReceipt.getTransactionSender().getAddressBytes());
+        Thread.sleep(pollingIntervalMillis * 10);
+
+        Assert.assertEquals(1, userState.getTransactions(sender).size());
+        Assert.assertEquals(TransactionDetails.RESULT_TYPE.RECEIPT_SUCCESS, userState.getTransactions(sender).get(0).getResult());
+        // reported as failed after the 3 attempts, one per block
+        Assert.assertEquals(1, userState.getTransactions(Helper.bytesToHexString(missingSender.getAddressBytes())).size());
+        Assert.assertEquals(3, missingQueries.get());
+
+        shutdownThreads();
+    }
+
+    @Test
+    public void testTransactionsOfSenderAreSentInOrder() throws Exception {
+        List<byte[]> sent = Collections.synchronizedList(new ArrayList<>());
+        List<List<org.aion.harness.kernel.Address>> batchSenders = Collections.synchronizedList(new ArrayList<>());
+        when(asyncNodeConnection.sendSignedTransactions(anyListOf(byte[].class))).thenAnswer(invocation -> {
+            List<RpcResult<ReceiptHash>> results = new ArrayList<>();
+            List<org.aion.harness.kernel.Address> senders = new ArrayList<>();
+            for (Object transaction : (List<?>) invocation.getArguments()[0]) {
+                sent.add((byte[]) transaction);
+                senders.add(TransactionDecoder.getSender((byte[]) transaction));
+                results.add(RpcResult.successful(new ReceiptHash(TestingHelper.getRandomAddressBytes()), System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+            }
+            batchSenders.add(senders);
+            return CompletableFuture.completedFuture(results);
+        });
+        when(asyncNodeConnection.getTransactionReceipts(anyListOf(ReceiptHash.class))).thenAnswer(eachCompletes(
+                RpcResult.unsuccessful("receipt not found")));
+
+        org.aion.harness.kernel.Address destination = new org.aion.harness.kernel.Address(TestingHelper.getRandomAddressBytes());
+        List<PrivateKey> senders = new ArrayList<>();
+        List<byte[]> queued = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            senders.add(PrivateKey.random());
+        }
+        for (int nonce = 0; nonce < 5; nonce++) {
+            for (PrivateKey sender : senders) {
+                byte[] transaction = TransactionCreator.buildRawTransaction(sender, BigInteger.valueOf(nonce), destination, new byte[0], BigInteger.ONE).getSignedTransactionBytes();
+                Assert.assertEquals(sender.getAddress(), TransactionDecoder.getSender(transaction));
+                queued.add(transaction);
+            }
+        }
+        rawTransactions.addAll(queued);
+
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 10);
+        shutdownThreads();
+
+        Assert.assertEquals(queued.size(), sent.size());
+        // the node may process the entries of a batch in any order, so a batch holds one nonce per sender
+        for (List<org.aion.harness.kernel.Address> senderList : batchSenders) {
+            Assert.assertEquals(senderList.size(), new HashSet<>(senderList).size());
+        }
+        for (PrivateKey sender : senders) {
+            List<byte[]> queuedBySender = new ArrayList<>();
+            List<byte[]> sentBySender = new ArrayList<>();
+            for (byte[] transaction : queued) {
+                if (TransactionDecoder.getSender(transaction).equals(sender.getAddress())) {
+                    queuedBySender.add(transaction);
+                }
+            }
+            for (byte[] transaction : sent) {
+                if (TransactionDecoder.getSender(transaction).equals(sender.getAddress())) {
+                    sentBySender.add(transaction);
+                }
+            }
+            Assert.assertEquals(queuedBySender, sentBySender);
+        }
+    }
+
+    @Test
+    public void testTransactionsAfterNonceGapAreHeld() throws Exception {
+        List<byte[]> sent = Collections.synchronizedList(new ArrayList<>());
+        when(asyncNodeConnection.sendSignedTransactions(anyListOf(byte[].class))).thenAnswer(invocation -> {
+            List<RpcResult<ReceiptHash>> results = new ArrayList<>();
+            for (Object transaction : (List<?>) invocation.getArguments()[0]) {
+                sent.add((byte[]) transaction);
+                results.add(RpcResult.successful(new ReceiptHash(TestingHelper.getRandomAddressBytes()), System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+            }
+            return CompletableFuture.completedFuture(results);
+        });
+        when(asyncNodeConnection.getTransactionReceipts(anyListOf(ReceiptHash.class))).thenAnswer(eachCompletes(
+                RpcResult.unsuccessful("receipt not found")));
+        when(asyncNodeConnection.getPendingNonces(anyListOf(org.aion.harness.kernel.Address.class))).thenAnswer(eachCompletes(
+                RpcResult.successful(BigInteger.ZERO, System.currentTimeMillis(), TimeUnit.MILLISECONDS)));
+
+        PrivateKey sender = PrivateKey.random();
+        org.aion.harness.kernel.Address destination = new org.aion.harness.kernel.Address(TestingHelper.getRandomAddressBytes());
+        byte[][] transactions = new byte[3][];
+        for (int nonce = 0; nonce < 3; nonce++) {
+            transactions[nonce] = TransactionCreator.buildRawTransaction(sender, BigInteger.valueOf(nonce), destination, new byte[0], BigInteger.ONE).getSignedTransactionBytes();
+            Assert.assertEquals(BigInteger.valueOf(nonce), TransactionDecoder.getNonce(transactions[nonce]));
+        }
+
+        // nonce 0 of the account is missing
+        rawTransactions.add(transactions[2]);
+        rawTransactions.add(transactions[1]);
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 5);
+        Assert.assertEquals(0, sent.size());
+
+        rawTransactions.add(transactions[0]);
+        Thread.sleep(pollingIntervalMillis * 5);
+        shutdownThreads();
+
+        Assert.assertEquals(Arrays.asList(transactions), sent);
+    }
+
+    @Test
+    public void testLaneStartsAfterPendingTransactions() throws Exception {
+        List<byte[]> sent = Collections.synchronizedList(new ArrayList<>());
+        when(asyncNodeConnection.sendSignedTransactions(anyListOf(byte[].class))).thenAnswer(invocation -> {
+            List<RpcResult<ReceiptHash>> results = new ArrayList<>();
+            for (Object transaction : (List<?>) invocation.getArguments()[0]) {
+                sent.add((byte[]) transaction);
+                results.add(RpcResult.successful(new ReceiptHash(TestingHelper.getRandomAddressBytes()), System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+            }
+            return CompletableFuture.completedFuture(results);
+        });
+        when(asyncNodeConnection.getTransactionReceipts(anyListOf(ReceiptHash.class))).thenAnswer(eachCompletes(
+                RpcResult.unsuccessful("receipt not found")));
+        // nonces 0 and 1 of the account are still pending in the node
+        when(asyncNodeConnection.getPendingNonces(anyListOf(org.aion.harness.kernel.Address.class))).thenAnswer(eachCompletes(
+                RpcResult.successful(BigInteger.valueOf(2), System.currentTimeMillis(), TimeUnit.MILLISECONDS)));
+
+        PrivateKey sender = PrivateKey.random();
+        org.aion.harness.kernel.Address destination = new org.aion.harness.kernel.Address(TestingHelper.getRandomAddressBytes());
+        List<byte[]> transactions = new ArrayList<>();
+        for (int nonce = 2; nonce < 4; nonce++) {
+            transactions.add(TransactionCreator.buildRawTransaction(sender, BigInteger.valueOf(nonce), destination, new byte[0], BigInteger.ONE).getSignedTransactionBytes());
+        }
+        rawTransactions.addAll(transactions);
+
+        // sent without waiting for the gap timeout
+        startThreads();
+        Thread.sleep(pollingIntervalMillis * 5);
+        shutdownThreads();
+
+        Assert.assertEquals(transactions, sent);
+    }
+
+    @Test
+    public void testReceiptHashesAreNotDropped() throws Exception {
+        AtomicInteger sentCount = new AtomicInteger();
+        when(asyncNodeConnection.sendSignedTransactions(anyListOf(byte[].class))).thenAnswer(invocation -> {
+            List<RpcResult<ReceiptHash>> results = new ArrayList<>();
+            for (Object transaction : (List<?>) invocation.getArguments()[0]) {
+                sentCount.incrementAndGet();
+                results.add(RpcResult.successful(new ReceiptHash(TestingHelper.getRandomAddressBytes()), System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+            }
+            return CompletableFuture.completedFuture(results);
+        });
+
+        // the receipts are not collected, so the hashes queue is only emptied by the test
+        LinkedBlockingDeque<SentTransaction> smallTransactionHashes = new LinkedBlockingDeque<>(5);
+        transactionSender = new TransactionSender(blockNumberCollector,
+                rawTransactions,
+                smallTransactionHashes,
+                asyncNodeConnection,
+                userState,
+                pollingIntervalMillis,
+                1,
+                4,
+                pollingIntervalMillis * 20);
+        transactionSenderThread = new Thread(transactionSender);
+        for (int i = 0; i < 20; i++) {
+            rawTransactions.add(TestingHelper.getRandomAddressBytes());
+        }
+
+        transactionSenderThread.start();
+        blockNumberCollectorThread.start();
+        long deadline = System.currentTimeMillis() + pollingIntervalMillis * 100;
+        while (sentCount.get() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(pollingIntervalMillis);
+        }
+        // nothing more is sent while the queue is full
+        Thread.sleep(pollingIntervalMillis * 5);
+        Assert.assertEquals(5, sentCount.get());
+        Assert.assertEquals(5, smallTransactionHashes.size());
+
+        List<SentTransaction> collected = new ArrayList<>();
+        while (collected.size() < 20) {
+            SentTransaction sentTransaction = smallTransactionHashes.poll(pollingIntervalMillis * 10, TimeUnit.MILLISECONDS);
+            Assert.assertNotNull(sentTransaction);
+            collected.add(sentTransaction);
+        }
+        blockNumberCollector.shutdown();
+        transactionSender.shutdown();
+        transactionSenderThread.join();
+        blockNumberCollectorThread.join();
+
+        Assert.assertEquals(20, sentCount.get());
+    }
+
     Answer getNextBlock = invocation -> {
         currentBlockNumber++;
         return RpcResult.successful(